@@ -0,0 +1,234 @@
+package com.reucon.commons.web;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Set of IPv4 and IPv6 networks in CIDR notation, e.g. <code>10.0.0.0/8</code> or
+ * <code>2001:db8::/32</code>. A plain address is a network of a single address.
+ * <p>
+ * The networks are stored in a binary prefix trie per address family, so matching an address
+ * takes at most one step per address bit regardless of the number of networks. IPv4-mapped IPv6
+ * addresses are matched as IPv4 addresses.
+ * <p>
+ * Addresses are only accepted as literals, host names are never resolved.
+ *
+ * @since 2.2.7
+ */
+public final class CidrSet
+{
+    private final Node ipv4 = new Node();
+    private final Node ipv6 = new Node();
+    private boolean empty = true;
+
+    /**
+     * Compiles a comma separated list of networks.
+     *
+     * @param networks the networks, may be <code>null</code>
+     * @return the compiled set.
+     * @throws IllegalArgumentException if a network is invalid.
+     */
+    public static CidrSet compile(String networks)
+    {
+        final CidrSet set = new CidrSet();
+        if (networks != null)
+        {
+            for (String network : networks.split(","))
+            {
+                if (!network.trim().isEmpty())
+                {
+                    set.add(network.trim());
+                }
+            }
+        }
+        return set;
+    }
+
+    /**
+     * Adds a network.
+     *
+     * @param network the network in CIDR notation or a single address
+     * @throws IllegalArgumentException if the network is invalid.
+     */
+    public void add(String network)
+    {
+        final int slash = network.indexOf('/');
+        final byte[] address = parseAddress(slash < 0 ? network : network.substring(0, slash));
+        if (address == null)
+        {
+            throw new IllegalArgumentException("Invalid network '" + network + "'");
+        }
+        final int bits = address.length * 8;
+        int prefix = bits;
+        if (slash >= 0)
+        {
+            try
+            {
+                prefix = Integer.parseInt(network.substring(slash + 1).trim());
+            }
+            catch (NumberFormatException e)
+            {
+                prefix = -1;
+            }
+            if (prefix < 0 || prefix > bits)
+            {
+                throw new IllegalArgumentException("Invalid prefix length in network '" + network + "'");
+            }
+        }
+        Node node = address.length == 4 ? ipv4 : ipv6;
+        for (int i = 0; i < prefix && !node.terminal; i++)
+        {
+            if (bit(address, i))
+            {
+                node = node.one != null ? node.one : (node.one = new Node());
+            }
+            else
+            {
+                node = node.zero != null ? node.zero : (node.zero = new Node());
+            }
+        }
+        // everything below is covered by this network now
+        node.terminal = true;
+        node.zero = null;
+        node.one = null;
+        empty = false;
+    }
+
+    public boolean isEmpty()
+    {
+        return empty;
+    }
+
+    /**
+     * Returns whether the given address belongs to one of the networks.
+     *
+     * @param address a textual IPv4 or IPv6 address
+     * @return <code>true</code> if the address is contained, <code>false</code> if not or if it
+     *         is not an address literal.
+     */
+    public boolean contains(String address)
+    {
+        if (empty || address == null)
+        {
+            return false;
+        }
+        final byte[] bytes = parseAddress(address);
+        return bytes != null && contains(bytes);
+    }
+
+    /**
+     * Returns whether the given address belongs to one of the networks.
+     *
+     * @param address the address bytes, 4 for IPv4 or 16 for IPv6
+     * @return <code>true</code> if the address is contained.
+     */
+    public boolean contains(byte[] address)
+    {
+        Node node = address.length == 4 ? ipv4 : ipv6;
+        final int bits = address.length * 8;
+        for (int i = 0; ; i++)
+        {
+            if (node.terminal)
+            {
+                return true;
+            }
+            if (i == bits)
+            {
+                return false;
+            }
+            node = bit(address, i) ? node.one : node.zero;
+            if (node == null)
+            {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Parses an IPv4 or IPv6 address literal without ever resolving a host name.
+     *
+     * @param address the textual address
+     * @return the address bytes or <code>null</code> if the text is not an address literal.
+     */
+    static byte[] parseAddress(String address)
+    {
+        if (address.isEmpty())
+        {
+            return null;
+        }
+        if (address.indexOf(':') < 0)
+        {
+            return parseIpv4(address);
+        }
+        // InetAddress only treats text as literal, and rejects it instead of looking it up, if it
+        // starts with a hex digit or a colon; the rest may only contain hex digits, colons and
+        // dots up to the zone id
+        final char first = address.charAt(0);
+        if (!(first == ':' || Character.digit(first, 16) >= 0))
+        {
+            return null;
+        }
+        final int zone = address.indexOf('%');
+        for (int i = 1; i < (zone < 0 ? address.length() : zone); i++)
+        {
+            final char c = address.charAt(i);
+            if (!(c == ':' || c == '.' || (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F')))
+            {
+                return null;
+            }
+        }
+        try
+        {
+            return InetAddress.getByName(address).getAddress();
+        }
+        catch (UnknownHostException | SecurityException e)
+        {
+            return null;
+        }
+    }
+
+    private static byte[] parseIpv4(String address)
+    {
+        final byte[] bytes = new byte[4];
+        int part = 0;
+        int value = -1;
+        for (int i = 0; i <= address.length(); i++)
+        {
+            final char c = i < address.length() ? address.charAt(i) : '.';
+            if (c == '.')
+            {
+                if (value < 0 || part == 4)
+                {
+                    return null;
+                }
+                bytes[part++] = (byte) value;
+                value = -1;
+            }
+            else if (c >= '0' && c <= '9')
+            {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255)
+                {
+                    return null;
+                }
+            }
+            else
+            {
+                return null;
+            }
+        }
+        return part == 4 ? bytes : null;
+    }
+
+    private static boolean bit(byte[] address, int index)
+    {
+        return (address[index >> 3] & (0x80 >>> (index & 7))) != 0;
+    }
+
+    private static final class Node
+    {
+        private Node zero;
+        private Node one;
+        private boolean terminal;
+    }
+}
@@ -0,0 +1,154 @@
+package com.reucon.commons.web;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Determines the address of the client behind a chain of trusted proxies.
+ * <p>
+ * Starting with the remote address of the connection, the addresses listed in the RFC 7239
+ * <code>Forwarded</code> header, or the <code>X-Forwarded-For</code> header if there is none, are
+ * walked from right to left. The first address that is not a trusted proxy is the client.
+ * Entries that are not address literals, e.g. <code>unknown</code> or obfuscated identifiers,
+ * stop the walk and are returned as they are because nothing beyond them can be trusted.
+ * <p>
+ * Without trusted proxies the remote address of the connection is returned and the headers are
+ * not read at all.
+ *
+ * @see CidrSet
+ * @since 2.2.7
+ */
+public class ClientIpResolver
+{
+    private static final String FORWARDED_HEADER = "Forwarded";
+    private static final String X_FORWARDED_FOR_HEADER = "X-Forwarded-For";
+    private static final String FOR_PARAMETER = "for=";
+
+    private final CidrSet trustedProxies;
+
+    public ClientIpResolver(CidrSet trustedProxies)
+    {
+        this.trustedProxies = trustedProxies;
+    }
+
+    /**
+     * Creates a resolver trusting the given proxies.
+     *
+     * @param trustedProxies comma separated list of networks in CIDR notation
+     * @throws IllegalArgumentException if a network is invalid.
+     */
+    public ClientIpResolver(String trustedProxies)
+    {
+        this(CidrSet.compile(trustedProxies));
+    }
+
+    /**
+     * Returns the address of the client.
+     *
+     * @param request the request to inspect
+     * @return the client address.
+     */
+    public String resolve(ServletRequest request)
+    {
+        final String remoteAddress = request.getRemoteAddr();
+        if (trustedProxies.isEmpty() || !(request instanceof HttpServletRequest) || !trustedProxies.contains(remoteAddress))
+        {
+            return remoteAddress;
+        }
+        final HttpServletRequest httpServletRequest = (HttpServletRequest) request;
+        List<String> hops = forwardedFor(httpServletRequest.getHeaders(FORWARDED_HEADER));
+        if (hops.isEmpty())
+        {
+            hops = xForwardedFor(httpServletRequest.getHeaders(X_FORWARDED_FOR_HEADER));
+        }
+        String client = remoteAddress;
+        for (int i = hops.size() - 1; i >= 0; i--)
+        {
+            client = hops.get(i);
+            final byte[] address = CidrSet.parseAddress(client);
+            if (address == null || !trustedProxies.contains(address))
+            {
+                return client;
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Returns the <code>for</code> parameters of all elements of the <code>Forwarded</code> headers.
+     */
+    static List<String> forwardedFor(Enumeration<String> headers)
+    {
+        if (headers == null || !headers.hasMoreElements())
+        {
+            return Collections.emptyList();
+        }
+        final List<String> hops = new ArrayList<>();
+        while (headers.hasMoreElements())
+        {
+            for (String element : headers.nextElement().split(","))
+            {
+                for (String pair : element.split(";"))
+                {
+                    final String trimmed = pair.trim();
+                    if (trimmed.regionMatches(true, 0, FOR_PARAMETER, 0, FOR_PARAMETER.length()))
+                    {
+                        hops.add(normalize(trimmed.substring(FOR_PARAMETER.length())));
+                    }
+                }
+            }
+        }
+        return hops;
+    }
+
+    /**
+     * Returns all entries of the <code>X-Forwarded-For</code> headers.
+     */
+    static List<String> xForwardedFor(Enumeration<String> headers)
+    {
+        if (headers == null || !headers.hasMoreElements())
+        {
+            return Collections.emptyList();
+        }
+        final List<String> hops = new ArrayList<>();
+        while (headers.hasMoreElements())
+        {
+            for (String entry : headers.nextElement().split(","))
+            {
+                if (!entry.trim().isEmpty())
+                {
+                    hops.add(normalize(entry));
+                }
+            }
+        }
+        return hops;
+    }
+
+    /**
+     * Removes quotes, brackets and ports from a node, e.g. <code>"[2001:db8::1]:4711"</code>.
+     */
+    static String normalize(String node)
+    {
+        String value = node.trim();
+        if (value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"')
+        {
+            value = value.substring(1, value.length() - 1).trim();
+        }
+        if (value.startsWith("["))
+        {
+            final int end = value.indexOf(']');
+            return end < 0 ? value : value.substring(1, end);
+        }
+        final int colon = value.indexOf(':');
+        if (colon >= 0 && colon == value.lastIndexOf(':'))
+        {
+            // IPv4 address or identifier with a port
+            value = value.substring(0, colon);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,216 @@
+package com.reucon.commons.web;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.management.ObjectName;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Variant of {@link OptionalFilter} that delegates to an ordered list of filters discovered
+ * through reflection, each of which can be switched on and off at runtime, e.g. to enable a
+ * profiling filter during an incident without a redeploy.
+ * <p>
+ * The filters are set through the init parameter <code>target-filter-classes</code> as comma
+ * separated list of class names and are executed in that order. Filters that are not available
+ * on the classpath are skipped. All available filters are enabled unless they are listed in the
+ * init parameter <code>disabled-filter-classes</code>. Enabled filters are initialized with the
+ * configuration of this filter when it is initialized, or when they are first used if the init
+ * parameter <code>lazy-init</code> is <code>true</code>. Filters that are enabled later are
+ * always initialized when they are first used.
+ * <p>
+ * Each filter is registered as {@link OptionalDelegateMXBean}
+ * <code>com.reucon.commons:type=OptionalFilter,name=&lt;filter name&gt;/&lt;filter class&gt;</code>
+ * whose attribute <code>Enabled</code> switches it on and off. A disabled filter costs a single
+ * check of a volatile flag per request, if all filters are disabled the request is passed on
+ * without allocating a chain. The management bean also exposes what each filter costs,
+ * see {@link OptionalFilter}.
+ * <p>
+ * Like {@link OptionalFilter} the init parameters <code>include-paths</code> and
+ * <code>exclude-paths</code> restrict the filters to requests matching the given Ant-style
+ * patterns. The scope is checked once per request for all filters.
+ * <p>
+ * Example:
+ * <code>
+ * &lt;filter&gt;
+ *   &lt;filter-name&gt;Profiling&lt;/filter-name&gt;
+ *   &lt;filter-class&gt;com.reucon.commons.web.CompositeOptionalFilter&lt;/filter-class&gt;
+ *   &lt;init-param&gt;
+ *     &lt;param-name&gt;target-filter-classes&lt;/param-name&gt;
+ *     &lt;param-value&gt;com.jamonapi.JAMonFilter, com.example.ProfilingFilter&lt;/param-value&gt;
+ *   &lt;/init-param&gt;
+ *   &lt;init-param&gt;
+ *     &lt;param-name&gt;disabled-filter-classes&lt;/param-name&gt;
+ *     &lt;param-value&gt;com.example.ProfilingFilter&lt;/param-value&gt;
+ *   &lt;/init-param&gt;
+ * &lt;/filter&gt;
+ * </code>
+ *
+ * @since 2.2.7
+ */
+public class CompositeOptionalFilter implements Filter
+{
+    public static final String TARGET_FILTER_CLASSES_PARAMETER = "target-filter-classes";
+    public static final String DISABLED_FILTER_CLASSES_PARAMETER = "disabled-filter-classes";
+    public static final String LAZY_INIT_PARAMETER = "lazy-init";
+    public static final String INCLUDE_PATHS_PARAMETER = PathScope.INCLUDE_PATHS_PARAMETER;
+    public static final String EXCLUDE_PATHS_PARAMETER = PathScope.EXCLUDE_PATHS_PARAMETER;
+
+    private static final String MBEAN_TYPE = "OptionalFilter";
+
+    private final Log logger = LogFactory.getLog(getClass());
+    private OptionalDelegate[] delegates = new OptionalDelegate[0];
+    private PathScope scope;
+    private final List<ObjectName> mbeanNames = new ArrayList<>();
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException
+    {
+        final String targetClassNames = filterConfig.getInitParameter(TARGET_FILTER_CLASSES_PARAMETER);
+        if (targetClassNames == null)
+        {
+            logger.warn("You must specify the target filters by setting the " + TARGET_FILTER_CLASSES_PARAMETER
+                    + " init parameter");
+            return;
+        }
+        scope = PathScope.compile(filterConfig);
+        final Set<String> disabled = new HashSet<>(split(filterConfig.getInitParameter(DISABLED_FILTER_CLASSES_PARAMETER)));
+        final boolean lazy = Boolean.parseBoolean(filterConfig.getInitParameter(LAZY_INIT_PARAMETER));
+        final boolean histogram = Boolean.parseBoolean(filterConfig.getInitParameter(OptionalFilter.SELF_TIME_HISTOGRAM_PARAMETER));
+        final String name = filterConfig.getFilterName() != null ? filterConfig.getFilterName() : getClass().getSimpleName();
+
+        final List<OptionalDelegate> loaded = new ArrayList<>();
+        for (String targetClassName : split(targetClassNames))
+        {
+            final OptionalDelegate delegate = OptionalDelegate.load(targetClassName, filterConfig, logger);
+            if (delegate.isAvailable() && !disabled.contains(targetClassName))
+            {
+                delegate.setEnabled(true);
+                if (!lazy)
+                {
+                    try
+                    {
+                        delegate.initialize();
+                    }
+                    catch (ServletException | RuntimeException e)
+                    {
+                        // logged and disabled by the delegate, the other filters still work
+                    }
+                }
+            }
+            delegate.setHistogramEnabled(histogram);
+            loaded.add(delegate);
+            final ObjectName mbeanName = MBeanRegistration.register(delegate, MBEAN_TYPE, name + "/" + targetClassName, logger);
+            if (mbeanName != null)
+            {
+                mbeanNames.add(mbeanName);
+            }
+        }
+        delegates = loaded.toArray(new OptionalDelegate[0]);
+    }
+
+    @Override
+    public void destroy()
+    {
+        for (ObjectName mbeanName : mbeanNames)
+        {
+            MBeanRegistration.unregister(mbeanName, logger);
+        }
+        mbeanNames.clear();
+        for (OptionalDelegate delegate : delegates)
+        {
+            delegate.destroy();
+        }
+    }
+
+    /**
+     * Returns the delegates in the order they are executed.
+     *
+     * @return the delegates.
+     */
+    public List<OptionalDelegateMXBean> getDelegates()
+    {
+        return Arrays.asList(delegates);
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+            ServletException
+    {
+        if (scope == null || !scope.matches(request))
+        {
+            chain.doFilter(request, response);
+            return;
+        }
+        final OptionalDelegate[] delegates = this.delegates;
+        for (int i = 0; i < delegates.length; i++)
+        {
+            if (delegates[i].isEnabled())
+            {
+                new DelegatingChain(delegates, i, chain).doFilter(request, response);
+                return;
+            }
+        }
+        // no filter enabled, nothing to allocate
+        chain.doFilter(request, response);
+    }
+
+    private static List<String> split(String classNames)
+    {
+        final List<String> result = new ArrayList<>();
+        if (classNames != null)
+        {
+            for (String className : classNames.split(","))
+            {
+                if (!className.trim().isEmpty())
+                {
+                    result.add(className.trim());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Chain passing the request to the next enabled delegate and to the original chain after the
+     * last one.
+     */
+    private static class DelegatingChain implements FilterChain
+    {
+        private final OptionalDelegate[] delegates;
+        private final FilterChain chain;
+        private int position;
+
+        private DelegatingChain(OptionalDelegate[] delegates, int position, FilterChain chain)
+        {
+            this.delegates = delegates;
+            this.position = position;
+            this.chain = chain;
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException
+        {
+            while (position < delegates.length)
+            {
+                final OptionalDelegate delegate = delegates[position++];
+                if (delegate.isEnabled())
+                {
+                    delegate.doFilter(request, response, this);
+                    return;
+                }
+            }
+            chain.doFilter(request, response);
+        }
+    }
+}
@@ -0,0 +1,577 @@
+package com.reucon.commons.web;
+
+import com.reucon.commons.web.request.PathPatternSet;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Load shedding filter that limits the number of requests processed concurrently and rejects
+ * excess requests right away with <code>503 Service Unavailable</code> instead of letting them
+ * queue up for threads that are blocked by a slow downstream system.
+ * <p>
+ * The limit adapts to the observed latency (AIMD): after every window of
+ * <code>windowSize</code> requests the average latency of the window is compared with a baseline,
+ * the lowest average latency observed that slowly drifts upwards. If the window is slower than
+ * <code>tolerance</code> times the baseline the limit is decreased by the factor
+ * <code>backoffRatio</code>, otherwise it is increased by one as long as at least half of it is
+ * in use. The limit stays between <code>minLimit</code> and <code>maxLimit</code>.
+ * <p>
+ * Requests matching the Ant-style patterns of <code>highPriorityPaths</code> may use the whole
+ * limit, those matching <code>lowPriorityPaths</code> only the share
+ * <code>lowPriorityShare</code> of it and all others the share <code>normalPriorityShare</code>,
+ * so the requests that matter most are shed last.
+ * <p>
+ * Admitting a request is a compare-and-set on the number of requests in flight, recording its
+ * latency two atomic additions. The limit is recomputed by the request completing a window.
+ * Asynchronous requests are released when they complete.
+ * <p>
+ * Example:
+ * <code>
+ * &lt;filter&gt;
+ *   &lt;filter-name&gt;ConcurrencyLimit&lt;/filter-name&gt;
+ *   &lt;filter-class&gt;com.reucon.commons.web.ConcurrencyLimitFilter&lt;/filter-class&gt;
+ *   &lt;init-param&gt;
+ *     &lt;param-name&gt;maxLimit&lt;/param-name&gt;
+ *     &lt;param-value&gt;150&lt;/param-value&gt;
+ *   &lt;/init-param&gt;
+ *   &lt;init-param&gt;
+ *     &lt;param-name&gt;lowPriorityPaths&lt;/param-name&gt;
+ *     &lt;param-value&gt;/reports/**,/export/**&lt;/param-value&gt;
+ *   &lt;/init-param&gt;
+ * &lt;/filter&gt;
+ * </code>
+ * <p>
+ * The limit and counters are exposed as {@link ConcurrencyLimitMXBean}
+ * <code>com.reucon.commons:type=ConcurrencyLimit,name=&lt;filter name&gt;</code>.
+ *
+ * @since 2.2.7
+ */
+public class ConcurrencyLimitFilter implements Filter, ConcurrencyLimitMXBean
+{
+    public static final int DEFAULT_INITIAL_LIMIT = 20;
+    public static final int DEFAULT_MIN_LIMIT = 4;
+    public static final int DEFAULT_MAX_LIMIT = 200;
+    public static final int DEFAULT_WINDOW_SIZE = 50;
+    public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+    public static final double DEFAULT_TOLERANCE = 2.0;
+    public static final double DEFAULT_NORMAL_PRIORITY_SHARE = 0.9;
+    public static final double DEFAULT_LOW_PRIORITY_SHARE = 0.5;
+
+    private static final String MBEAN_TYPE = "ConcurrencyLimit";
+    private static final int BASELINE_DRIFT = 64;
+
+    /**
+     * Priority class of a request.
+     */
+    public enum Priority
+    {
+        HIGH, NORMAL, LOW
+    }
+
+    private final Log logger = LogFactory.getLog(getClass());
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong windowLatency = new AtomicLong();
+    private final AtomicInteger windowCount = new AtomicInteger();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder[] rejected = {new LongAdder(), new LongAdder(), new LongAdder()};
+    private PathPatternSet highPriorityPaths = PathPatternSet.compile((String) null);
+    private PathPatternSet lowPriorityPaths = PathPatternSet.compile((String) null);
+    private double normalPriorityShare = DEFAULT_NORMAL_PRIORITY_SHARE;
+    private double lowPriorityShare = DEFAULT_LOW_PRIORITY_SHARE;
+    private volatile int minLimit = DEFAULT_MIN_LIMIT;
+    private volatile int maxLimit = DEFAULT_MAX_LIMIT;
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+    private double backoffRatio = DEFAULT_BACKOFF_RATIO;
+    private double tolerance = DEFAULT_TOLERANCE;
+    private int retryAfter = 1;
+    private volatile int limit = DEFAULT_INITIAL_LIMIT;
+    private volatile int[] thresholds = thresholds(DEFAULT_INITIAL_LIMIT);
+    private volatile long latency;
+    private volatile long baselineLatency;
+    private ObjectName mbeanName;
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException
+    {
+        try
+        {
+            final String minLimitParameter = filterConfig.getInitParameter("minLimit");
+            if (minLimitParameter != null)
+            {
+                setMinLimit(Integer.parseInt(minLimitParameter.trim()));
+            }
+            final String maxLimitParameter = filterConfig.getInitParameter("maxLimit");
+            if (maxLimitParameter != null)
+            {
+                setMaxLimit(Integer.parseInt(maxLimitParameter.trim()));
+            }
+            // applied after the bounds so it is not clamped against the default ones
+            final String initialLimitParameter = filterConfig.getInitParameter("initialLimit");
+            if (initialLimitParameter != null)
+            {
+                final int initialLimit = Integer.parseInt(initialLimitParameter.trim());
+                if (initialLimit < minLimit || initialLimit > maxLimit)
+                {
+                    logger.warn("Initial limit " + initialLimit + " is outside of " + minLimit + ".." + maxLimit
+                            + ", using the nearest bound");
+                }
+                setLimit(initialLimit);
+            }
+            final String windowSizeParameter = filterConfig.getInitParameter("windowSize");
+            if (windowSizeParameter != null)
+            {
+                setWindowSize(Integer.parseInt(windowSizeParameter.trim()));
+            }
+            final String backoffRatioParameter = filterConfig.getInitParameter("backoffRatio");
+            if (backoffRatioParameter != null)
+            {
+                setBackoffRatio(Double.parseDouble(backoffRatioParameter.trim()));
+            }
+            final String toleranceParameter = filterConfig.getInitParameter("tolerance");
+            if (toleranceParameter != null)
+            {
+                setTolerance(Double.parseDouble(toleranceParameter.trim()));
+            }
+            final String normalPriorityShareParameter = filterConfig.getInitParameter("normalPriorityShare");
+            if (normalPriorityShareParameter != null)
+            {
+                setNormalPriorityShare(Double.parseDouble(normalPriorityShareParameter.trim()));
+            }
+            final String lowPriorityShareParameter = filterConfig.getInitParameter("lowPriorityShare");
+            if (lowPriorityShareParameter != null)
+            {
+                setLowPriorityShare(Double.parseDouble(lowPriorityShareParameter.trim()));
+            }
+            final String retryAfterParameter = filterConfig.getInitParameter("retryAfter");
+            if (retryAfterParameter != null)
+            {
+                setRetryAfter(Integer.parseInt(retryAfterParameter.trim()));
+            }
+            setHighPriorityPaths(filterConfig.getInitParameter("highPriorityPaths"));
+            setLowPriorityPaths(filterConfig.getInitParameter("lowPriorityPaths"));
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new ServletException(e.getMessage(), e);
+        }
+        final String name = filterConfig.getFilterName() != null ? filterConfig.getFilterName() : getClass().getSimpleName();
+        mbeanName = MBeanRegistration.register(this, MBEAN_TYPE, name, logger);
+    }
+
+    @Override
+    public void destroy()
+    {
+        MBeanRegistration.unregister(mbeanName, logger);
+        mbeanName = null;
+    }
+
+    /**
+     * Sets the current limit, it is adapted from there on.
+     *
+     * @param limit the limit, bounded by the minimum and maximum limit.
+     */
+    public void setLimit(int limit)
+    {
+        updateLimit(limit);
+    }
+
+    @Override
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    @Override
+    public int getMinLimit()
+    {
+        return minLimit;
+    }
+
+    /**
+     * Sets the lower bound of the limit. Default is {@link #DEFAULT_MIN_LIMIT}.
+     *
+     * @param minLimit the lower bound of the limit.
+     */
+    @Override
+    public void setMinLimit(int minLimit)
+    {
+        this.minLimit = minLimit;
+        updateLimit(limit);
+    }
+
+    @Override
+    public int getMaxLimit()
+    {
+        return maxLimit;
+    }
+
+    /**
+     * Sets the upper bound of the limit. Default is {@link #DEFAULT_MAX_LIMIT}.
+     *
+     * @param maxLimit the upper bound of the limit.
+     */
+    @Override
+    public void setMaxLimit(int maxLimit)
+    {
+        this.maxLimit = maxLimit;
+        updateLimit(limit);
+    }
+
+    /**
+     * Sets the number of requests the limit is adapted after. Default is
+     * {@link #DEFAULT_WINDOW_SIZE}.
+     *
+     * @param windowSize the number of requests per window.
+     */
+    public void setWindowSize(int windowSize)
+    {
+        if (windowSize < 1)
+        {
+            throw new IllegalArgumentException("Window size must be positive");
+        }
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Sets the factor the limit is multiplied with when latency increases. Default is
+     * {@link #DEFAULT_BACKOFF_RATIO}.
+     *
+     * @param backoffRatio factor between <code>0.0</code> and <code>1.0</code>.
+     */
+    public void setBackoffRatio(double backoffRatio)
+    {
+        if (backoffRatio <= 0 || backoffRatio >= 1)
+        {
+            throw new IllegalArgumentException("Backoff ratio must be between 0 and 1");
+        }
+        this.backoffRatio = backoffRatio;
+    }
+
+    /**
+     * Sets how much slower than the baseline a window may be before the limit is decreased.
+     * Default is {@link #DEFAULT_TOLERANCE}.
+     *
+     * @param tolerance factor of the baseline latency, at least <code>1.0</code>.
+     */
+    public void setTolerance(double tolerance)
+    {
+        if (tolerance < 1)
+        {
+            throw new IllegalArgumentException("Tolerance must be at least 1");
+        }
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Sets the paths of high priority requests as comma separated list of Ant-style patterns.
+     *
+     * @param highPriorityPaths comma separated list of patterns.
+     * @see PathPatternSet
+     */
+    public void setHighPriorityPaths(String highPriorityPaths)
+    {
+        this.highPriorityPaths = PathPatternSet.compile(highPriorityPaths);
+    }
+
+    /**
+     * Sets the paths of low priority requests as comma separated list of Ant-style patterns.
+     *
+     * @param lowPriorityPaths comma separated list of patterns.
+     * @see PathPatternSet
+     */
+    public void setLowPriorityPaths(String lowPriorityPaths)
+    {
+        this.lowPriorityPaths = PathPatternSet.compile(lowPriorityPaths);
+    }
+
+    /**
+     * Sets the share of the limit normal priority requests may use. Default is
+     * {@link #DEFAULT_NORMAL_PRIORITY_SHARE}.
+     *
+     * @param normalPriorityShare share between <code>0.0</code> and <code>1.0</code>.
+     */
+    public void setNormalPriorityShare(double normalPriorityShare)
+    {
+        this.normalPriorityShare = share(normalPriorityShare);
+        thresholds = thresholds(limit);
+    }
+
+    /**
+     * Sets the share of the limit low priority requests may use. Default is
+     * {@link #DEFAULT_LOW_PRIORITY_SHARE}.
+     *
+     * @param lowPriorityShare share between <code>0.0</code> and <code>1.0</code>.
+     */
+    public void setLowPriorityShare(double lowPriorityShare)
+    {
+        this.lowPriorityShare = share(lowPriorityShare);
+        thresholds = thresholds(limit);
+    }
+
+    /**
+     * Sets the value of the <code>Retry-After</code> header of rejected requests. Default is
+     * <code>1</code>.
+     *
+     * @param retryAfter the number of seconds or <code>0</code> to omit the header.
+     */
+    public void setRetryAfter(int retryAfter)
+    {
+        this.retryAfter = retryAfter;
+    }
+
+    @Override
+    public int getInFlight()
+    {
+        return inFlight.get();
+    }
+
+    @Override
+    public double getLatency()
+    {
+        return latency / 1e6;
+    }
+
+    @Override
+    public double getBaselineLatency()
+    {
+        return baselineLatency / 1e6;
+    }
+
+    @Override
+    public long getAcceptedCount()
+    {
+        return accepted.sum();
+    }
+
+    @Override
+    public long getRejectedHighPriorityCount()
+    {
+        return rejected[Priority.HIGH.ordinal()].sum();
+    }
+
+    @Override
+    public long getRejectedNormalPriorityCount()
+    {
+        return rejected[Priority.NORMAL.ordinal()].sum();
+    }
+
+    @Override
+    public long getRejectedLowPriorityCount()
+    {
+        return rejected[Priority.LOW.ordinal()].sum();
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
+    {
+        if (!(request instanceof HttpServletRequest) || request.getDispatcherType() != DispatcherType.REQUEST)
+        {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        final Priority priority = getPriority((HttpServletRequest) request);
+        if (!tryAcquire(priority))
+        {
+            rejected[priority.ordinal()].increment();
+            reject((HttpServletResponse) response);
+            return;
+        }
+        accepted.increment();
+
+        final long start = System.nanoTime();
+        boolean released = false;
+        try
+        {
+            chain.doFilter(request, response);
+            if (request.isAsyncStarted())
+            {
+                request.getAsyncContext().addListener(new ReleasingAsyncListener(this, start));
+                released = true;
+            }
+        }
+        finally
+        {
+            if (!released)
+            {
+                release(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Returns the priority class of the given request.
+     *
+     * @param request the request
+     * @return the priority class.
+     */
+    protected Priority getPriority(HttpServletRequest request)
+    {
+        if (!highPriorityPaths.isEmpty() && highPriorityPaths.matches(request.getServletPath(), request.getPathInfo()))
+        {
+            return Priority.HIGH;
+        }
+        if (!lowPriorityPaths.isEmpty() && lowPriorityPaths.matches(request.getServletPath(), request.getPathInfo()))
+        {
+            return Priority.LOW;
+        }
+        return Priority.NORMAL;
+    }
+
+    /**
+     * Writes the response of a rejected request.
+     *
+     * @param response the response
+     * @throws IOException if the response cannot be written.
+     */
+    protected void reject(HttpServletResponse response) throws IOException
+    {
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        if (retryAfter > 0)
+        {
+            response.setHeader("Retry-After", Integer.toString(retryAfter));
+        }
+    }
+
+    boolean tryAcquire(Priority priority)
+    {
+        final int threshold = thresholds[priority.ordinal()];
+        int current = inFlight.get();
+        while (current < threshold)
+        {
+            if (inFlight.compareAndSet(current, current + 1))
+            {
+                return true;
+            }
+            current = inFlight.get();
+        }
+        return false;
+    }
+
+    void release(long latencyNanos)
+    {
+        final int inFlightBefore = inFlight.getAndDecrement();
+        windowLatency.addAndGet(latencyNanos);
+        if (windowCount.incrementAndGet() >= windowSize)
+        {
+            final long sum = windowLatency.getAndSet(0);
+            final int count = windowCount.getAndSet(0);
+            if (count > 0)
+            {
+                adapt(sum / count, inFlightBefore);
+            }
+        }
+    }
+
+    private synchronized void adapt(long averageLatency, int inFlightBefore)
+    {
+        latency = averageLatency;
+        final long baseline = baselineLatency;
+        if (baseline == 0 || averageLatency < baseline)
+        {
+            baselineLatency = averageLatency;
+        }
+        else
+        {
+            // let the baseline follow workloads that became slower for good
+            baselineLatency = baseline + Math.max(1, (averageLatency - baseline) / BASELINE_DRIFT);
+        }
+
+        if (baseline > 0 && averageLatency > baseline * tolerance)
+        {
+            updateLimit((int) (limit * backoffRatio));
+        }
+        else if (inFlightBefore * 2 >= limit)
+        {
+            updateLimit(limit + 1);
+        }
+    }
+
+    private synchronized void updateLimit(int newLimit)
+    {
+        final int bounded = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        if (bounded != limit)
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Concurrency limit changed from " + limit + " to " + bounded + ", latency "
+                        + TimeUnit.NANOSECONDS.toMicros(latency) + " us, baseline "
+                        + TimeUnit.NANOSECONDS.toMicros(baselineLatency) + " us");
+            }
+            limit = bounded;
+        }
+        thresholds = thresholds(bounded);
+    }
+
+    private int[] thresholds(int limit)
+    {
+        final int[] result = new int[Priority.values().length];
+        result[Priority.HIGH.ordinal()] = limit;
+        result[Priority.NORMAL.ordinal()] = Math.max(1, (int) (limit * normalPriorityShare));
+        result[Priority.LOW.ordinal()] = Math.max(1, (int) (limit * lowPriorityShare));
+        return result;
+    }
+
+    private static double share(double share)
+    {
+        if (share <= 0 || share > 1)
+        {
+            throw new IllegalArgumentException("Share must be between 0 and 1");
+        }
+        return share;
+    }
+
+    /**
+     * Releases an asynchronous request once it completes.
+     */
+    private static class ReleasingAsyncListener implements AsyncListener
+    {
+        private final ConcurrencyLimitFilter filter;
+        private final long start;
+
+        private ReleasingAsyncListener(ConcurrencyLimitFilter filter, long start)
+        {
+            this.filter = filter;
+            this.start = start;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event)
+        {
+            filter.release(System.nanoTime() - start);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event)
+        {
+        }
+
+        @Override
+        public void onError(AsyncEvent event)
+        {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event)
+        {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.reucon.commons.web;
+
+/**
+ * Management interface of {@link ConcurrencyLimitFilter}.
+ *
+ * @since 2.2.7
+ */
+public interface ConcurrencyLimitMXBean
+{
+    /**
+     * Returns the current limit of requests processed concurrently.
+     *
+     * @return the current limit.
+     */
+    int getLimit();
+
+    /**
+     * Returns the number of requests currently processed.
+     *
+     * @return the number of requests in flight.
+     */
+    int getInFlight();
+
+    int getMinLimit();
+
+    /**
+     * Sets the lower bound of the limit, e.g. to keep the filter from shedding too much while a
+     * downstream system recovers.
+     *
+     * @param minLimit the lower bound of the limit.
+     */
+    void setMinLimit(int minLimit);
+
+    int getMaxLimit();
+
+    /**
+     * Sets the upper bound of the limit, e.g. to cap the load on a downstream system during an
+     * incident.
+     *
+     * @param maxLimit the upper bound of the limit.
+     */
+    void setMaxLimit(int maxLimit);
+
+    /**
+     * Returns the average latency of the last window of requests.
+     *
+     * @return the average latency in milliseconds.
+     */
+    double getLatency();
+
+    /**
+     * Returns the latency the limit is adapted against, the lowest average latency observed with
+     * a slow upwards drift.
+     *
+     * @return the baseline latency in milliseconds.
+     */
+    double getBaselineLatency();
+
+    /**
+     * Returns the number of requests that have been admitted.
+     *
+     * @return the number of admitted requests.
+     */
+    long getAcceptedCount();
+
+    /**
+     * Returns the number of high priority requests that have been rejected.
+     *
+     * @return the number of rejected requests.
+     */
+    long getRejectedHighPriorityCount();
+
+    /**
+     * Returns the number of normal priority requests that have been rejected.
+     *
+     * @return the number of rejected requests.
+     */
+    long getRejectedNormalPriorityCount();
+
+    /**
+     * Returns the number of low priority requests that have been rejected.
+     *
+     * @return the number of rejected requests.
+     */
+    long getRejectedLowPriorityCount();
+}
@@ -0,0 +1,17 @@
+package com.reucon.commons.web;
+
+/**
+ * Generates unique ids for requests and exception reports.
+ *
+ * @see UlidGenerator
+ * @since 2.2.7
+ */
+public interface IdGenerator
+{
+    /**
+     * Returns a new unique id.
+     *
+     * @return the new id.
+     */
+    String nextId();
+}
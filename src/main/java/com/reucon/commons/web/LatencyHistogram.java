@@ -0,0 +1,214 @@
+package com.reucon.commons.web;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies in microseconds with log-linear buckets, similar to an
+ * HdrHistogram with a precision of two significant digits.
+ * <p>
+ * Values below 32 µs are counted exactly, larger values in 32 buckets per power of two, so a
+ * percentile is off by at most 1/32 (about 3%) of its value. Values from about 71 minutes up are
+ * counted in the last bucket. Recording is a single atomic increment plus two {@link LongAdder}
+ * updates, the maximum is only written when it grows.
+ *
+ * @since 2.2.7
+ */
+public final class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 31;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds, negative values are recorded as zero.
+     */
+    public void recordNanos(long nanos)
+    {
+        record(nanos <= 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param micros the latency in microseconds.
+     */
+    public void record(long micros)
+    {
+        final long value = micros < 0 ? 0 : Math.min(micros, MAX_VALUE);
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value))
+        {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return the number of recorded values.
+     */
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    /**
+     * Returns the largest recorded value.
+     *
+     * @return the largest value in microseconds or <code>0</code> if nothing has been recorded.
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     *
+     * @return the mean in microseconds or <code>0</code> if nothing has been recorded.
+     */
+    public double getMean()
+    {
+        final long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * Returns the value below or at which the given fraction of the recorded values lies.
+     *
+     * @param quantile the quantile between <code>0.0</code> and <code>1.0</code>, e.g.
+     *        <code>0.99</code> for the 99th percentile
+     * @return the highest value equivalent to the quantile in microseconds, at most the maximum.
+     */
+    public long getPercentile(double quantile)
+    {
+        return snapshot().getPercentile(quantile);
+    }
+
+    /**
+     * Returns a copy of the bucket counts to compute several percentiles from a consistent state.
+     *
+     * @return the snapshot.
+     */
+    public Snapshot snapshot()
+    {
+        final long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, max.get(), getMean());
+    }
+
+    /**
+     * Clears all recorded values. Values recorded concurrently may partially survive the reset.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    static int index(long value)
+    {
+        if (value < SUB_BUCKETS)
+        {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long highestEquivalentValue(int index)
+    {
+        if (index < SUB_BUCKETS)
+        {
+            return index;
+        }
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        final long lowest = (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Point in time copy of a histogram.
+     */
+    public static final class Snapshot
+    {
+        private final long[] counts;
+        private final long count;
+        private final long max;
+        private final double mean;
+
+        private Snapshot(long[] counts, long count, long max, double mean)
+        {
+            this.counts = counts;
+            this.count = count;
+            this.max = max;
+            this.mean = mean;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public long getMax()
+        {
+            return max;
+        }
+
+        public double getMean()
+        {
+            return mean;
+        }
+
+        /**
+         * Returns the value below or at which the given fraction of the values lies.
+         *
+         * @param quantile the quantile between <code>0.0</code> and <code>1.0</code>
+         * @return the highest value equivalent to the quantile in microseconds, at most the
+         *         maximum.
+         */
+        public long getPercentile(double quantile)
+        {
+            if (count == 0)
+            {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++)
+            {
+                seen += counts[i];
+                if (seen >= rank)
+                {
+                    return Math.min(highestEquivalentValue(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.reucon.commons.web;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.commons.logging.Log;
+
+/**
+ * Registers the management beans of the filters with the platform MBean server. Failures are
+ * logged, a filter works the same without its management bean.
+ *
+ * @since 2.2.7
+ */
+public final class MBeanRegistration
+{
+    private MBeanRegistration()
+    {
+    }
+
+    /**
+     * Registers the given bean as <code>com.reucon.commons:type=&lt;type&gt;,name=&lt;name&gt;</code>
+     * unless a bean of that name is already registered.
+     *
+     * @return the name of the registered bean or <code>null</code> if it has not been registered.
+     */
+    public static ObjectName register(Object mbean, String type, String name, Log logger)
+    {
+        try
+        {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = new ObjectName("com.reucon.commons:type=" + type + ",name=" + ObjectName.quote(name));
+            if (!server.isRegistered(objectName))
+            {
+                server.registerMBean(mbean, objectName);
+                return objectName;
+            }
+        }
+        catch (JMException e)
+        {
+            logger.warn("Unable to register " + type + " for " + name, e);
+        }
+        return null;
+    }
+
+    /**
+     * Unregisters the bean of the given name, if any.
+     */
+    public static void unregister(ObjectName objectName, Log logger)
+    {
+        if (objectName == null)
+        {
+            return;
+        }
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        }
+        catch (JMException e)
+        {
+            logger.debug("Unable to unregister " + objectName, e);
+        }
+    }
+}
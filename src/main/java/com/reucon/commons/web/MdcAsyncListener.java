@@ -0,0 +1,63 @@
+package com.reucon.commons.web;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+
+/**
+ * Async listener registered by {@link MdcInsertingServletFilter} when a request is put into
+ * asynchronous mode.
+ * <p>
+ * On timeout or error the snapshot of the request is applied to the container thread so the
+ * listeners registered after this one and the error handling that follows log with the request
+ * keys. The keys are removed again when the request completes. The listener registers itself
+ * again if asynchronous processing is restarted.
+ *
+ * @since 2.2.7
+ */
+public class MdcAsyncListener implements AsyncListener
+{
+    private final MdcSnapshot snapshot;
+    private volatile MdcSnapshot.Scope scope;
+
+    public MdcAsyncListener(MdcSnapshot snapshot)
+    {
+        this.snapshot = snapshot;
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event)
+    {
+        final MdcSnapshot.Scope current = scope;
+        if (current != null)
+        {
+            scope = null;
+            current.close();
+        }
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event)
+    {
+        apply();
+    }
+
+    @Override
+    public void onError(AsyncEvent event)
+    {
+        apply();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event)
+    {
+        event.getAsyncContext().addListener(this);
+    }
+
+    private void apply()
+    {
+        if (scope == null)
+        {
+            scope = snapshot.open();
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package com.reucon.commons.web;
 
+import ch.qos.logback.classic.util.LogbackMDCAdapter;
 import org.slf4j.MDC;
+import org.slf4j.spi.MDCAdapter;
 
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
 
 /**
@@ -14,6 +17,12 @@ import java.util.Map;
  * <li>req.requestPath</li>
  * <li>req.remoteUser</li>
  * <li>req.sessionId</li>
+ * <li>req.id, a unique time-ordered id of the request to correlate log lines, see
+ * {@link UlidGenerator}. Another {@link IdGenerator} is configured by the init parameter
+ * <code>idGenerator</code> with its class name. Only inserted if selected by <code>mdcKeys</code></li>
+ * <li>req.clientIp, the client address behind the proxies configured by the init parameter
+ * <code>trustedProxies</code>, see {@link ClientIpResolver}. Only inserted if selected by
+ * <code>mdcKeys</code></li>
  * </ul>
  * Of course the original keys from MDCInsertingServletFilter are also supported:
  * <ul>
@@ -24,6 +33,36 @@ import java.util.Map;
  * <li>req.requestURL</li>
  * <li>req.xForwardedFor</li>
  * </ul>
+ * If the MDC is empty when the request starts it is cleared afterwards, so keys put by the
+ * application do not leak into the next request handled by the thread. Otherwise only the keys
+ * inserted are saved before and restored after the request, keys put by an outer filter or the
+ * application are left in place. No map is copied unless a subclass overrides
+ * {@link #insertBasicProperties(ServletRequest)} or {@link #insertAdditionalProperties(HttpServletRequest)},
+ * in that case the complete MDC is saved and restored as the keys inserted are not known.
+ * <p>
+ * In lazy mode, enabled by the init parameter <code>lazy</code>, the keys listed above are not put
+ * into the MDC. Instead a {@link RequestContext} is bound to the thread that computes the values
+ * only when {@link RequestContextConverter} formats them, so requests that do not log pay almost
+ * nothing. {@link #insertBasicProperties(ServletRequest)} is not called in lazy mode,
+ * {@link #insertAdditionalProperties(HttpServletRequest)} still is.
+ * <p>
+ * The init parameter <code>mdcKeys</code> selects the keys to insert as a comma separated list,
+ * with or without the <code>req.</code> prefix, e.g. <code>method,requestURI,remoteUser,id</code>.
+ * By default all keys except <code>req.id</code> and <code>req.clientIp</code> are inserted. The
+ * list is compiled into an insertion plan when the filter is initialized, the servlet API of
+ * keys that are not selected is never called. This avoids e.g. the reverse DNS lookup some
+ * containers perform for <code>req.remoteHost</code>.
+ * <p>
+ * With the init parameter <code>asyncRemoteHost</code> set to <code>true</code> the value of
+ * <code>req.remoteHost</code> is taken from {@link RemoteHostResolver#getDefault()} instead of
+ * {@link ServletRequest#getRemoteHost()}: the request thread never waits for a reverse DNS lookup,
+ * the address is logged until the host name has been resolved in the background.
+ * <p>
+ * If the request is put into asynchronous mode the keys are kept as a {@link MdcSnapshot} in a
+ * request attribute. When the request is dispatched again with the filter mapped for the
+ * <code>ASYNC</code> dispatcher type, the snapshot is applied instead of computing new values.
+ * Work handed off to other threads keeps the keys with {@link MdcPropagatingExecutor},
+ * {@link MdcPropagatingExecutorService}, {@link MdcTaskDecorator} or {@link MdcSnapshot#wrap(Runnable)}.
  *
  * @since 2.0.0
  */
@@ -40,14 +79,150 @@ public class MdcInsertingServletFilter implements Filter
     public static final String REQUEST_REQUEST_PATH = "req.requestPath";
     public static final String REQUEST_REMOTE_USER = "req.remoteUser";
     public static final String REQUEST_SESSION_ID = "req.sessionId";
+    public static final String REQUEST_CLIENT_IP = "req.clientIp";
+    public static final String REQUEST_ID = "req.id";
 
     private static final String USER_AGENT_HEADER = "User-Agent";
     private static final String X_FORWARDED_FOR_HEADER = "X-Forwarded-For";
+    private static final String KEY_PREFIX = "req.";
+    private static final boolean LOGBACK_PRESENT = isPresent("ch.qos.logback.classic.util.LogbackMDCAdapter");
+
+    static final String[] MDC_KEYS = {
+            REQUEST_REMOTE_HOST_MDC_KEY,
+            REQUEST_USER_AGENT_MDC_KEY,
+            REQUEST_METHOD,
+            REQUEST_REQUEST_URI,
+            REQUEST_QUERY_STRING,
+            REQUEST_REQUEST_URL,
+            REQUEST_X_FORWARDED_FOR,
+            REQUEST_REQUEST_PATH,
+            REQUEST_REMOTE_USER,
+            REQUEST_SESSION_ID,
+            REQUEST_CLIENT_IP,
+            REQUEST_ID
+    };
+
+    /**
+     * Keys that are only inserted if they are selected explicitly.
+     */
+    private static final String[] OPT_IN_MDC_KEYS = {REQUEST_CLIENT_IP, REQUEST_ID};
+
+    private final boolean customized = overrides("insertBasicProperties", ServletRequest.class)
+            || overrides("insertAdditionalProperties", HttpServletRequest.class);
+    private boolean lazy;
+    private RemoteHostResolver remoteHostResolver;
+    private ClientIpResolver clientIpResolver = new ClientIpResolver(new CidrSet());
+    private IdGenerator idGenerator = UlidGenerator.getDefault();
+    private int[] plan = compilePlan(null);
+    private boolean[] planned = planned(plan);
 
     @Override
     public void init(FilterConfig filterConfig) throws ServletException
     {
+        final String lazyParameter = filterConfig.getInitParameter("lazy");
+        if (lazyParameter != null)
+        {
+            setLazy(Boolean.parseBoolean(lazyParameter.trim()));
+        }
+        final String asyncRemoteHostParameter = filterConfig.getInitParameter("asyncRemoteHost");
+        if (asyncRemoteHostParameter != null && Boolean.parseBoolean(asyncRemoteHostParameter.trim()))
+        {
+            setRemoteHostResolver(RemoteHostResolver.getDefault());
+        }
+        try
+        {
+            final String mdcKeysParameter = filterConfig.getInitParameter("mdcKeys");
+            if (mdcKeysParameter != null)
+            {
+                setMdcKeys(mdcKeysParameter);
+            }
+            final String trustedProxiesParameter = filterConfig.getInitParameter("trustedProxies");
+            if (trustedProxiesParameter != null)
+            {
+                setTrustedProxies(trustedProxiesParameter);
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new ServletException(e.getMessage(), e);
+        }
+        final String idGeneratorParameter = filterConfig.getInitParameter("idGenerator");
+        if (idGeneratorParameter != null)
+        {
+            try
+            {
+                setIdGenerator((IdGenerator) Class.forName(idGeneratorParameter.trim(), true, Thread.currentThread().getContextClassLoader()).getDeclaredConstructor().newInstance());
+            }
+            catch (ReflectiveOperationException | ClassCastException e)
+            {
+                throw new ServletException("Unable to create id generator " + idGeneratorParameter, e);
+            }
+        }
+    }
+
+    /**
+     * Sets the keys to insert. Default is all keys except <code>req.id</code> and
+     * <code>req.clientIp</code>.
+     *
+     * @param mdcKeys comma separated list of keys with or without the <code>req.</code> prefix or
+     *                <code>null</code> for the default keys.
+     * @throws IllegalArgumentException if a key is unknown.
+     * @since 2.2.7
+     */
+    public void setMdcKeys(String mdcKeys)
+    {
+        final int[] compiled = compilePlan(mdcKeys);
+        this.planned = planned(compiled);
+        this.plan = compiled;
+    }
 
+    /**
+     * Sets whether the request values are computed lazily when a log event is formatted instead
+     * of being put into the MDC for every request. Default is <code>false</code>.
+     *
+     * @param lazy <code>true</code> to bind a {@link RequestContext} instead of filling the MDC.
+     * @see RequestContextConverter
+     * @since 2.2.7
+     */
+    public void setLazy(boolean lazy)
+    {
+        this.lazy = lazy;
+    }
+
+    /**
+     * Sets the resolver for <code>req.remoteHost</code>. Default is <code>null</code> to use
+     * {@link ServletRequest#getRemoteHost()}.
+     *
+     * @param remoteHostResolver the resolver to use or <code>null</code>.
+     * @since 2.2.7
+     */
+    public void setRemoteHostResolver(RemoteHostResolver remoteHostResolver)
+    {
+        this.remoteHostResolver = remoteHostResolver;
+    }
+
+    /**
+     * Sets the proxies whose forwarding headers are trusted to determine <code>req.clientIp</code>.
+     * Default is none, i.e. the remote address of the connection.
+     *
+     * @param trustedProxies comma separated list of networks in CIDR notation
+     * @throws IllegalArgumentException if a network is invalid.
+     * @since 2.2.7
+     */
+    public void setTrustedProxies(String trustedProxies)
+    {
+        this.clientIpResolver = new ClientIpResolver(trustedProxies);
+    }
+
+    /**
+     * Sets the generator for <code>req.id</code>. Default is {@link UlidGenerator#getDefault()}.
+     *
+     * @param idGenerator the generator to use.
+     * @since 2.2.7
+     */
+    public void setIdGenerator(IdGenerator idGenerator)
+    {
+        this.idGenerator = idGenerator;
     }
 
     @Override
@@ -59,6 +234,29 @@ public class MdcInsertingServletFilter implements Filter
     @Override
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
     {
+        if (request.getDispatcherType() == DispatcherType.ASYNC)
+        {
+            final Object snapshot = request.getAttribute(MdcSnapshot.REQUEST_ATTRIBUTE);
+            if (snapshot instanceof MdcSnapshot)
+            {
+                // continue with the keys of the original request, including its id
+                try (MdcSnapshot.Scope ignored = ((MdcSnapshot) snapshot).open())
+                {
+                    chain.doFilter(request, response);
+                }
+                return;
+            }
+        }
+        if (lazy)
+        {
+            doFilterLazily(request, response, chain);
+            return;
+        }
+        if (!customized)
+        {
+            doFilterWithOwnKeys(request, response, chain);
+            return;
+        }
         final Map<String, String> originalContextMap = MDC.getCopyOfContextMap();
         try
         {
@@ -70,46 +268,151 @@ public class MdcInsertingServletFilter implements Filter
                 insertAdditionalProperties(httpServletRequest);
             }
             chain.doFilter(request, response);
+            propagateIfAsync(request);
         }
         finally
         {
-            if (originalContextMap == null)
+            restoreContextMap(originalContextMap);
+        }
+    }
+
+    private static void restoreContextMap(Map<String, String> originalContextMap)
+    {
+        if (originalContextMap == null)
+        {
+            MDC.clear();
+        }
+        else
+        {
+            MDC.setContextMap(originalContextMap);
+        }
+    }
+
+    /**
+     * Clears the MDC afterwards if it was empty, otherwise saves and restores only the keys
+     * inserted by this filter. The saved values are only allocated if one of the keys is already
+     * present, usually they are not.
+     */
+    private void doFilterWithOwnKeys(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
+    {
+        final int[] plan = this.plan;
+        final boolean empty = isMdcEmpty();
+        String[] saved = null;
+        for (int i = 0; !empty && i < plan.length; i++)
+        {
+            final String value = MDC.get(MDC_KEYS[plan[i]]);
+            if (value != null)
+            {
+                if (saved == null)
+                {
+                    saved = new String[MDC_KEYS.length];
+                }
+                saved[plan[i]] = value;
+            }
+        }
+        try
+        {
+            insertBasicProperties(request);
+            chain.doFilter(request, response);
+            propagateIfAsync(request);
+        }
+        finally
+        {
+            if (empty)
             {
                 MDC.clear();
             }
             else
             {
-                MDC.setContextMap(originalContextMap);
+                for (int i : plan)
+                {
+                    if (saved != null && saved[i] != null)
+                    {
+                        MDC.put(MDC_KEYS[i], saved[i]);
+                    }
+                    else
+                    {
+                        MDC.remove(MDC_KEYS[i]);
+                    }
+                }
             }
         }
     }
 
-    protected void insertBasicProperties(ServletRequest request)
+    /**
+     * Returns whether the given class is visible to this filter, without depending on Spring.
+     */
+    private static boolean isPresent(String className)
     {
-        MDC.put(REQUEST_REMOTE_HOST_MDC_KEY, request.getRemoteHost());
+        try
+        {
+            Class.forName(className, false, MdcInsertingServletFilter.class.getClassLoader());
+            return true;
+        }
+        catch (ClassNotFoundException | LinkageError e)
+        {
+            return false;
+        }
+    }
 
-        if (request instanceof HttpServletRequest)
+    /**
+     * Returns whether the MDC of the current thread is empty. With logback the map of the thread
+     * is inspected without copying it.
+     */
+    private static boolean isMdcEmpty()
+    {
+        final Map<String, String> contextMap = LOGBACK_PRESENT ? LogbackMdc.getContextMap() : MDC.getCopyOfContextMap();
+        return contextMap == null || contextMap.isEmpty();
+    }
+
+    /**
+     * Keeps a snapshot of the keys if the request has been put into asynchronous mode, so they can
+     * be applied again on async dispatch and by the {@link MdcAsyncListener}.
+     */
+    private static void propagateIfAsync(ServletRequest request)
+    {
+        if (request.isAsyncStarted() && request.getAttribute(MdcSnapshot.REQUEST_ATTRIBUTE) == null)
         {
-            // from MDCInsertingServletFilter
-            final HttpServletRequest httpServletRequest = (HttpServletRequest) request;
-            MDC.put(REQUEST_METHOD, httpServletRequest.getMethod());
-            MDC.put(REQUEST_REQUEST_URI, httpServletRequest.getRequestURI());
-            final StringBuffer requestURL = httpServletRequest.getRequestURL();
-            if (requestURL != null)
+            final MdcSnapshot snapshot = MdcSnapshot.capture();
+            request.setAttribute(MdcSnapshot.REQUEST_ATTRIBUTE, snapshot);
+            request.getAsyncContext().addListener(new MdcAsyncListener(snapshot));
+        }
+    }
+
+    /**
+     * Binds a {@link RequestContext} instead of filling the MDC.
+     */
+    private void doFilterLazily(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
+    {
+        final RequestContext previous = RequestContext.bind(new RequestContext(request, this));
+        final Map<String, String> originalContextMap = customized ? MDC.getCopyOfContextMap() : null;
+        try
+        {
+            if (customized && request instanceof HttpServletRequest)
             {
-                MDC.put(REQUEST_REQUEST_URL, requestURL.toString());
+                insertAdditionalProperties((HttpServletRequest) request);
             }
-            MDC.put(REQUEST_QUERY_STRING, httpServletRequest.getQueryString());
-            MDC.put(REQUEST_USER_AGENT_MDC_KEY, httpServletRequest.getHeader(USER_AGENT_HEADER));
-            MDC.put(REQUEST_X_FORWARDED_FOR, httpServletRequest.getHeader(X_FORWARDED_FOR_HEADER));
+            chain.doFilter(request, response);
+            propagateIfAsync(request);
+        }
+        finally
+        {
+            RequestContext.restore(previous);
+            if (customized)
+            {
+                restoreContextMap(originalContextMap);
+            }
+        }
+    }
 
-            // additional attributes
-            MDC.put(REQUEST_REQUEST_PATH, getRequestPath(httpServletRequest));
-            MDC.put(REQUEST_REMOTE_USER, httpServletRequest.getRemoteUser());
-            final HttpSession session = httpServletRequest.getSession(false);
-            if (session != null)
+    protected void insertBasicProperties(ServletRequest request)
+    {
+        for (int i : plan)
+        {
+            final String value = resolve(i, request);
+            if (value != null)
             {
-                MDC.put(REQUEST_SESSION_ID, session.getId());
+                MDC.put(MDC_KEYS[i], value);
             }
         }
     }
@@ -123,19 +426,167 @@ public class MdcInsertingServletFilter implements Filter
 
     }
 
-    protected String getRequestPath(HttpServletRequest request)
+    /**
+     * Returns the index of the given key in {@link #MDC_KEYS} or <code>-1</code>.
+     */
+    static int indexOf(String key)
+    {
+        for (int i = 0; i < MDC_KEYS.length; i++)
+        {
+            if (MDC_KEYS[i].equals(key))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns whether the key at the given index of {@link #MDC_KEYS} is part of the insertion plan.
+     */
+    boolean isPlanned(int index)
+    {
+        return planned[index];
+    }
+
+    /**
+     * Computes the value of the key at the given index of {@link #MDC_KEYS} the same way
+     * {@link #insertBasicProperties(ServletRequest)} does, regardless of the insertion plan.
+     */
+    String resolve(int index, ServletRequest request)
+    {
+        final String key = MDC_KEYS[index];
+        if (REQUEST_ID.equals(key))
+        {
+            return idGenerator.nextId();
+        }
+        if (REQUEST_REMOTE_HOST_MDC_KEY.equals(key))
+        {
+            return remoteHostResolver != null ? remoteHostResolver.resolve(request.getRemoteAddr()) : request.getRemoteHost();
+        }
+        if (!(request instanceof HttpServletRequest))
+        {
+            return null;
+        }
+        final HttpServletRequest httpServletRequest = (HttpServletRequest) request;
+        switch (key)
+        {
+            case REQUEST_USER_AGENT_MDC_KEY:
+                return httpServletRequest.getHeader(USER_AGENT_HEADER);
+            case REQUEST_METHOD:
+                return httpServletRequest.getMethod();
+            case REQUEST_REQUEST_URI:
+                return httpServletRequest.getRequestURI();
+            case REQUEST_QUERY_STRING:
+                return httpServletRequest.getQueryString();
+            case REQUEST_REQUEST_URL:
+                final StringBuffer requestURL = httpServletRequest.getRequestURL();
+                return requestURL == null ? null : requestURL.toString();
+            case REQUEST_X_FORWARDED_FOR:
+                return httpServletRequest.getHeader(X_FORWARDED_FOR_HEADER);
+            case REQUEST_REQUEST_PATH:
+                return getRequestPath(httpServletRequest);
+            case REQUEST_REMOTE_USER:
+                return httpServletRequest.getRemoteUser();
+            case REQUEST_SESSION_ID:
+                final HttpSession session = httpServletRequest.getSession(false);
+                return session == null ? null : session.getId();
+            case REQUEST_CLIENT_IP:
+                return clientIpResolver.resolve(httpServletRequest);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Compiles the list of keys into the indexes of {@link #MDC_KEYS} to insert, in their order in
+     * {@link #MDC_KEYS}.
+     */
+    private static int[] compilePlan(String mdcKeys)
     {
-        final StringBuilder sb = new StringBuilder();
-        final String servletPath = request.getServletPath();
-        if (servletPath != null)
+        final boolean[] selected = new boolean[MDC_KEYS.length];
+        if (mdcKeys == null || mdcKeys.trim().isEmpty())
         {
-            sb.append(servletPath);
+            Arrays.fill(selected, true);
+            for (String key : OPT_IN_MDC_KEYS)
+            {
+                selected[indexOf(key)] = false;
+            }
         }
-        final String pathInfo = request.getPathInfo();
-        if (pathInfo != null)
+        else
+        {
+            for (String name : mdcKeys.split(","))
+            {
+                final String key = name.trim();
+                if (key.isEmpty())
+                {
+                    continue;
+                }
+                final int index = indexOf(key.startsWith(KEY_PREFIX) ? key : KEY_PREFIX + key);
+                if (index < 0)
+                {
+                    throw new IllegalArgumentException("Unknown MDC key '" + key + "', supported keys are " + Arrays.toString(MDC_KEYS));
+                }
+                selected[index] = true;
+            }
+        }
+        int count = 0;
+        for (boolean b : selected)
+        {
+            count += b ? 1 : 0;
+        }
+        final int[] compiled = new int[count];
+        for (int i = 0, j = 0; i < selected.length; i++)
+        {
+            if (selected[i])
+            {
+                compiled[j++] = i;
+            }
+        }
+        return compiled;
+    }
+
+    private static boolean[] planned(int[] plan)
+    {
+        final boolean[] planned = new boolean[MDC_KEYS.length];
+        for (int i : plan)
+        {
+            planned[i] = true;
+        }
+        return planned;
+    }
+
+    private boolean overrides(String name, Class<?> parameterType)
+    {
+        for (Class<?> c = getClass(); c != MdcInsertingServletFilter.class; c = c.getSuperclass())
+        {
+            try
+            {
+                c.getDeclaredMethod(name, parameterType);
+                return true;
+            }
+            catch (NoSuchMethodException e)
+            {
+                // not overridden at this level
+            }
+        }
+        return false;
+    }
+
+    protected String getRequestPath(HttpServletRequest request)
+    {
+        return PathScope.getRequestPath(request);
+    }
+
+    /**
+     * Access to the MDC of logback, only loaded if logback is present.
+     */
+    private static final class LogbackMdc
+    {
+        static Map<String, String> getContextMap()
         {
-            sb.append(pathInfo);
+            final MDCAdapter adapter = MDC.getMDCAdapter();
+            return adapter instanceof LogbackMDCAdapter ? ((LogbackMDCAdapter) adapter).getPropertyMap() : MDC.getCopyOfContextMap();
         }
-        return sb.toString();
     }
-}
\ No newline at end of file
+}
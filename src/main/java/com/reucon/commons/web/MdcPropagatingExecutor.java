@@ -0,0 +1,24 @@
+package com.reucon.commons.web;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Executor that runs tasks with the MDC of the thread that submitted them, see {@link MdcSnapshot}.
+ *
+ * @since 2.2.7
+ */
+public class MdcPropagatingExecutor implements Executor
+{
+    private final Executor delegate;
+
+    public MdcPropagatingExecutor(Executor delegate)
+    {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(Runnable command)
+    {
+        delegate.execute(MdcSnapshot.capture().wrap(command));
+    }
+}
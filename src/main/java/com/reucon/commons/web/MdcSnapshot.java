@@ -0,0 +1,235 @@
+package com.reucon.commons.web;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+import org.slf4j.MDC;
+
+/**
+ * Immutable snapshot of the request keys inserted by {@link MdcInsertingServletFilter} to carry
+ * them over to other threads.
+ * <p>
+ * The snapshot holds the values of the filter's keys and of any additional keys in a plain array
+ * next to a shared array of key names. The MDC map is never copied. If the filter runs in lazy mode
+ * the keys it inserts are resolved from the {@link RequestContext} when the snapshot is taken, so
+ * other threads never access the request, which may already have been recycled by the container. Tasks wrapped by {@link #wrap(Runnable)} or
+ * {@link #wrap(Callable)} apply the snapshot while they run and restore the MDC of the executing
+ * thread afterwards.
+ *
+ * @see MdcPropagatingExecutor
+ * @see MdcPropagatingExecutorService
+ * @see MdcTaskDecorator
+ * @see MdcAsyncListener
+ * @since 2.2.7
+ */
+public final class MdcSnapshot
+{
+    /**
+     * Request attribute holding the snapshot of a request that has been put into asynchronous
+     * mode, so it can be applied again when the request is dispatched.
+     */
+    public static final String REQUEST_ATTRIBUTE = MdcSnapshot.class.getName();
+
+    private final String[] keys;
+    private final String[] values;
+
+    private MdcSnapshot(String[] keys, String[] values)
+    {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    /**
+     * Captures the keys of {@link MdcInsertingServletFilter} from the MDC of the current thread.
+     *
+     * @return the snapshot.
+     */
+    public static MdcSnapshot capture()
+    {
+        return capture(MdcInsertingServletFilter.MDC_KEYS);
+    }
+
+    /**
+     * Captures the keys of {@link MdcInsertingServletFilter} and the given additional keys from the
+     * MDC of the current thread.
+     *
+     * @param additionalKeys further keys to capture, e.g. keys put by the application
+     * @return the snapshot.
+     */
+    public static MdcSnapshot capture(String... additionalKeys)
+    {
+        final String[] keys;
+        if (additionalKeys == MdcInsertingServletFilter.MDC_KEYS || additionalKeys.length == 0)
+        {
+            keys = MdcInsertingServletFilter.MDC_KEYS;
+        }
+        else
+        {
+            keys = new String[MdcInsertingServletFilter.MDC_KEYS.length + additionalKeys.length];
+            System.arraycopy(MdcInsertingServletFilter.MDC_KEYS, 0, keys, 0, MdcInsertingServletFilter.MDC_KEYS.length);
+            System.arraycopy(additionalKeys, 0, keys, MdcInsertingServletFilter.MDC_KEYS.length, additionalKeys.length);
+        }
+        final RequestContext requestContext = RequestContext.current();
+        final String[] values = new String[keys.length];
+        for (int i = 0; i < keys.length; i++)
+        {
+            values[i] = MDC.get(keys[i]);
+            if (values[i] == null && requestContext != null && i < MdcInsertingServletFilter.MDC_KEYS.length)
+            {
+                values[i] = requestContext.get(keys[i]);
+            }
+        }
+        return new MdcSnapshot(keys, values);
+    }
+
+    /**
+     * Returns the captured value of the given key.
+     *
+     * @param key the MDC key
+     * @return the captured value or <code>null</code>.
+     */
+    public String get(String key)
+    {
+        for (int i = 0; i < keys.length; i++)
+        {
+            if (keys[i].equals(key))
+            {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Applies the snapshot to the current thread.
+     *
+     * @return the scope to close to restore the previous state of the thread.
+     */
+    public Scope open()
+    {
+        final String[] previous = new String[keys.length];
+        for (int i = 0; i < keys.length; i++)
+        {
+            previous[i] = MDC.get(keys[i]);
+            put(keys[i], values[i]);
+        }
+        return new Scope(keys, previous);
+    }
+
+    /**
+     * Returns a task that runs the given task with this snapshot applied.
+     *
+     * @param task the task to wrap
+     * @return the wrapped task.
+     */
+    public Runnable wrap(Runnable task)
+    {
+        return () ->
+        {
+            try (Scope ignored = open())
+            {
+                task.run();
+            }
+        };
+    }
+
+    /**
+     * Returns a task that calls the given task with this snapshot applied.
+     *
+     * @param task the task to wrap
+     * @param <V> the result type
+     * @return the wrapped task.
+     */
+    public <V> Callable<V> wrap(Callable<V> task)
+    {
+        return () ->
+        {
+            try (Scope ignored = open())
+            {
+                return task.call();
+            }
+        };
+    }
+
+    /**
+     * Returns a supplier that calls the given supplier with this snapshot applied.
+     *
+     * @param supplier the supplier to wrap
+     * @param <V> the result type
+     * @return the wrapped supplier.
+     */
+    public <V> Supplier<V> wrap(Supplier<V> supplier)
+    {
+        return () ->
+        {
+            try (Scope ignored = open())
+            {
+                return supplier.get();
+            }
+        };
+    }
+
+    /**
+     * Like {@link CompletableFuture#supplyAsync(Supplier, Executor)} but runs the supplier with the
+     * MDC of the calling thread.
+     *
+     * @param supplier the supplier to run
+     * @param executor the executor to run the supplier on
+     * @param <V> the result type
+     * @return the new future.
+     */
+    public static <V> CompletableFuture<V> supplyAsync(Supplier<V> supplier, Executor executor)
+    {
+        return CompletableFuture.supplyAsync(capture().wrap(supplier), executor);
+    }
+
+    /**
+     * Like {@link CompletableFuture#runAsync(Runnable, Executor)} but runs the task with the MDC
+     * of the calling thread.
+     *
+     * @param task the task to run
+     * @param executor the executor to run the task on
+     * @return the new future.
+     */
+    public static CompletableFuture<Void> runAsync(Runnable task, Executor executor)
+    {
+        return CompletableFuture.runAsync(capture().wrap(task), executor);
+    }
+
+    private static void put(String key, String value)
+    {
+        if (value == null)
+        {
+            MDC.remove(key);
+        }
+        else
+        {
+            MDC.put(key, value);
+        }
+    }
+
+    /**
+     * Restores the state of the thread from before the snapshot was applied.
+     */
+    public static final class Scope implements AutoCloseable
+    {
+        private final String[] keys;
+        private final String[] previous;
+
+        private Scope(String[] keys, String[] previous)
+        {
+            this.keys = keys;
+            this.previous = previous;
+        }
+
+        @Override
+        public void close()
+        {
+            for (int i = 0; i < keys.length; i++)
+            {
+                put(keys[i], previous[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.reucon.commons.web;
+
+import org.springframework.core.task.TaskDecorator;
+
+/**
+ * Spring task decorator that runs tasks with the MDC of the thread that submitted them, e.g. for
+ * the executor of asynchronous request processing with <code>Callable</code> or
+ * <code>DeferredResult</code> handlers. See {@link MdcSnapshot}.
+ *
+ * @since 2.2.7
+ */
+public class MdcTaskDecorator implements TaskDecorator
+{
+    @Override
+    public Runnable decorate(Runnable runnable)
+    {
+        return MdcSnapshot.capture().wrap(runnable);
+    }
+}
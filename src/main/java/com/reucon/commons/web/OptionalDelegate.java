@@ -0,0 +1,315 @@
+package com.reucon.commons.web;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import org.apache.commons.logging.Log;
+
+/**
+ * Filter loaded through reflection that can be switched on and off at runtime. The filter is
+ * initialized when it is first used while enabled.
+ * <p>
+ * Each invocation is accounted for: the self time of the filter is the time spent in its
+ * <code>doFilter</code> minus the time spent in the rest of the chain it calls, so it is what the
+ * filter costs on top of the request. Exceptions are only counted if they are thrown by the filter
+ * itself and not by the rest of the chain. Counters are {@link LongAdder}s, a
+ * {@link LatencyHistogram} of the self time is kept on demand.
+ *
+ * @since 2.2.7
+ */
+class OptionalDelegate implements OptionalDelegateMXBean
+{
+    private final String filterClass;
+    private final Filter filter;
+    private final FilterConfig filterConfig;
+    private final Log logger;
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder exceptions = new LongAdder();
+    private final LongAdder selfTime = new LongAdder();
+    private volatile LatencyHistogram histogram;
+    private volatile boolean enabled;
+    private volatile boolean initialized;
+
+    private OptionalDelegate(String filterClass, Filter filter, FilterConfig filterConfig, Log logger)
+    {
+        this.filterClass = filterClass;
+        this.filter = filter;
+        this.filterConfig = filterConfig;
+        this.logger = logger;
+    }
+
+    /**
+     * Loads the filter of the given class. If the class is not available or not a filter the
+     * delegate is not available and cannot be enabled.
+     *
+     * @param filterClass the class name of the filter
+     * @param filterConfig the configuration to initialize the filter with
+     * @param logger the logger to report problems to
+     * @return the delegate, disabled.
+     */
+    static OptionalDelegate load(String filterClass, FilterConfig filterConfig, Log logger)
+    {
+        final Object target;
+        try
+        {
+            target = Class.forName(filterClass).newInstance();
+        }
+        catch (ClassNotFoundException e)
+        {
+            logger.info("Unable to load target filter class '" + filterClass + "'.");
+            return new OptionalDelegate(filterClass, null, filterConfig, logger);
+        }
+        catch (Exception e)
+        {
+            logger.info("Unable to create instance of filter class '" + filterClass + "'.", e);
+            return new OptionalDelegate(filterClass, null, filterConfig, logger);
+        }
+
+        if (!(target instanceof Filter))
+        {
+            logger.warn("Target class '" + filterClass + "' is not a javax.servlet.Filter.");
+            return new OptionalDelegate(filterClass, null, filterConfig, logger);
+        }
+        return new OptionalDelegate(filterClass, (Filter) target, filterConfig, logger);
+    }
+
+    @Override
+    public String getFilterClass()
+    {
+        return filterClass;
+    }
+
+    @Override
+    public boolean isAvailable()
+    {
+        return filter != null;
+    }
+
+    @Override
+    public boolean isInitialized()
+    {
+        return initialized;
+    }
+
+    @Override
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled)
+    {
+        if (enabled && filter == null)
+        {
+            throw new IllegalStateException("Filter " + filterClass + " is not available");
+        }
+        if (this.enabled != enabled)
+        {
+            logger.info((enabled ? "Enabled" : "Disabled") + " filter " + filterClass);
+        }
+        this.enabled = enabled;
+    }
+
+    @Override
+    public long getInvocationCount()
+    {
+        return invocations.sum();
+    }
+
+    @Override
+    public long getExceptionCount()
+    {
+        return exceptions.sum();
+    }
+
+    @Override
+    public long getSelfTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(selfTime.sum());
+    }
+
+    @Override
+    public double getMeanSelfTime()
+    {
+        final long count = invocations.sum();
+        return count == 0 ? 0 : selfTime.sum() / 1000.0 / count;
+    }
+
+    @Override
+    public boolean isHistogramEnabled()
+    {
+        return histogram != null;
+    }
+
+    @Override
+    public void setHistogramEnabled(boolean histogramEnabled)
+    {
+        if (histogramEnabled != isHistogramEnabled())
+        {
+            histogram = histogramEnabled ? new LatencyHistogram() : null;
+        }
+    }
+
+    @Override
+    public long getSelfTimeP50()
+    {
+        return selfTimePercentile(0.5);
+    }
+
+    @Override
+    public long getSelfTimeP99()
+    {
+        return selfTimePercentile(0.99);
+    }
+
+    @Override
+    public long getSelfTimeP999()
+    {
+        return selfTimePercentile(0.999);
+    }
+
+    @Override
+    public long getMaxSelfTime()
+    {
+        final LatencyHistogram current = histogram;
+        return current == null ? 0 : current.getMax();
+    }
+
+    @Override
+    public void resetStatistics()
+    {
+        invocations.reset();
+        exceptions.reset();
+        selfTime.reset();
+        final LatencyHistogram current = histogram;
+        if (current != null)
+        {
+            current.reset();
+        }
+    }
+
+    private long selfTimePercentile(double quantile)
+    {
+        final LatencyHistogram current = histogram;
+        return current == null ? 0 : current.getPercentile(quantile);
+    }
+
+    /**
+     * Passes the request to the filter, initializing it if necessary. Must only be called while
+     * the delegate is enabled.
+     */
+    void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
+    {
+        if (!initialized)
+        {
+            try
+            {
+                initialize();
+            }
+            catch (ServletException | RuntimeException e)
+            {
+                chain.doFilter(request, response);
+                return;
+            }
+        }
+
+        final TimedChain timedChain = new TimedChain(chain);
+        final long start = System.nanoTime();
+        boolean completed = false;
+        try
+        {
+            filter.doFilter(request, response, timedChain);
+            completed = true;
+        }
+        finally
+        {
+            final long self = System.nanoTime() - start - timedChain.downstreamTime;
+            invocations.increment();
+            selfTime.add(self);
+            if (!completed && !timedChain.downstreamFailed)
+            {
+                exceptions.increment();
+            }
+            final LatencyHistogram current = histogram;
+            if (current != null)
+            {
+                current.recordNanos(self);
+            }
+        }
+    }
+
+    /**
+     * Initializes the filter unless it has been initialized before. A filter that fails to
+     * initialize is disabled.
+     *
+     * @throws ServletException if the filter fails to initialize.
+     */
+    synchronized void initialize() throws ServletException
+    {
+        if (initialized)
+        {
+            return;
+        }
+        try
+        {
+            filter.init(filterConfig);
+            initialized = true;
+        }
+        catch (ServletException | RuntimeException e)
+        {
+            logger.warn("Unable to initialize filter " + filterClass + ", disabling it", e);
+            enabled = false;
+            throw e;
+        }
+    }
+
+    synchronized void destroy()
+    {
+        if (initialized)
+        {
+            initialized = false;
+            enabled = false;
+            filter.destroy();
+        }
+    }
+
+    /**
+     * Chain measuring the time spent in the rest of the chain, so it can be subtracted from the
+     * time spent in the filter.
+     */
+    private static final class TimedChain implements FilterChain
+    {
+        private final FilterChain chain;
+        private long downstreamTime;
+        private boolean downstreamFailed;
+
+        private TimedChain(FilterChain chain)
+        {
+            this.chain = chain;
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException
+        {
+            final long start = System.nanoTime();
+            boolean completed = false;
+            try
+            {
+                chain.doFilter(request, response);
+                completed = true;
+            }
+            finally
+            {
+                downstreamTime += System.nanoTime() - start;
+                downstreamFailed |= !completed;
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.reucon.commons.web;
+
+/**
+ * Management interface of a delegate of {@link OptionalFilter} or {@link CompositeOptionalFilter}.
+ *
+ * @since 2.2.7
+ */
+public interface OptionalDelegateMXBean
+{
+    /**
+     * Returns the class name of the delegate filter.
+     *
+     * @return the class name.
+     */
+    String getFilterClass();
+
+    /**
+     * Returns whether the delegate filter could be loaded.
+     *
+     * @return <code>true</code> if the filter is available.
+     */
+    boolean isAvailable();
+
+    /**
+     * Returns whether the delegate filter has been initialized.
+     *
+     * @return <code>true</code> if the filter has been initialized.
+     */
+    boolean isInitialized();
+
+    boolean isEnabled();
+
+    /**
+     * Enables or disables the delegate filter. A filter that is enabled for the first time is
+     * initialized when it is used next, a filter that is not available cannot be enabled.
+     *
+     * @param enabled <code>true</code> to enable the filter.
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * Returns how often the filter has been invoked.
+     *
+     * @return the number of invocations.
+     */
+    long getInvocationCount();
+
+    /**
+     * Returns how often the filter has thrown an exception itself, exceptions thrown by the rest
+     * of the chain are not counted.
+     *
+     * @return the number of exceptions.
+     */
+    long getExceptionCount();
+
+    /**
+     * Returns the total self time of the filter, the time spent in the filter without the time
+     * spent in the rest of the chain.
+     *
+     * @return the total self time in milliseconds.
+     */
+    long getSelfTime();
+
+    /**
+     * Returns the mean self time per invocation.
+     *
+     * @return the mean self time in microseconds.
+     */
+    double getMeanSelfTime();
+
+    boolean isHistogramEnabled();
+
+    /**
+     * Enables or disables the histogram of the self time.
+     *
+     * @param histogramEnabled <code>true</code> to record the self time into a histogram.
+     */
+    void setHistogramEnabled(boolean histogramEnabled);
+
+    /**
+     * Returns the median self time, if the histogram is enabled.
+     *
+     * @return the median self time in microseconds or <code>0</code>.
+     */
+    long getSelfTimeP50();
+
+    /**
+     * Returns the 99th percentile of the self time, if the histogram is enabled.
+     *
+     * @return the 99th percentile in microseconds or <code>0</code>.
+     */
+    long getSelfTimeP99();
+
+    /**
+     * Returns the 99.9th percentile of the self time, if the histogram is enabled.
+     *
+     * @return the 99.9th percentile in microseconds or <code>0</code>.
+     */
+    long getSelfTimeP999();
+
+    /**
+     * Returns the largest self time, if the histogram is enabled.
+     *
+     * @return the largest self time in microseconds or <code>0</code>.
+     */
+    long getMaxSelfTime();
+
+    /**
+     * Resets the counters and the histogram.
+     */
+    void resetStatistics();
+}
@@ -2,6 +2,7 @@ package com.reucon.commons.web;
 
 import java.io.IOException;
 
+import javax.management.ObjectName;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -32,20 +33,52 @@ import org.apache.commons.logging.LogFactory;
  *   &lt;/init-param&gt;
  * &lt;/filter&gt;
  * </code>
+ * <p>
+ * To justify keeping such a filter on in production the delegation is accounted for: the
+ * invocations, the exceptions thrown by the filter itself and its self time, the time spent in
+ * the filter without the time spent in the rest of the chain. With the init parameter
+ * <code>self-time-histogram</code> set to <code>true</code> the distribution of the self time is
+ * recorded as well. The figures are exposed per filter class as {@link OptionalDelegateMXBean}
+ * <code>com.reucon.commons:type=OptionalFilter,name=&lt;filter name&gt;/&lt;filter class&gt;</code>,
+ * which also allows to switch the filter off and on again.
+ * <p>
+ * The init parameters <code>include-paths</code> and <code>exclude-paths</code> restrict the
+ * target filter to requests whose servlet path and path info match the given comma separated
+ * Ant-style patterns, e.g. <code>/api/**</code>. Other requests are passed on directly.
  * 
  * @since 1.2.0
  */
 public class OptionalFilter implements Filter
 {
     public static final String TARGET_FILTER_CLASS_PARAMETER = "target-filter-class";
+    /**
+     * Name of the init parameter that enables the histogram of the self time of the target filter.
+     *
+     * @since 2.2.7
+     */
+    public static final String SELF_TIME_HISTOGRAM_PARAMETER = "self-time-histogram";
+    /**
+     * Name of the init parameter with the paths the target filter is applied to.
+     *
+     * @since 2.2.7
+     */
+    public static final String INCLUDE_PATHS_PARAMETER = PathScope.INCLUDE_PATHS_PARAMETER;
+    /**
+     * Name of the init parameter with the paths the target filter is not applied to.
+     *
+     * @since 2.2.7
+     */
+    public static final String EXCLUDE_PATHS_PARAMETER = PathScope.EXCLUDE_PATHS_PARAMETER;
+    private static final String MBEAN_TYPE = "OptionalFilter";
     private final Log logger = LogFactory.getLog(getClass());
-    private Filter delegate;
+    private OptionalDelegate delegate;
+    private PathScope scope;
+    private ObjectName mbeanName;
 
     @Override
     public void init(FilterConfig filterConfig) throws ServletException
     {
         final String targetClassName;
-        final Object targetObject;
 
         targetClassName = filterConfig.getInitParameter(TARGET_FILTER_CLASS_PARAMETER);
         if (targetClassName == null)
@@ -55,34 +88,38 @@ public class OptionalFilter implements Filter
             return;
         }
 
-        try
-        {
-            targetObject = Class.forName(targetClassName).newInstance();
-        }
-        catch (ClassNotFoundException e)
-        {
-            logger.info("Unable to load target filter class '" + targetClassName + "'.");
-            return;
-        }
-        catch (Exception e)
+        final OptionalDelegate loaded = OptionalDelegate.load(targetClassName, filterConfig, logger);
+        if (!loaded.isAvailable())
         {
-            logger.info("Unable to create instance of filter class '" + targetClassName + "'.", e);
             return;
         }
 
-        if (!(targetObject instanceof Filter))
-        {
-            logger.warn("Target class '" + targetClassName + "' is not a javax.servlet.Filter.");
-            return;
-        }
+        scope = PathScope.compile(filterConfig);
+        loaded.setEnabled(true);
+        loaded.setHistogramEnabled(Boolean.parseBoolean(filterConfig.getInitParameter(SELF_TIME_HISTOGRAM_PARAMETER)));
+        loaded.initialize();
+        delegate = loaded;
 
-        delegate = (Filter) targetObject;
-        delegate.init(filterConfig);
+        final String name = filterConfig.getFilterName() != null ? filterConfig.getFilterName() : getClass().getSimpleName();
+        mbeanName = MBeanRegistration.register(delegate, MBEAN_TYPE, name + "/" + targetClassName, logger);
+    }
+
+    /**
+     * Returns the target filter with its statistics.
+     *
+     * @return the target filter or <code>null</code> if it is not available.
+     * @since 2.2.7
+     */
+    public OptionalDelegateMXBean getDelegate()
+    {
+        return delegate;
     }
 
     @Override
     public void destroy()
     {
+        MBeanRegistration.unregister(mbeanName, logger);
+        mbeanName = null;
         if (delegate != null)
         {
             delegate.destroy();
@@ -93,7 +130,7 @@ public class OptionalFilter implements Filter
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
             ServletException
     {
-        if (delegate != null)
+        if (delegate != null && delegate.isEnabled() && scope.matches(request))
         {
             delegate.doFilter(request, response, chain);
         }
@@ -0,0 +1,70 @@
+package com.reucon.commons.web;
+
+/**
+ * Latency summary of a single request path as exposed by {@link RequestTimingMXBean}. All times
+ * are in microseconds.
+ *
+ * @since 2.2.7
+ */
+public final class PathLatency
+{
+    private final String path;
+    private final long count;
+    private final double mean;
+    private final long p50;
+    private final long p99;
+    private final long p999;
+    private final long max;
+
+    public PathLatency(String path, LatencyHistogram.Snapshot snapshot)
+    {
+        this.path = path;
+        this.count = snapshot.getCount();
+        this.mean = snapshot.getMean();
+        this.p50 = snapshot.getPercentile(0.5);
+        this.p99 = snapshot.getPercentile(0.99);
+        this.p999 = snapshot.getPercentile(0.999);
+        this.max = snapshot.getMax();
+    }
+
+    public String getPath()
+    {
+        return path;
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    public double getMean()
+    {
+        return mean;
+    }
+
+    public long getP50()
+    {
+        return p50;
+    }
+
+    public long getP99()
+    {
+        return p99;
+    }
+
+    public long getP999()
+    {
+        return p999;
+    }
+
+    public long getMax()
+    {
+        return max;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%-48s %10d %10.0f %10d %10d %10d %10d", path, count, mean, p50, p99, p999, max);
+    }
+}
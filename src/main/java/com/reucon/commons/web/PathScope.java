@@ -0,0 +1,83 @@
+package com.reucon.commons.web;
+
+import com.reucon.commons.web.request.PathPatternSet;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Paths an optional filter is applied to, set through the init parameters
+ * <code>include-paths</code> and <code>exclude-paths</code> as comma separated lists of Ant-style
+ * patterns. A request is in scope if it matches an include pattern, or there are none, and no
+ * exclude pattern. Requests other than HTTP requests are always in scope.
+ * <p>
+ * The patterns are compiled into a {@link PathPatternSet} when the filter is initialized and
+ * matched against servlet path and path info without concatenating them, so checking the scope
+ * does not allocate.
+ *
+ * @since 2.2.7
+ */
+final class PathScope
+{
+    static final String INCLUDE_PATHS_PARAMETER = "include-paths";
+    static final String EXCLUDE_PATHS_PARAMETER = "exclude-paths";
+
+    private final PathPatternSet includePaths;
+    private final PathPatternSet excludePaths;
+    private final boolean all;
+
+    private PathScope(PathPatternSet includePaths, PathPatternSet excludePaths)
+    {
+        this.includePaths = includePaths;
+        this.excludePaths = excludePaths;
+        this.all = includePaths.isEmpty() && excludePaths.isEmpty();
+    }
+
+    /**
+     * Compiles the scope from the init parameters of the given configuration.
+     *
+     * @throws ServletException if a pattern is invalid.
+     */
+    static PathScope compile(FilterConfig filterConfig) throws ServletException
+    {
+        try
+        {
+            return new PathScope(PathPatternSet.compile(filterConfig.getInitParameter(INCLUDE_PATHS_PARAMETER)),
+                    PathPatternSet.compile(filterConfig.getInitParameter(EXCLUDE_PATHS_PARAMETER)));
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new ServletException(e.getMessage(), e);
+        }
+    }
+
+    boolean matches(ServletRequest request)
+    {
+        if (all || !(request instanceof HttpServletRequest))
+        {
+            return true;
+        }
+        final HttpServletRequest httpServletRequest = (HttpServletRequest) request;
+        final String servletPath = httpServletRequest.getServletPath();
+        final String pathInfo = httpServletRequest.getPathInfo();
+        return (includePaths.isEmpty() || includePaths.matches(servletPath, pathInfo))
+                && (excludePaths.isEmpty() || !excludePaths.matches(servletPath, pathInfo));
+    }
+
+    /**
+     * Returns the path of the given request within the application.
+     *
+     * @return the servlet path followed by the path info.
+     */
+    static String getRequestPath(HttpServletRequest request)
+    {
+        final String servletPath = request.getServletPath();
+        final String pathInfo = request.getPathInfo();
+        if (pathInfo == null)
+        {
+            return servletPath == null ? "" : servletPath;
+        }
+        return servletPath == null || servletPath.isEmpty() ? pathInfo : servletPath + pathInfo;
+    }
+}
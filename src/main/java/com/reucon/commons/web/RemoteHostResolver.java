@@ -0,0 +1,356 @@
+package com.reucon.commons.web;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Resolves the host names of remote addresses without blocking the request thread.
+ * <p>
+ * {@link #resolve(String)} returns the cached host name if there is one and the address itself
+ * otherwise. Addresses that are not cached or whose entry has expired are looked up on a small
+ * pool of daemon threads, concurrent requests for the same address share a single lookup. While
+ * an expired entry is refreshed its previous host name is returned.
+ * <p>
+ * The cache is bounded. Once it is full the oldest entries are evicted in the order they were
+ * added, entries whose lookup is still pending are skipped so lookups stay coalesced. Eviction
+ * runs on the lookup threads, the request thread only schedules it. Failed lookups are cached as
+ * well, with a shorter time to live.
+ *
+ * @since 2.2.7
+ */
+public class RemoteHostResolver
+{
+    /**
+     * Looks up the host name of an address.
+     */
+    public interface NameResolver
+    {
+        /**
+         * Returns the host name of the given address.
+         *
+         * @param address the textual IP address
+         * @return the host name or the address itself if it has none.
+         * @throws Exception if the lookup fails.
+         */
+        String lookup(String address) throws Exception;
+    }
+
+    /**
+     * Name resolver using the reverse DNS lookup of {@link InetAddress#getHostName()}.
+     */
+    public static final NameResolver DNS = address -> InetAddress.getByName(address).getHostName();
+
+    public static final int DEFAULT_MAX_ENTRIES = 4096;
+    public static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(10);
+    public static final long DEFAULT_NEGATIVE_TTL = TimeUnit.MINUTES.toMillis(1);
+    public static final int DEFAULT_THREADS = 2;
+
+    private static final int QUEUE_SIZE = 256;
+    private static final RemoteHostResolver DEFAULT = new RemoteHostResolver();
+
+    private final Log logger = LogFactory.getLog(getClass());
+    private final NameResolver nameResolver;
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+    private final Queue<String> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private long ttl = DEFAULT_TTL;
+    private long negativeTtl = DEFAULT_NEGATIVE_TTL;
+    private int threads = DEFAULT_THREADS;
+    private volatile Executor executor;
+    private ExecutorService ownExecutor;
+
+    public RemoteHostResolver()
+    {
+        this(DNS);
+    }
+
+    public RemoteHostResolver(NameResolver nameResolver)
+    {
+        this.nameResolver = nameResolver;
+    }
+
+    /**
+     * Returns the resolver shared by all components that are not configured with a resolver of
+     * their own.
+     *
+     * @return the default resolver.
+     */
+    public static RemoteHostResolver getDefault()
+    {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the host name of the given address if it is known, starts a lookup otherwise.
+     *
+     * @param address the textual IP address, e.g. from {@link javax.servlet.ServletRequest#getRemoteAddr()}
+     * @return the host name or the address itself if the host name is not known yet.
+     */
+    public String resolve(String address)
+    {
+        if (address == null)
+        {
+            return null;
+        }
+        Entry entry = cache.get(address);
+        if (entry == null)
+        {
+            final Entry created = new Entry();
+            entry = cache.putIfAbsent(address, created);
+            if (entry == null)
+            {
+                entry = created;
+                insertionOrder.offer(address);
+                evictIfFull();
+            }
+        }
+        final String host = entry.host;
+        if (host != null && System.currentTimeMillis() < entry.expires)
+        {
+            return host;
+        }
+        if (entry.pending.compareAndSet(false, true))
+        {
+            submit(address, entry);
+        }
+        return host != null ? host : address;
+    }
+
+    /**
+     * Returns the number of cached addresses.
+     *
+     * @return the number of cached addresses.
+     */
+    public int size()
+    {
+        return cache.size();
+    }
+
+    /**
+     * Sets the maximum number of cached addresses. Default is {@link #DEFAULT_MAX_ENTRIES}.
+     *
+     * @param maxEntries maximum number of cached addresses.
+     */
+    public void setMaxEntries(int maxEntries)
+    {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Sets how long a resolved host name is cached. Default is {@link #DEFAULT_TTL}.
+     *
+     * @param ttl the time to live in milliseconds.
+     */
+    public void setTtl(long ttl)
+    {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Sets how long a failed lookup is cached. Default is {@link #DEFAULT_NEGATIVE_TTL}.
+     *
+     * @param negativeTtl the time to live in milliseconds.
+     */
+    public void setNegativeTtl(long negativeTtl)
+    {
+        this.negativeTtl = negativeTtl;
+    }
+
+    /**
+     * Sets the number of threads performing lookups. Default is {@link #DEFAULT_THREADS}.
+     * Has no effect once the first lookup has been started.
+     *
+     * @param threads the number of threads.
+     */
+    public void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the executor performing lookups instead of the resolver's own pool.
+     *
+     * @param executor the executor to use.
+     */
+    public void setExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Stops the resolver's own pool, if it has been started.
+     */
+    public synchronized void shutdown()
+    {
+        if (ownExecutor != null)
+        {
+            ownExecutor.shutdownNow();
+            if (executor == ownExecutor)
+            {
+                executor = null;
+            }
+            ownExecutor = null;
+        }
+    }
+
+    private void submit(String address, Entry entry)
+    {
+        try
+        {
+            executor().execute(() -> lookup(address, entry));
+        }
+        catch (RejectedExecutionException e)
+        {
+            // too many lookups in flight, retried with the next request from this address
+            entry.pending.set(false);
+        }
+    }
+
+    private void lookup(String address, Entry entry)
+    {
+        try
+        {
+            final String host = nameResolver.lookup(address);
+            if (host == null || host.equals(address))
+            {
+                entry.update(address, negativeTtl);
+            }
+            else
+            {
+                entry.update(host, ttl);
+            }
+        }
+        catch (Exception e)
+        {
+            logger.debug("Unable to resolve host name of " + address, e);
+            entry.update(address, negativeTtl);
+        }
+        finally
+        {
+            entry.pending.set(false);
+        }
+    }
+
+    /**
+     * Schedules an eviction run on the lookup threads if the cache is full and no run is scheduled
+     * yet.
+     */
+    private void evictIfFull()
+    {
+        if (cache.size() <= maxEntries || !evicting.compareAndSet(false, true))
+        {
+            return;
+        }
+        try
+        {
+            executor().execute(this::evict);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // retried when the next address is added
+            evicting.set(false);
+        }
+    }
+
+    /**
+     * Evicts the oldest entries until the cache is no longer full. Each entry is looked at most
+     * once per run, entries with a pending lookup are moved to the end of the queue.
+     */
+    private void evict()
+    {
+        final int size = cache.size();
+        boolean evicted = false;
+        try
+        {
+            for (int n = size; n > 0 && cache.size() > maxEntries; n--)
+            {
+                final String address = insertionOrder.poll();
+                if (address == null)
+                {
+                    break;
+                }
+                final Entry entry = cache.get(address);
+                if (entry != null && entry.pending.get())
+                {
+                    insertionOrder.offer(address);
+                }
+                else if (entry != null)
+                {
+                    cache.remove(address, entry);
+                    evicted = true;
+                }
+            }
+        }
+        finally
+        {
+            evicting.set(false);
+        }
+        if (evicted || cache.size() > size)
+        {
+            // addresses may have been added while this run was scheduled or running
+            evictIfFull();
+        }
+    }
+
+    private Executor executor()
+    {
+        final Executor current = executor;
+        if (current != null)
+        {
+            return current;
+        }
+        synchronized (this)
+        {
+            if (executor == null)
+            {
+                final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<>(QUEUE_SIZE), new DaemonThreadFactory());
+                pool.allowCoreThreadTimeOut(true);
+                ownExecutor = pool;
+                executor = pool;
+            }
+            return executor;
+        }
+    }
+
+    private static class Entry
+    {
+        private final AtomicBoolean pending = new AtomicBoolean();
+        private volatile String host;
+        private volatile long expires;
+
+        private void update(String host, long ttl)
+        {
+            this.expires = System.currentTimeMillis() + ttl;
+            this.host = host;
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            final Thread thread = new Thread(runnable, "remote-host-resolver-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.reucon.commons.web;
+
+import javax.servlet.ServletRequest;
+
+/**
+ * Request bound to the current thread by {@link MdcInsertingServletFilter} in lazy mode.
+ * <p>
+ * The <code>req.*</code> values are only computed when they are requested, usually by
+ * {@link RequestContextConverter} while a log event is formatted, and are cached for the rest of
+ * the request. Requests that do not log do not pay for them.
+ * <p>
+ * The context is only available on the thread processing the request and only while the filter
+ * chain is executed. Appenders that format events on another thread, e.g. behind an
+ * <code>AsyncAppender</code>, do not see it.
+ *
+ * @since 2.2.7
+ */
+public final class RequestContext
+{
+    private static final ThreadLocal<RequestContext> CURRENT = new ThreadLocal<>();
+    private static final String NO_VALUE = new String();
+
+    private final ServletRequest request;
+    private final MdcInsertingServletFilter filter;
+    private final String[] values = new String[MdcInsertingServletFilter.MDC_KEYS.length];
+
+    RequestContext(ServletRequest request, MdcInsertingServletFilter filter)
+    {
+        this.request = request;
+        this.filter = filter;
+    }
+
+    /**
+     * Returns the context of the request processed by the current thread.
+     *
+     * @return the current context or <code>null</code> if no request is processed in lazy mode.
+     */
+    public static RequestContext current()
+    {
+        return CURRENT.get();
+    }
+
+    /**
+     * Binds the given context to the current thread.
+     *
+     * @return the previously bound context.
+     */
+    static RequestContext bind(RequestContext context)
+    {
+        final RequestContext previous = CURRENT.get();
+        restore(context);
+        return previous;
+    }
+
+    /**
+     * Restores the context that was bound before, removing the thread local if there was none.
+     */
+    static void restore(RequestContext previous)
+    {
+        if (previous == null)
+        {
+            CURRENT.remove();
+        }
+        else
+        {
+            CURRENT.set(previous);
+        }
+    }
+
+    public ServletRequest getRequest()
+    {
+        return request;
+    }
+
+    /**
+     * Returns the value of one of the keys inserted by {@link MdcInsertingServletFilter}, computing
+     * it on first access.
+     *
+     * @param key the MDC key, e.g. {@link MdcInsertingServletFilter#REQUEST_REQUEST_URI}
+     * @return the value or <code>null</code> if the key is unknown, not selected by the filter or
+     *         has no value for this request.
+     */
+    public String get(String key)
+    {
+        final int index = MdcInsertingServletFilter.indexOf(key);
+        if (index < 0 || !filter.isPlanned(index))
+        {
+            return null;
+        }
+        String value = values[index];
+        if (value == null)
+        {
+            value = filter.resolve(index, request);
+            values[index] = value == null ? NO_VALUE : value;
+        }
+        return value == NO_VALUE ? null : value;
+    }
+}
@@ -0,0 +1,48 @@
+package com.reucon.commons.web;
+
+import ch.qos.logback.classic.pattern.ClassicConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import java.util.Map;
+
+/**
+ * Logback converter for the <code>req.*</code> values of {@link MdcInsertingServletFilter}.
+ * <p>
+ * The value is taken from the MDC of the event if present, otherwise it is computed from the
+ * {@link RequestContext} bound by the filter in lazy mode. Register the converter and use it like
+ * <code>%X</code>:
+ * <pre>
+ * &lt;conversionRule conversionWord="req" converterClass="com.reucon.commons.web.RequestContextConverter"/&gt;
+ * &lt;pattern&gt;%d %-5level [%req{req.requestURI}] %logger - %msg%n&lt;/pattern&gt;
+ * </pre>
+ * Values are only available if the event is formatted on the thread processing the request.
+ *
+ * @since 2.2.7
+ */
+public class RequestContextConverter extends ClassicConverter
+{
+    private String key;
+
+    @Override
+    public void start()
+    {
+        key = getFirstOption();
+        super.start();
+    }
+
+    @Override
+    public String convert(ILoggingEvent event)
+    {
+        if (key == null)
+        {
+            return "";
+        }
+        final Map<String, String> mdc = event.getMDCPropertyMap();
+        String value = mdc == null ? null : mdc.get(key);
+        if (value == null)
+        {
+            final RequestContext context = RequestContext.current();
+            value = context == null ? null : context.get(key);
+        }
+        return value == null ? "" : value;
+    }
+}
@@ -0,0 +1,371 @@
+package com.reucon.commons.web;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.ObjectName;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Servlet filter that records the latency of requests per request path into a
+ * {@link LatencyHistogram}.
+ * <p>
+ * The path is the servlet path followed by the path info, the same value
+ * {@link MdcInsertingServletFilter} puts into <code>req.requestPath</code>, with segments that
+ * look like ids replaced by {@link #ID_PLACEHOLDER}: numbers, UUIDs and ULIDs, e.g.
+ * <code>/orders/{id}/items</code>. The init parameter <code>normalizePaths</code> set to
+ * <code>false</code> keeps the paths as they are, subclasses with other mappings override
+ * {@link #getRequestPath(HttpServletRequest)}. The number of paths with a histogram of their own
+ * is limited by the init parameter <code>maxPaths</code>, default {@link #DEFAULT_MAX_PATHS}. Once
+ * the limit is reached further paths are recorded as {@link #OTHER_PATHS}.
+ * <p>
+ * Only requests dispatched by the container are recorded, forwards, includes, error and async
+ * dispatches are part of the request they belong to. Requests put into asynchronous mode are
+ * recorded when they complete.
+ * <p>
+ * The histograms are exposed as {@link RequestTimingMXBean}
+ * <code>com.reucon.commons:type=RequestTiming,name=&lt;filter name&gt;</code>, including a plain
+ * text dump.
+ *
+ * @since 2.2.7
+ */
+public class RequestTimingFilter implements Filter, RequestTimingMXBean
+{
+    public static final int DEFAULT_MAX_PATHS = 256;
+
+    /**
+     * Path that collects the requests to paths beyond the maximum number of paths.
+     */
+    public static final String OTHER_PATHS = "(other)";
+
+    /**
+     * Placeholder replacing path segments that look like ids.
+     */
+    public static final String ID_PLACEHOLDER = "{id}";
+
+    private static final String MBEAN_TYPE = "RequestTiming";
+
+    private final Log logger = LogFactory.getLog(getClass());
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final LatencyHistogram otherPaths = new LatencyHistogram();
+    private int maxPaths = DEFAULT_MAX_PATHS;
+    private boolean normalizePaths = true;
+    private ObjectName mbeanName;
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException
+    {
+        final String maxPathsParameter = filterConfig.getInitParameter("maxPaths");
+        if (maxPathsParameter != null)
+        {
+            try
+            {
+                setMaxPaths(Integer.parseInt(maxPathsParameter.trim()));
+            }
+            catch (NumberFormatException e)
+            {
+                throw new ServletException("Invalid value for maxPaths: '" + maxPathsParameter + "'", e);
+            }
+        }
+        final String normalizePathsParameter = filterConfig.getInitParameter("normalizePaths");
+        if (normalizePathsParameter != null)
+        {
+            setNormalizePaths(Boolean.parseBoolean(normalizePathsParameter.trim()));
+        }
+        final String name = filterConfig.getFilterName() != null ? filterConfig.getFilterName() : getClass().getSimpleName();
+        mbeanName = MBeanRegistration.register(this, MBEAN_TYPE, name, logger);
+    }
+
+    @Override
+    public void destroy()
+    {
+        MBeanRegistration.unregister(mbeanName, logger);
+        mbeanName = null;
+    }
+
+    /**
+     * Sets the maximum number of paths with a histogram of their own. Default is
+     * {@link #DEFAULT_MAX_PATHS}.
+     *
+     * @param maxPaths the maximum number of paths.
+     */
+    public void setMaxPaths(int maxPaths)
+    {
+        this.maxPaths = maxPaths;
+    }
+
+    @Override
+    public int getMaxPaths()
+    {
+        return maxPaths;
+    }
+
+    /**
+     * Sets whether path segments that look like ids are replaced by {@link #ID_PLACEHOLDER}.
+     * Default is <code>true</code>.
+     *
+     * @param normalizePaths <code>false</code> to record the paths as they are.
+     */
+    public void setNormalizePaths(boolean normalizePaths)
+    {
+        this.normalizePaths = normalizePaths;
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
+    {
+        if (!(request instanceof HttpServletRequest) || request.getDispatcherType() != DispatcherType.REQUEST)
+        {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        final long start = System.nanoTime();
+        try
+        {
+            chain.doFilter(request, response);
+        }
+        finally
+        {
+            final LatencyHistogram histogram = getHistogram(getRequestPath((HttpServletRequest) request));
+            if (request.isAsyncStarted())
+            {
+                request.getAsyncContext().addListener(new TimingAsyncListener(histogram, start));
+            }
+            else
+            {
+                histogram.recordNanos(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Returns the path to record the latency of the given request for.
+     *
+     * @param request the request
+     * @return the servlet path followed by the path info, normalized unless disabled.
+     */
+    protected String getRequestPath(HttpServletRequest request)
+    {
+        final String path = PathScope.getRequestPath(request);
+        return normalizePaths ? normalizePath(path) : path;
+    }
+
+    /**
+     * Replaces the segments of the given path that look like ids by {@link #ID_PLACEHOLDER}.
+     * Returns the path itself if there are none.
+     */
+    static String normalizePath(String path)
+    {
+        StringBuilder sb = null;
+        int start = 0;
+        while (start <= path.length())
+        {
+            int end = path.indexOf('/', start);
+            if (end < 0)
+            {
+                end = path.length();
+            }
+            if (isId(path, start, end))
+            {
+                if (sb == null)
+                {
+                    sb = new StringBuilder(path.length()).append(path, 0, start);
+                }
+                sb.append(ID_PLACEHOLDER);
+            }
+            else if (sb != null)
+            {
+                sb.append(path, start, end);
+            }
+            if (sb != null && end < path.length())
+            {
+                sb.append('/');
+            }
+            start = end + 1;
+        }
+        return sb == null ? path : sb.toString();
+    }
+
+    private static boolean isId(String path, int start, int end)
+    {
+        final int length = end - start;
+        if (length == 0)
+        {
+            return false;
+        }
+        if (length == 36 && isUuid(path, start))
+        {
+            return true;
+        }
+        if (length == 26 && isUlid(path, start))
+        {
+            return true;
+        }
+        for (int i = start; i < end; i++)
+        {
+            if (path.charAt(i) < '0' || path.charAt(i) > '9')
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isUuid(String path, int start)
+    {
+        for (int i = 0; i < 36; i++)
+        {
+            final char c = path.charAt(start + i);
+            if (i == 8 || i == 13 || i == 18 || i == 23 ? c != '-' : Character.digit(c, 16) < 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the 26 characters at the given position are a ULID: Crockford's base 32
+     * starting with a digit from 0 to 7, so words of 26 letters are not taken for ids.
+     */
+    private static boolean isUlid(String path, int start)
+    {
+        if (path.charAt(start) < '0' || path.charAt(start) > '7')
+        {
+            return false;
+        }
+        for (int i = 1; i < 26; i++)
+        {
+            final char c = Character.toUpperCase(path.charAt(start + i));
+            if (!((c >= '0' && c <= '9') || (c >= 'A' && c <= 'Z' && c != 'I' && c != 'L' && c != 'O' && c != 'U')))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the histogram of the given path, creating it as long as the maximum number of paths
+     * has not been reached.
+     *
+     * @param path the request path
+     * @return the histogram of the path or the histogram of {@link #OTHER_PATHS}.
+     */
+    LatencyHistogram getHistogram(String path)
+    {
+        final LatencyHistogram histogram = histograms.get(path);
+        if (histogram != null)
+        {
+            return histogram;
+        }
+        if (histograms.size() >= maxPaths)
+        {
+            return otherPaths;
+        }
+        return histograms.computeIfAbsent(path, p -> new LatencyHistogram());
+    }
+
+    @Override
+    public List<PathLatency> getLatencies()
+    {
+        final List<PathLatency> latencies = new ArrayList<>(histograms.size() + 1);
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet())
+        {
+            latencies.add(new PathLatency(entry.getKey(), entry.getValue().snapshot()));
+        }
+        if (otherPaths.getCount() > 0)
+        {
+            latencies.add(new PathLatency(OTHER_PATHS, otherPaths.snapshot()));
+        }
+        latencies.sort(Comparator.comparingLong(PathLatency::getCount).reversed());
+        return latencies;
+    }
+
+    @Override
+    public long getRequestCount()
+    {
+        long count = otherPaths.getCount();
+        for (LatencyHistogram histogram : histograms.values())
+        {
+            count += histogram.getCount();
+        }
+        return count;
+    }
+
+    @Override
+    public int getPathCount()
+    {
+        return histograms.size();
+    }
+
+    @Override
+    public String dump()
+    {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-48s %10s %10s %10s %10s %10s %10s%n", "path", "count", "mean[us]", "p50[us]", "p99[us]", "p999[us]", "max[us]"));
+        for (PathLatency latency : getLatencies())
+        {
+            sb.append(latency).append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void reset()
+    {
+        histograms.clear();
+        otherPaths.reset();
+    }
+
+    private static class TimingAsyncListener implements AsyncListener
+    {
+        private final LatencyHistogram histogram;
+        private final long start;
+
+        TimingAsyncListener(LatencyHistogram histogram, long start)
+        {
+            this.histogram = histogram;
+            this.start = start;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event)
+        {
+            histogram.recordNanos(System.nanoTime() - start);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event)
+        {
+            // onComplete follows
+        }
+
+        @Override
+        public void onError(AsyncEvent event)
+        {
+            // onComplete follows
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event)
+        {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
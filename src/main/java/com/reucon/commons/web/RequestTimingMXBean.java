@@ -0,0 +1,52 @@
+package com.reucon.commons.web;
+
+import java.util.List;
+
+/**
+ * Management interface of {@link RequestTimingFilter}.
+ *
+ * @since 2.2.7
+ */
+public interface RequestTimingMXBean
+{
+    /**
+     * Returns the latency summaries of all recorded paths, the most frequent path first.
+     *
+     * @return the latency summaries.
+     */
+    List<PathLatency> getLatencies();
+
+    /**
+     * Returns the number of requests recorded for all paths.
+     *
+     * @return the number of requests.
+     */
+    long getRequestCount();
+
+    /**
+     * Returns the number of paths with a histogram of their own.
+     *
+     * @return the number of paths.
+     */
+    int getPathCount();
+
+    /**
+     * Returns the maximum number of paths with a histogram of their own, further paths are
+     * recorded as {@link RequestTimingFilter#OTHER_PATHS}.
+     *
+     * @return the maximum number of paths.
+     */
+    int getMaxPaths();
+
+    /**
+     * Returns the latency summaries as plain text table.
+     *
+     * @return the table, one line per path.
+     */
+    String dump();
+
+    /**
+     * Discards all histograms.
+     */
+    void reset();
+}
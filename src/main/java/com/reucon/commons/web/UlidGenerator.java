@@ -0,0 +1,137 @@
+package com.reucon.commons.web;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates time-ordered ids in the format of a <a href="https://github.com/ulid/spec">ULID</a>:
+ * 26 characters of Crockford's base 32 encoding a 48 bit timestamp in milliseconds and 80 bits
+ * that make the id unique.
+ * <p>
+ * The first 20 of these bits are a sequence within the millisecond shared by all threads, so ids
+ * of a generator are strictly increasing and sort by the time they were created. The sequence is
+ * advanced lock-free; if it overflows, the timestamp runs ahead of the clock for a moment. The
+ * remaining 60 bits are random, taken from {@link ThreadLocalRandom} instead of the contended
+ * {@link java.security.SecureRandom} behind {@link java.util.UUID#randomUUID()}. They keep ids of
+ * different generators, e.g. in different JVMs, apart; they are not suitable as secrets.
+ *
+ * @since 2.2.7
+ */
+public class UlidGenerator implements IdGenerator
+{
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final int LENGTH = 26;
+    private static final int SEQUENCE_BITS = 20;
+    private static final int RANDOM_BITS = 60;
+    private static final UlidGenerator DEFAULT = new UlidGenerator();
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[LENGTH]);
+
+    private final AtomicLong lastTick = new AtomicLong();
+
+    /**
+     * Returns the generator shared by all components that are not configured with a generator of
+     * their own.
+     *
+     * @return the default generator.
+     */
+    public static UlidGenerator getDefault()
+    {
+        return DEFAULT;
+    }
+
+    @Override
+    public String nextId()
+    {
+        final char[] buffer = BUFFER.get();
+        format(nextTick(), ThreadLocalRandom.current().nextLong(), buffer);
+        return new String(buffer);
+    }
+
+    /**
+     * Appends a new id to the given builder.
+     *
+     * @param target the builder to append to
+     * @return the builder.
+     */
+    public StringBuilder appendNextId(StringBuilder target)
+    {
+        final char[] buffer = BUFFER.get();
+        format(nextTick(), ThreadLocalRandom.current().nextLong(), buffer);
+        return target.append(buffer);
+    }
+
+    /**
+     * Returns the timestamp in milliseconds encoded in the given id.
+     *
+     * @param id an id created by this class
+     * @return the timestamp in milliseconds since the epoch.
+     */
+    public static long timestamp(String id)
+    {
+        long timestamp = 0;
+        for (int i = 0; i < 10; i++)
+        {
+            timestamp = (timestamp << 5) | decode(id.charAt(i));
+        }
+        return timestamp;
+    }
+
+    /**
+     * Returns the next tick made of the timestamp shifted left by 20 bits and the sequence in the
+     * lower 20 bits. Ticks are strictly increasing.
+     */
+    long nextTick()
+    {
+        final long now = currentTimeMillis() << SEQUENCE_BITS;
+        while (true)
+        {
+            final long last = lastTick.get();
+            final long next = now > last ? now : last + 1;
+            if (lastTick.compareAndSet(last, next))
+            {
+                return next;
+            }
+        }
+    }
+
+    protected long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Encodes the 48 bit timestamp, the 20 bit sequence and 60 random bits as 26 base 32 characters.
+     */
+    static void format(long tick, long random, char[] buffer)
+    {
+        final long timestamp = tick >>> SEQUENCE_BITS;
+        // 10 characters for 48 bits, the first one carries only 3 bits
+        for (int i = 9; i >= 0; i--)
+        {
+            buffer[i] = ALPHABET[(int) ((timestamp >>> ((9 - i) * 5)) & 31)];
+        }
+        // 16 characters for the remaining 80 bits: 20 bits of sequence followed by 60 random bits
+        final long sequence = tick & ((1L << SEQUENCE_BITS) - 1);
+        final long low = random & ((1L << RANDOM_BITS) - 1);
+        for (int i = 0; i < 4; i++)
+        {
+            buffer[10 + i] = ALPHABET[(int) ((sequence >>> ((3 - i) * 5)) & 31)];
+        }
+        for (int i = 0; i < 12; i++)
+        {
+            buffer[14 + i] = ALPHABET[(int) ((low >>> ((11 - i) * 5)) & 31)];
+        }
+    }
+
+    private static int decode(char c)
+    {
+        for (int i = 0; i < ALPHABET.length; i++)
+        {
+            if (ALPHABET[i] == Character.toUpperCase(c))
+            {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Invalid character '" + c + "' in id");
+    }
+}
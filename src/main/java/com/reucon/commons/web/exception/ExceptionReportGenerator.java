@@ -1,5 +1,9 @@
 package com.reucon.commons.web.exception;
 
+import com.reucon.commons.web.ClientIpResolver;
+import com.reucon.commons.web.IdGenerator;
+import com.reucon.commons.web.RemoteHostResolver;
+import com.reucon.commons.web.UlidGenerator;
 import com.reucon.commons.web.exception.storage.FilesystemStorage;
 import com.reucon.commons.web.exception.model.ExceptionReport;
 import com.reucon.commons.web.exception.renderer.AbstractExceptionRenderer;
@@ -7,6 +11,9 @@ import com.reucon.commons.web.exception.renderer.JacksonExceptionRenderer;
 import com.reucon.commons.web.exception.renderer.StringExceptionRenderer;
 import com.reucon.commons.web.exception.storage.ExceptionStorage;
 import com.reucon.commons.web.exception.storage.ExceptionStorageEntry;
+import com.reucon.commons.web.filter.InputStreamPreservingRequestFilter;
+import com.reucon.commons.web.request.CaptureSettings;
+import com.reucon.commons.web.request.CapturedBody;
 import java.io.IOException;
 
 import javax.servlet.http.HttpServletRequest;
@@ -34,6 +41,10 @@ public class ExceptionReportGenerator
     
     private final Log logger = LogFactory.getLog(getClass());
     private FilesystemStorage storage = new FilesystemStorage();
+    private int maxRetainedBodySize = CaptureSettings.DEFAULT_MAX_RETAINED_SIZE;
+    private RemoteHostResolver remoteHostResolver;
+    private ClientIpResolver clientIpResolver;
+    private IdGenerator idGenerator = UlidGenerator.getDefault();
 
     public void setStorage(FilesystemStorage storage)
     {
@@ -45,6 +56,56 @@ public class ExceptionReportGenerator
         storage.setLogDirectory(logDirectory);
     }
 
+    /**
+     * Sets the maximum number of bytes of a request body captured by {@link InputStreamPreservingRequestFilter}
+     * that are retained for the report. Default is {@link CaptureSettings#DEFAULT_MAX_RETAINED_SIZE}.
+     *
+     * @param maxRetainedBodySize maximum number of bytes to retain.
+     * @since 2.2.7
+     */
+    public void setMaxRetainedBodySize(int maxRetainedBodySize)
+    {
+        this.maxRetainedBodySize = maxRetainedBodySize;
+    }
+
+    /**
+     * Sets the resolver for the remote host of the report, e.g. {@link RemoteHostResolver#getDefault()}.
+     * Default is <code>null</code> to use {@link HttpServletRequest#getRemoteHost()} which may
+     * perform a blocking reverse DNS lookup.
+     *
+     * @param remoteHostResolver the resolver to use or <code>null</code>.
+     * @since 2.2.7
+     */
+    public void setRemoteHostResolver(RemoteHostResolver remoteHostResolver)
+    {
+        this.remoteHostResolver = remoteHostResolver;
+    }
+
+    /**
+     * Sets the proxies whose forwarding headers are trusted to determine the client address of the
+     * report. Default is none, i.e. the remote address of the connection.
+     *
+     * @param trustedProxies comma separated list of networks in CIDR notation
+     * @throws IllegalArgumentException if a network is invalid.
+     * @since 2.2.7
+     */
+    public void setTrustedProxies(String trustedProxies)
+    {
+        this.clientIpResolver = new ClientIpResolver(trustedProxies);
+    }
+
+    /**
+     * Sets the generator for the unique part of the exception ids. Default is
+     * {@link UlidGenerator#getDefault()}.
+     *
+     * @param idGenerator the generator to use.
+     * @since 2.2.7
+     */
+    public void setIdGenerator(IdGenerator idGenerator)
+    {
+        this.idGenerator = idGenerator;
+    }
+
     /**
      * This should never be used outside of test cases.
      * @param jackson2Present whether jackson is present
@@ -63,8 +124,13 @@ public class ExceptionReportGenerator
      */
     public String writeExceptionReport(Exception ex, HttpServletRequest request)
     {
+        retainCapturedBody(request);
 
-        final ExceptionReport exceptionReport = new ExceptionReport(ex, request);
+        final ExceptionReport exceptionReport = new ExceptionReport(ExceptionReport.createId(request, idGenerator), ex, request, remoteHostResolver);
+        if (clientIpResolver != null)
+        {
+            exceptionReport.setClientIp(clientIpResolver.resolve(request));
+        }
         try
         {
             return writeExceptionReport(storage, exceptionReport, ex);
@@ -96,6 +162,27 @@ public class ExceptionReportGenerator
         return exceptionReport.getId();
     }
 
+    /**
+     * Promotes a captured request body to a durable copy so it outlives the pooled buffers it is
+     * held in and remains available after the report has been written.
+     */
+    void retainCapturedBody(HttpServletRequest request)
+    {
+        final Object body = request.getAttribute(InputStreamPreservingRequestFilter.REQUEST_ATTRIBUTE);
+        if (body instanceof CapturedBody)
+        {
+            try
+            {
+                request.setAttribute(InputStreamPreservingRequestFilter.REQUEST_ATTRIBUTE,
+                        ((CapturedBody) body).promote(maxRetainedBodySize));
+            }
+            catch (IOException | RuntimeException e)
+            {
+                logger.debug("Unable to retain request body", e);
+            }
+        }
+    }
+
     AbstractExceptionRenderer determineRenderer(ExceptionReport exceptionReport)
     {
         if (! jackson2Present)
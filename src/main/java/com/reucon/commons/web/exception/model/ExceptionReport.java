@@ -1,5 +1,12 @@
 package com.reucon.commons.web.exception.model;
 
+import com.reucon.commons.web.IdGenerator;
+import com.reucon.commons.web.RemoteHostResolver;
+import com.reucon.commons.web.UlidGenerator;
+import com.reucon.commons.web.filter.InputStreamPreservingRequestFilter;
+import com.reucon.commons.web.filter.ResponseCapturingFilter;
+import com.reucon.commons.web.request.CapturedBody;
+import com.reucon.commons.web.response.CapturedResponse;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
@@ -9,7 +16,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.UUID;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 
@@ -25,6 +31,7 @@ public class ExceptionReport implements Serializable
 
     private String remoteAddress;
     private String remoteHost;
+    private String clientIp;
     private String remoteUser;
     private String authType;
     private String protocol;
@@ -54,16 +61,75 @@ public class ExceptionReport implements Serializable
     private Long sessionLastAccessedTime;
     private Integer sessionMaxInactiveInterval;
     private Map<String, Object> sessionAttributes;
+
+    private Integer responseStatus;
+    private Map<String, List<String>> responseHeaders;
+    private String responseBody;
+    private Long responseBodyLength;
+    private Boolean responseBodyTruncated;
+    private String responseBodySkipped;
     
     transient private InputStream inputStream;
+    transient private CapturedBody capturedBody;
     private Date date;
             
     public ExceptionReport(Throwable exception, HttpServletRequest request)
     {
         this(createId(request), exception, request);
     }
+
+    /**
+     * Creates a new report with a generated id.
+     *
+     * @param exception the exception to report
+     * @param request the request that failed
+     * @param remoteHostResolver the resolver for the remote host or <code>null</code> to use
+     *                           {@link HttpServletRequest#getRemoteHost()}
+     * @since 2.2.7
+     */
+    public ExceptionReport(Throwable exception, HttpServletRequest request, RemoteHostResolver remoteHostResolver)
+    {
+        this(createId(request), exception, request, remoteHostResolver);
+    }
     
+    /**
+     * Creates a new report without request data, e.g. for a request that must not be touched
+     * while it is in flight. The request data is set through the setters.
+     *
+     * @param id the id of the report
+     * @param exception the exception to report
+     * @since 2.2.7
+     */
+    public ExceptionReport(String id, Throwable exception)
+    {
+        this.id = id;
+        this.exception = exception;
+        if (exception != null)
+        {
+            exceptionMessage = exception.getMessage();
+        }
+        locales = Collections.emptyList();
+        requestParameters = Collections.emptyMap();
+        requestHeaders = Collections.emptyMap();
+        requestAttributes = Collections.emptyMap();
+    }
+
     public ExceptionReport(String id, Throwable exception, HttpServletRequest request)
+    {
+        this(id, exception, request, null);
+    }
+
+    /**
+     * Creates a new report.
+     *
+     * @param id the id of the report
+     * @param exception the exception to report
+     * @param request the request that failed
+     * @param remoteHostResolver the resolver for the remote host or <code>null</code> to use
+     *                           {@link HttpServletRequest#getRemoteHost()}
+     * @since 2.2.7
+     */
+    public ExceptionReport(String id, Throwable exception, HttpServletRequest request, RemoteHostResolver remoteHostResolver)
     {
         this.id = id;
         this.exception = exception;
@@ -73,7 +139,8 @@ public class ExceptionReport implements Serializable
         }
         
         remoteAddress = request.getRemoteAddr();
-        remoteHost = request.getRemoteHost();
+        clientIp = remoteAddress;
+        remoteHost = remoteHostResolver != null ? remoteHostResolver.resolve(remoteAddress) : request.getRemoteHost();
         remoteUser = request.getRemoteUser();
         authType = request.getAuthType();
         protocol = request.getProtocol();
@@ -123,9 +190,30 @@ public class ExceptionReport implements Serializable
             );
         }
         
+        final Object capturedResponse = request.getAttribute(ResponseCapturingFilter.REQUEST_ATTRIBUTE);
+        if (capturedResponse instanceof CapturedResponse)
+        {
+            final CapturedResponse response = (CapturedResponse) capturedResponse;
+            responseStatus = response.getStatus();
+            responseHeaders = response.getHeaders();
+            responseBody = response.getBody();
+            responseBodyLength = response.getBodyLength();
+            responseBodyTruncated = response.isBodyTruncated();
+            responseBodySkipped = response.getBodySkipped();
+        }
+
         try
         {
-            this.inputStream = request.getInputStream();
+            final Object body = request.getAttribute(InputStreamPreservingRequestFilter.REQUEST_ATTRIBUTE);
+            if (body instanceof CapturedBody)
+            {
+                this.capturedBody = (CapturedBody) body;
+                this.inputStream = this.capturedBody.openStream();
+            }
+            else
+            {
+                this.inputStream = request.getInputStream();
+            }
         }
         catch (IOException ex)
         {
@@ -184,6 +272,23 @@ public class ExceptionReport implements Serializable
         this.remoteAddress = remoteAddress;
     }
 
+    /**
+     * Returns the address of the client, which differs from the remote address if the request has
+     * been forwarded by a trusted proxy.
+     *
+     * @return the client address.
+     * @since 2.2.7
+     */
+    public String getClientIp()
+    {
+        return clientIp;
+    }
+
+    public void setClientIp(String clientIp)
+    {
+        this.clientIp = clientIp;
+    }
+
     public String getRemoteHost()
     {
         return remoteHost;
@@ -464,6 +569,100 @@ public class ExceptionReport implements Serializable
         this.inputStream = inputStream;
     }
 
+    /**
+     * Returns the body captured by {@link InputStreamPreservingRequestFilter}.
+     *
+     * @return the captured body or <code>null</code> if the body has not been captured.
+     * @since 2.2.7
+     */
+    public CapturedBody getCapturedBody()
+    {
+        return capturedBody;
+    }
+
+    public void setCapturedBody(CapturedBody capturedBody)
+    {
+        this.capturedBody = capturedBody;
+    }
+
+    /**
+     * Returns the status of the response captured by {@link ResponseCapturingFilter}.
+     *
+     * @return the response status or <code>null</code> if the response has not been captured.
+     * @since 2.2.7
+     */
+    public Integer getResponseStatus()
+    {
+        return responseStatus;
+    }
+
+    public void setResponseStatus(Integer responseStatus)
+    {
+        this.responseStatus = responseStatus;
+    }
+
+    public Map<String, List<String>> getResponseHeaders()
+    {
+        return responseHeaders;
+    }
+
+    public void setResponseHeaders(Map<String, List<String>> responseHeaders)
+    {
+        this.responseHeaders = responseHeaders;
+    }
+
+    /**
+     * Returns the start of the response body captured by {@link ResponseCapturingFilter}.
+     *
+     * @return the captured response body or <code>null</code> if the response has not been captured.
+     * @since 2.2.7
+     */
+    public String getResponseBody()
+    {
+        return responseBody;
+    }
+
+    public void setResponseBody(String responseBody)
+    {
+        this.responseBody = responseBody;
+    }
+
+    public Long getResponseBodyLength()
+    {
+        return responseBodyLength;
+    }
+
+    public void setResponseBodyLength(Long responseBodyLength)
+    {
+        this.responseBodyLength = responseBodyLength;
+    }
+
+    public Boolean getResponseBodyTruncated()
+    {
+        return responseBodyTruncated;
+    }
+
+    public void setResponseBodyTruncated(Boolean responseBodyTruncated)
+    {
+        this.responseBodyTruncated = responseBodyTruncated;
+    }
+
+    /**
+     * Returns why the response body has not been captured.
+     *
+     * @return <code>compressed</code>, <code>binary</code> or <code>null</code>.
+     * @since 2.2.7
+     */
+    public String getResponseBodySkipped()
+    {
+        return responseBodySkipped;
+    }
+
+    public void setResponseBodySkipped(String responseBodySkipped)
+    {
+        this.responseBodySkipped = responseBodySkipped;
+    }
+
     public void setDate(Date date)
     {
         this.date = date;
@@ -477,18 +676,47 @@ public class ExceptionReport implements Serializable
     /**
      * Creates a new exception id for the given request. The id is made of the
      * request's context path (the path where the webapp is deployed to) and a
-     * random {@linkplain UUID}.
+     * time-ordered id of the {@linkplain UlidGenerator#getDefault() default generator}.
      * 
      * @param request the request to create the id for.
      * @return the created exception id.
      */
     static String createId(HttpServletRequest request)
     {
-        StringBuffer sb;
+        return createId(request, UlidGenerator.getDefault());
+    }
+
+    /**
+     * Creates a new exception id for the given request. The id is made of the
+     * request's context path (the path where the webapp is deployed to) and an
+     * id of the given generator.
+     *
+     * @param request the request to create the id for.
+     * @param idGenerator the generator for the unique part of the id.
+     * @return the created exception id.
+     * @since 2.2.7
+     */
+    public static String createId(HttpServletRequest request, IdGenerator idGenerator)
+    {
+        return createId(request.getContextPath(), idGenerator);
+    }
+
+    /**
+     * Creates a new exception id for a request with the given context path. The id is made of
+     * the context path and an id of the given generator.
+     *
+     * @param contextPath the context path of the request to create the id for.
+     * @param idGenerator the generator for the unique part of the id.
+     * @return the created exception id.
+     * @since 2.2.7
+     */
+    public static String createId(String contextPath, IdGenerator idGenerator)
+    {
+        StringBuilder sb;
         String base;
 
-        sb = new StringBuffer();
-        base = request.getContextPath().replace('/', '_');
+        sb = new StringBuilder();
+        base = contextPath.replace('/', '_');
         if (base.startsWith("_"))
         {
             base = base.substring(1);
@@ -502,7 +730,7 @@ public class ExceptionReport implements Serializable
             sb.append("ROOT");
         }
         sb.append("-");
-        sb.append(UUID.randomUUID().toString());
+        sb.append(idGenerator.nextId());
 
         return sb.toString();
     }
@@ -0,0 +1,59 @@
+package com.reucon.commons.web.exception.model;
+
+/**
+ * Stands in for the exception of a slow request report. It carries no stack trace of its own,
+ * the stacks sampled from the request thread are attached as {@linkplain #getSuppressed()
+ * suppressed} {@link StackSample}s in the order they have been taken, so the existing renderers
+ * print them like any other exception.
+ *
+ * @since 2.2.7
+ */
+public class SlowRequestException extends Exception
+{
+    private static final long serialVersionUID = 1L;
+
+    private final long durationMillis;
+    private final boolean completed;
+
+    public SlowRequestException(String message, long durationMillis, boolean completed)
+    {
+        super(message, null, true, false);
+        this.durationMillis = durationMillis;
+        this.completed = completed;
+    }
+
+    /**
+     * Returns how long the request had been running when the report was written.
+     *
+     * @return the duration in milliseconds.
+     */
+    public long getDurationMillis()
+    {
+        return durationMillis;
+    }
+
+    /**
+     * Returns whether the request completed before the report was written.
+     *
+     * @return <code>true</code> if the request completed, <code>false</code> if it was still
+     *         running.
+     */
+    public boolean isCompleted()
+    {
+        return completed;
+    }
+
+    /**
+     * Stack of the request thread at one point in time.
+     */
+    public static class StackSample extends Throwable
+    {
+        private static final long serialVersionUID = 1L;
+
+        public StackSample(String message, StackTraceElement[] stackTrace)
+        {
+            super(message, null, false, true);
+            setStackTrace(stackTrace);
+        }
+    }
+}
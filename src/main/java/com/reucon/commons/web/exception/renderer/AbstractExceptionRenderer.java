@@ -4,6 +4,7 @@ package com.reucon.commons.web.exception.renderer;
 import com.reucon.commons.web.exception.model.ExceptionReport;
 import com.reucon.commons.web.exception.storage.ExceptionStorage;
 import com.reucon.commons.web.exception.storage.ExceptionStorageEntry;
+import com.reucon.commons.web.request.HeadTailBody;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -41,6 +42,11 @@ public abstract class AbstractExceptionRenderer {
 
     void writePayload(OutputStream os, ExceptionReport exceptionReport) throws IOException
     {
+        if (exceptionReport.getCapturedBody() instanceof HeadTailBody)
+        {
+            writeHeadTail(os, (HeadTailBody) exceptionReport.getCapturedBody());
+            return;
+        }
         final Writer writer = new OutputStreamWriter(os);
         final InputStream inputStream = exceptionReport.getInputStream();
         if (inputStream == null)
@@ -77,4 +83,22 @@ public abstract class AbstractExceptionRenderer {
             }
         }
     }
+
+    /**
+     * Writes head and tail of a body captured in head/tail mode with a marker in between that
+     * states how many bytes have been left out.
+     */
+    void writeHeadTail(OutputStream os, HeadTailBody body) throws IOException
+    {
+        os.write(body.getHead());
+        final String marker = body.getElisionMarker();
+        if (marker != null)
+        {
+            final Writer writer = new OutputStreamWriter(os);
+            writer.write(marker);
+            writer.flush();
+        }
+        os.write(body.getTail());
+        os.close();
+    }
 }
@@ -37,6 +37,7 @@ public class JacksonExceptionRenderer extends AbstractExceptionRenderer
         "beanFactory",
         "beanClassLoader",
         "inputStream",
+        "capturedBody",
         "servletContext"
 //            "requestAttributes",
 //            "sessionAttributes"
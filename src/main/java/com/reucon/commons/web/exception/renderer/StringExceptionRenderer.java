@@ -2,6 +2,7 @@ package com.reucon.commons.web.exception.renderer;
 
 import com.reucon.commons.web.exception.model.ExceptionReport;
 import com.reucon.commons.web.filter.InputStreamPreservingRequestFilter;
+import com.reucon.commons.web.filter.ResponseCapturingFilter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
@@ -34,6 +35,7 @@ public class StringExceptionRenderer extends AbstractExceptionRenderer
 
         writer.write("RemoteAddr:            " + report.getRemoteAddress()+ "\n");
         writer.write("RemoteHost:            " + report.getRemoteHost() + "\n");
+        writer.write("ClientIp:              " + report.getClientIp() + "\n");
         writer.write("RemoteUser:            " + report.getRemoteUser() + "\n");
 
         writer.write("UserPrincipal:         " + report.getPrincipalName() + "\n");
@@ -90,6 +92,7 @@ public class StringExceptionRenderer extends AbstractExceptionRenderer
         writer.write(
             report.getRequestAttributes().entrySet().stream()
                 .filter(e -> !e.getKey().equals(InputStreamPreservingRequestFilter.REQUEST_ATTRIBUTE))
+                .filter(e -> !e.getKey().equals(ResponseCapturingFilter.REQUEST_ATTRIBUTE))
                 .map(e -> e.getKey()+ ": " + e.getValue().toString())
                 .collect(Collectors.joining("\n"))
             );
@@ -121,6 +124,42 @@ public class StringExceptionRenderer extends AbstractExceptionRenderer
         
         }
         writer.write("\n\n");
+
+        if (report.getResponseStatus() != null)
+        {
+            writeResponse(writer, report);
+        }
+    }
+
+    void writeResponse(Writer writer, ExceptionReport report) throws IOException
+    {
+        writer.write("Response:\n\n");
+        writer.write("Status:                " + report.getResponseStatus() + "\n\n");
+
+        writer.write("Headers:\n\n");
+        writer.write(
+            report.getResponseHeaders().entrySet().stream()
+                .flatMap(e -> e.getValue().stream()
+                    .map(v -> e.getKey()+ ": " + v)
+                )
+                .collect(Collectors.joining("\n"))
+            );
+        writer.write("\n\n");
+
+        writer.write("Body (" + report.getResponseBodyLength() + "):\n\n");
+        if (report.getResponseBodySkipped() != null)
+        {
+            writer.write("--" + report.getResponseBodySkipped() + " body not captured--");
+        }
+        else
+        {
+            writer.write(report.getResponseBody());
+            if (Boolean.TRUE.equals(report.getResponseBodyTruncated()))
+            {
+                writer.write("\n--truncated--");
+            }
+        }
+        writer.write("\n\n");
     }
 
     void writeThrowable(Writer writer, Throwable throwable) throws IOException
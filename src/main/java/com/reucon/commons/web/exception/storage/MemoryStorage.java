@@ -1,18 +1,35 @@
 package com.reucon.commons.web.exception.storage;
 
 import com.reucon.commons.web.exception.model.ExceptionReport;
+import com.reucon.commons.web.request.DeflatePool;
 import java.io.ByteArrayOutputStream;
 import java.io.CharArrayWriter;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class MemoryStorage extends ExceptionStorage
 {
+    /**
+     * Default minimum size of a payload to be compressed: 1 KiB.
+     *
+     * @since 2.2.7
+     */
+    public static final int DEFAULT_MIN_COMPRESS_SIZE = 1024;
+
     final private Map<String, MemoryStorageEntry> entries;
     private MemoryStorageEntry lastAdded;
     private int capacity = 20;
+    private boolean compressPayloads = false;
+    private int minCompressSize = DEFAULT_MIN_COMPRESS_SIZE;
+    private DeflatePool deflatePool = DeflatePool.getDefault();
     
     public MemoryStorage()
     {
@@ -24,6 +41,41 @@ public class MemoryStorage extends ExceptionStorage
         this.capacity = capacity;
     }
 
+    /**
+     * Sets whether payloads are held deflate-compressed once they have been written. They are
+     * inflated again when they are accessed. Default is <code>false</code>.
+     *
+     * @param compressPayloads <code>true</code> to compress payloads.
+     * @since 2.2.7
+     */
+    public void setCompressPayloads(boolean compressPayloads)
+    {
+        this.compressPayloads = compressPayloads;
+    }
+
+    /**
+     * Sets the minimum size of a payload to be compressed. Default is
+     * {@link #DEFAULT_MIN_COMPRESS_SIZE}.
+     *
+     * @param minCompressSize minimum number of bytes.
+     * @since 2.2.7
+     */
+    public void setMinCompressSize(int minCompressSize)
+    {
+        this.minCompressSize = minCompressSize;
+    }
+
+    /**
+     * Sets the pool to take deflaters and inflaters from. Default is {@link DeflatePool#getDefault()}.
+     *
+     * @param deflatePool the pool to use.
+     * @since 2.2.7
+     */
+    public void setDeflatePool(DeflatePool deflatePool)
+    {
+        this.deflatePool = deflatePool;
+    }
+
     public Map<String, MemoryStorageEntry> getEntries()
     {
         return entries;
@@ -37,7 +89,7 @@ public class MemoryStorage extends ExceptionStorage
     @Override
     public ExceptionStorageEntry allocate(ExceptionReport exceptionReport) throws IOException
     {
-        MemoryStorageEntry entry = new MemoryStorageEntry();
+        MemoryStorageEntry entry = compressPayloads ? new MemoryStorageEntry(deflatePool, minCompressSize) : new MemoryStorageEntry();
         synchronized(entries)
         {
             if(entries.size() > capacity)
@@ -61,6 +113,31 @@ public class MemoryStorage extends ExceptionStorage
             this.metadataWriter = new CharArrayWriter();
             this.payloadOutputStream = new ByteArrayOutputStream();
         }
+
+        /**
+         * Creates an entry that compresses its payload when the payload stream is closed.
+         *
+         * @param deflatePool the pool to compress the payload with
+         * @param minCompressSize minimum number of bytes of a payload to be compressed
+         * @since 2.2.7
+         */
+        public MemoryStorageEntry(DeflatePool deflatePool, int minCompressSize)
+        {
+            this.metadataWriter = new CharArrayWriter();
+            this.payloadOutputStream = new CompressingOutputStream(deflatePool, minCompressSize);
+        }
+
+        /**
+         * Returns whether the payload is currently held compressed.
+         *
+         * @return <code>true</code> if the payload is compressed.
+         * @since 2.2.7
+         */
+        public boolean isPayloadCompressed()
+        {
+            return payloadOutputStream instanceof CompressingOutputStream
+                    && ((CompressingOutputStream) payloadOutputStream).isCompressed();
+        }
         
         @Override
         public String location()
@@ -81,4 +158,151 @@ public class MemoryStorage extends ExceptionStorage
         }
     }
 
+    /**
+     * Byte array stream that deflates its content when closed. Reading the content inflates a
+     * copy and leaves the payload compressed, only writing to the stream again switches it back
+     * to raw storage.
+     */
+    private static class CompressingOutputStream extends ByteArrayOutputStream
+    {
+        private static final byte[] EMPTY = new byte[0];
+
+        private final DeflatePool deflatePool;
+        private final int minCompressSize;
+        private byte[] compressed;
+        private int length;
+
+        private CompressingOutputStream(DeflatePool deflatePool, int minCompressSize)
+        {
+            this.deflatePool = deflatePool;
+            this.minCompressSize = minCompressSize;
+        }
+
+        synchronized boolean isCompressed()
+        {
+            return compressed != null;
+        }
+
+        @Override
+        public synchronized void close()
+        {
+            if (compressed != null || count < minCompressSize || count == 0)
+            {
+                return;
+            }
+            final byte[] deflated = deflatePool.deflate(Collections.singletonList(buf), count);
+            if (deflated.length < count)
+            {
+                compressed = deflated;
+                length = count;
+                buf = EMPTY;
+                count = 0;
+            }
+        }
+
+        @Override
+        public synchronized void write(int b)
+        {
+            decompress();
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len)
+        {
+            decompress();
+            super.write(b, off, len);
+        }
+
+        @Override
+        public synchronized void writeTo(OutputStream out) throws IOException
+        {
+            if (compressed == null)
+            {
+                super.writeTo(out);
+                return;
+            }
+            out.write(inflate());
+        }
+
+        @Override
+        public synchronized void reset()
+        {
+            compressed = null;
+            super.reset();
+        }
+
+        @Override
+        public synchronized byte[] toByteArray()
+        {
+            return compressed != null ? inflate() : super.toByteArray();
+        }
+
+        @Override
+        public synchronized int size()
+        {
+            return compressed != null ? length : count;
+        }
+
+        @Override
+        public synchronized String toString()
+        {
+            return compressed != null ? new String(inflate()) : super.toString();
+        }
+
+        @Override
+        public synchronized String toString(String charsetName) throws UnsupportedEncodingException
+        {
+            return compressed != null ? new String(inflate(), charsetName) : super.toString(charsetName);
+        }
+
+        /**
+         * Overrides {@code ByteArrayOutputStream.toString(Charset)} on Java 10 and later, which
+         * reads the buffer directly.
+         */
+        public synchronized String toString(Charset charset)
+        {
+            return new String(compressed != null ? inflate() : super.toByteArray(), charset);
+        }
+
+        /**
+         * Switches back to raw storage before the content is modified.
+         */
+        private void decompress()
+        {
+            if (compressed == null)
+            {
+                return;
+            }
+            buf = inflate();
+            count = length;
+            compressed = null;
+        }
+
+        /**
+         * Returns a copy of the content inflated from the compressed payload.
+         */
+        private byte[] inflate()
+        {
+            final byte[] bytes = new byte[length];
+            try (InputStream is = deflatePool.inflate(compressed))
+            {
+                int position = 0;
+                while (position < length)
+                {
+                    final int n = is.read(bytes, position, length - position);
+                    if (n == -1)
+                    {
+                        throw new EOFException("Compressed payload ended prematurely");
+                    }
+                    position += n;
+                }
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+            return bytes;
+        }
+    }
 }
@@ -0,0 +1,30 @@
+package com.reucon.commons.web.filter;
+
+/**
+ * How much of a request {@link InputStreamPreservingRequestFilter} captures, from most to least.
+ *
+ * @see HeapPressureMonitor
+ * @since 2.2.7
+ */
+public enum CaptureLevel
+{
+    /**
+     * The body is captured completely.
+     */
+    FULL,
+
+    /**
+     * Only the start of the body is captured.
+     */
+    TRUNCATED,
+
+    /**
+     * The body is not captured, exception reports only contain the request line and headers.
+     */
+    HEADERS_ONLY,
+
+    /**
+     * The filter passes requests on without any capturing.
+     */
+    OFF
+}
@@ -0,0 +1,176 @@
+package com.reucon.commons.web.filter;
+
+import com.reucon.commons.web.request.PathPatternSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Rules that decide whether {@link InputStreamPreservingRequestFilter} captures the body of a
+ * request.
+ * <p>
+ * All rules are compiled when they are set, so {@link #matches(HttpServletRequest)} only compares
+ * precomputed values and does not allocate. A request is captured if it matches every configured
+ * rule, rules that are not configured match all requests. The sampling rate is applied last.
+ *
+ * @since 2.2.7
+ */
+public class CaptureRules
+{
+    /**
+     * Value for {@link #setMaxContentLength(long)} to capture bodies of any length.
+     */
+    public static final long UNLIMITED = -1;
+
+    private static final String[] METHODS = {"GET", "HEAD", "POST", "PUT", "PATCH", "DELETE", "OPTIONS", "TRACE"};
+    private static final int OTHER_METHOD = 1 << METHODS.length;
+    private static final int ALL_METHODS = -1;
+
+    private PathPatternSet paths;
+    private int methodMask = ALL_METHODS;
+    private String[] contentTypes = new String[0];
+    private long maxContentLength = UNLIMITED;
+    private double samplingRate = 1.0;
+
+    /**
+     * Sets the paths to capture as comma separated list of Ant-style patterns, e.g.
+     * <code>/api/**,/upload/*.json</code>. The pattern is matched against the servlet path
+     * followed by the path info. Default is to capture all paths.
+     *
+     * @param paths comma separated list of patterns, <code>null</code> or empty for all paths.
+     * @see PathPatternSet
+     */
+    public void setPaths(String paths)
+    {
+        final PathPatternSet compiled = PathPatternSet.compile(paths);
+        this.paths = compiled.isEmpty() ? null : compiled;
+    }
+
+    /**
+     * Sets the HTTP methods to capture as comma separated list, e.g. <code>POST,PUT,PATCH</code>.
+     * Default is to capture all methods.
+     *
+     * @param methods comma separated list of methods, <code>null</code> or empty for all methods.
+     */
+    public void setMethods(String methods)
+    {
+        int mask = 0;
+        for (String method : split(methods))
+        {
+            mask |= methodBit(method.toUpperCase(Locale.ENGLISH));
+        }
+        this.methodMask = mask == 0 ? ALL_METHODS : mask;
+    }
+
+    /**
+     * Sets the content types to capture as comma separated list of prefixes, e.g.
+     * <code>application/json,text/</code>. Matching is case insensitive and ignores parameters
+     * like the charset. Requests without content type are not captured if content types are
+     * configured. Default is to capture all content types.
+     *
+     * @param contentTypes comma separated list of content type prefixes, <code>null</code> or empty for all
+     *                     content types.
+     */
+    public void setContentTypes(String contentTypes)
+    {
+        this.contentTypes = split(contentTypes).toArray(new String[0]);
+    }
+
+    /**
+     * Sets the maximum Content-Length of requests to capture. Requests that do not declare their
+     * length, e.g. chunked requests, are captured. Default is {@link #UNLIMITED}.
+     *
+     * @param maxContentLength the maximum Content-Length.
+     */
+    public void setMaxContentLength(long maxContentLength)
+    {
+        this.maxContentLength = maxContentLength;
+    }
+
+    /**
+     * Sets the fraction of matching requests to capture. Default is <code>1.0</code>.
+     *
+     * @param samplingRate value between <code>0.0</code> (capture none) and <code>1.0</code> (capture all).
+     */
+    public void setSamplingRate(double samplingRate)
+    {
+        if (samplingRate < 0.0 || samplingRate > 1.0)
+        {
+            throw new IllegalArgumentException("Sampling rate must be between 0.0 and 1.0, was " + samplingRate);
+        }
+        this.samplingRate = samplingRate;
+    }
+
+    /**
+     * Returns whether the body of the given request should be captured.
+     *
+     * @param request the request to check
+     * @return <code>true</code> if the body should be captured.
+     */
+    public boolean matches(HttpServletRequest request)
+    {
+        if (methodMask != ALL_METHODS && (methodMask & methodBit(request.getMethod())) == 0)
+        {
+            return false;
+        }
+        if (maxContentLength != UNLIMITED && request.getContentLength() > maxContentLength)
+        {
+            return false;
+        }
+        if (contentTypes.length > 0 && !matchesContentType(request.getContentType()))
+        {
+            return false;
+        }
+        if (paths != null && !paths.matches(request.getServletPath(), request.getPathInfo()))
+        {
+            return false;
+        }
+        return samplingRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < samplingRate;
+    }
+
+    private boolean matchesContentType(String contentType)
+    {
+        if (contentType == null)
+        {
+            return false;
+        }
+        for (String prefix : contentTypes)
+        {
+            if (contentType.regionMatches(true, 0, prefix, 0, prefix.length()))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int methodBit(String method)
+    {
+        for (int i = 0; i < METHODS.length; i++)
+        {
+            if (METHODS[i].equals(method))
+            {
+                return 1 << i;
+            }
+        }
+        return OTHER_METHOD;
+    }
+
+    private static List<String> split(String values)
+    {
+        final List<String> result = new ArrayList<>();
+        if (values != null)
+        {
+            for (String value : values.split(","))
+            {
+                if (!value.trim().isEmpty())
+                {
+                    result.add(value.trim());
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,369 @@
+package com.reucon.commons.web.filter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Watches the occupancy of the heap and derives the {@link CaptureLevel} for
+ * {@link InputStreamPreservingRequestFilter}.
+ * <p>
+ * The monitor sets usage and collection usage thresholds on the heap memory pools that support
+ * them, typically the old generation, and listens for the threshold notifications of the
+ * {@link java.lang.management.MemoryMXBean}. Thresholds that are already set lower, e.g. by
+ * another library, are left alone, thresholds that are lowered are restored when the monitor is
+ * stopped unless they have been changed again in the meantime. The occupancy of a pool is taken
+ * from its usage after the last collection if available, so regular growth of the old generation
+ * between collections does not degrade capturing.
+ * <p>
+ * While capture is full nothing is polled, the level is only raised when a notification arrives.
+ * While capture is degraded the occupancy is rechecked at most once per recheck interval when the
+ * level is requested, by a single thread while the others keep using the current level. The
+ * level is raised as soon as the occupancy reaches a threshold and lowered only after it has
+ * dropped below the threshold minus the hysteresis.
+ *
+ * @since 2.2.7
+ */
+public class HeapPressureMonitor implements HeapPressureMonitorMBean, NotificationListener
+{
+    /**
+     * Default occupancy at which only the start of bodies is captured: 70%.
+     */
+    public static final double DEFAULT_TRUNCATE_THRESHOLD = 0.70;
+
+    /**
+     * Default occupancy at which bodies are no longer captured: 80%.
+     */
+    public static final double DEFAULT_HEADERS_ONLY_THRESHOLD = 0.80;
+
+    /**
+     * Default occupancy at which capturing is turned off: 90%.
+     */
+    public static final double DEFAULT_OFF_THRESHOLD = 0.90;
+
+    /**
+     * Default amount the occupancy must drop below a threshold before capturing recovers: 10%.
+     */
+    public static final double DEFAULT_HYSTERESIS = 0.10;
+
+    private static final long DEFAULT_RECHECK_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+
+    private final Log logger = LogFactory.getLog(getClass());
+    private final AtomicLong levelChanges = new AtomicLong();
+    private final Map<MemoryPoolMXBean, SavedThresholds> pools = new LinkedHashMap<>();
+    private final AtomicLong nextCheck = new AtomicLong();
+    private volatile CaptureLevel level = CaptureLevel.FULL;
+    private volatile double occupancy;
+    private double truncateThreshold = DEFAULT_TRUNCATE_THRESHOLD;
+    private double headersOnlyThreshold = DEFAULT_HEADERS_ONLY_THRESHOLD;
+    private double offThreshold = DEFAULT_OFF_THRESHOLD;
+    private double hysteresis = DEFAULT_HYSTERESIS;
+    private long recheckInterval = DEFAULT_RECHECK_INTERVAL;
+    private boolean started;
+
+    /**
+     * Sets the thresholds on the heap memory pools and starts listening for notifications.
+     */
+    public synchronized void start()
+    {
+        if (started)
+        {
+            return;
+        }
+        started = true;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported())
+            {
+                pools.put(pool, new SavedThresholds(pool));
+            }
+        }
+        applyThresholds();
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(this, null, null);
+        update();
+    }
+
+    /**
+     * Stops listening for notifications and restores the thresholds of the memory pools that have
+     * not been changed by someone else since they were set.
+     */
+    public synchronized void stop()
+    {
+        if (!started)
+        {
+            return;
+        }
+        started = false;
+        try
+        {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(this);
+        }
+        catch (ListenerNotFoundException e)
+        {
+            logger.debug("Heap pressure listener was not registered", e);
+        }
+        for (Map.Entry<MemoryPoolMXBean, SavedThresholds> entry : pools.entrySet())
+        {
+            entry.getValue().restore(entry.getKey());
+        }
+        pools.clear();
+    }
+
+    /**
+     * Returns the current capture level, rechecking the occupancy if capture is degraded and the
+     * recheck interval has elapsed.
+     *
+     * @return the current capture level.
+     */
+    public CaptureLevel getLevel()
+    {
+        final CaptureLevel current = level;
+        if (current == CaptureLevel.FULL)
+        {
+            return current;
+        }
+        final long now = System.currentTimeMillis();
+        final long check = nextCheck.get();
+        // only the thread that moves the next check forward measures again
+        if (now >= check && nextCheck.compareAndSet(check, now + recheckInterval))
+        {
+            return update();
+        }
+        return current;
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback)
+    {
+        final String type = notification.getType();
+        if (MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(type)
+                || MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type))
+        {
+            update();
+        }
+    }
+
+    /**
+     * Measures the occupancy and adjusts the level.
+     *
+     * @return the new level.
+     */
+    synchronized CaptureLevel update()
+    {
+        nextCheck.set(System.currentTimeMillis() + recheckInterval);
+        final double measured = measureOccupancy();
+        final CaptureLevel current = level;
+        final CaptureLevel next = levelFor(measured, current);
+        occupancy = measured;
+        if (next != current)
+        {
+            level = next;
+            levelChanges.incrementAndGet();
+            if (next.ordinal() > current.ordinal())
+            {
+                logger.warn("Heap occupancy " + percent(measured) + ", request body capture degraded to " + next);
+            }
+            else
+            {
+                logger.info("Heap occupancy " + percent(measured) + ", request body capture recovered to " + next);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Returns the occupancy of the most occupied heap pool.
+     *
+     * @return the occupancy between <code>0.0</code> and <code>1.0</code>.
+     */
+    protected double measureOccupancy()
+    {
+        double max = 0.0;
+        for (MemoryPoolMXBean pool : pools.keySet())
+        {
+            MemoryUsage usage = pool.isCollectionUsageThresholdSupported() ? pool.getCollectionUsage() : null;
+            if (usage == null || usage.getUsed() == 0)
+            {
+                usage = pool.getUsage();
+            }
+            final long capacity = usage.getMax() > 0 ? usage.getMax() : usage.getCommitted();
+            if (capacity > 0)
+            {
+                max = Math.max(max, (double) usage.getUsed() / capacity);
+            }
+        }
+        return max;
+    }
+
+    private CaptureLevel levelFor(double measured, CaptureLevel current)
+    {
+        final double[] thresholds = {truncateThreshold, headersOnlyThreshold, offThreshold};
+        int next = 0;
+        for (int i = 0; i < thresholds.length; i++)
+        {
+            // a level that is already active is kept until the occupancy drops below the hysteresis band
+            final double threshold = i < current.ordinal() ? thresholds[i] - hysteresis : thresholds[i];
+            if (measured >= threshold)
+            {
+                next = i + 1;
+            }
+        }
+        return CaptureLevel.values()[next];
+    }
+
+    private synchronized void applyThresholds()
+    {
+        for (Map.Entry<MemoryPoolMXBean, SavedThresholds> entry : pools.entrySet())
+        {
+            final MemoryPoolMXBean pool = entry.getKey();
+            final long max = pool.getUsage().getMax();
+            if (max <= 0)
+            {
+                continue;
+            }
+            final long threshold = (long) (max * truncateThreshold);
+            final SavedThresholds saved = entry.getValue();
+            // compare against the threshold found on start, ours may have been lower before
+            if (saved.usage == 0 || saved.usage > threshold)
+            {
+                pool.setUsageThreshold(threshold);
+                saved.appliedUsage = threshold;
+            }
+            if (pool.isCollectionUsageThresholdSupported() && (saved.collectionUsage == 0 || saved.collectionUsage > threshold))
+            {
+                pool.setCollectionUsageThreshold(threshold);
+                saved.appliedCollectionUsage = threshold;
+            }
+        }
+    }
+
+    private static String percent(double value)
+    {
+        return Math.round(value * 100) + "%";
+    }
+
+    @Override
+    public String getCaptureLevel()
+    {
+        return getLevel().name();
+    }
+
+    @Override
+    public int getCaptureLevelOrdinal()
+    {
+        return getLevel().ordinal();
+    }
+
+    @Override
+    public double getOccupancy()
+    {
+        return occupancy;
+    }
+
+    @Override
+    public long getLevelChanges()
+    {
+        return levelChanges.get();
+    }
+
+    @Override
+    public double getTruncateThreshold()
+    {
+        return truncateThreshold;
+    }
+
+    @Override
+    public void setTruncateThreshold(double truncateThreshold)
+    {
+        this.truncateThreshold = truncateThreshold;
+        applyThresholds();
+    }
+
+    @Override
+    public double getHeadersOnlyThreshold()
+    {
+        return headersOnlyThreshold;
+    }
+
+    @Override
+    public void setHeadersOnlyThreshold(double headersOnlyThreshold)
+    {
+        this.headersOnlyThreshold = headersOnlyThreshold;
+    }
+
+    @Override
+    public double getOffThreshold()
+    {
+        return offThreshold;
+    }
+
+    @Override
+    public void setOffThreshold(double offThreshold)
+    {
+        this.offThreshold = offThreshold;
+    }
+
+    @Override
+    public double getHysteresis()
+    {
+        return hysteresis;
+    }
+
+    @Override
+    public void setHysteresis(double hysteresis)
+    {
+        this.hysteresis = hysteresis;
+    }
+
+    /**
+     * Sets how often the occupancy is rechecked while capture is degraded. Default is one second.
+     *
+     * @param recheckInterval the interval in milliseconds.
+     */
+    public void setRecheckInterval(long recheckInterval)
+    {
+        this.recheckInterval = recheckInterval;
+    }
+
+    /**
+     * Thresholds of a memory pool found when the monitor was started and those set by the
+     * monitor.
+     */
+    private static final class SavedThresholds
+    {
+        private final long usage;
+        private final long collectionUsage;
+        private long appliedUsage = -1;
+        private long appliedCollectionUsage = -1;
+
+        private SavedThresholds(MemoryPoolMXBean pool)
+        {
+            this.usage = pool.getUsageThreshold();
+            this.collectionUsage = pool.isCollectionUsageThresholdSupported() ? pool.getCollectionUsageThreshold() : 0;
+        }
+
+        private void restore(MemoryPoolMXBean pool)
+        {
+            if (appliedUsage >= 0 && pool.getUsageThreshold() == appliedUsage)
+            {
+                pool.setUsageThreshold(usage);
+            }
+            if (appliedCollectionUsage >= 0 && pool.getCollectionUsageThreshold() == appliedCollectionUsage)
+            {
+                pool.setCollectionUsageThreshold(collectionUsage);
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.reucon.commons.web.filter;
+
+/**
+ * Management interface of {@link HeapPressureMonitor}.
+ *
+ * @since 2.2.7
+ */
+public interface HeapPressureMonitorMBean
+{
+    /**
+     * Returns the current capture level.
+     *
+     * @return the name of the current {@link CaptureLevel}.
+     */
+    String getCaptureLevel();
+
+    /**
+     * Returns the current capture level as number for monitoring, <code>0</code> is full capture
+     * and <code>3</code> is off.
+     *
+     * @return the ordinal of the current {@link CaptureLevel}.
+     */
+    int getCaptureLevelOrdinal();
+
+    /**
+     * Returns the occupancy of the most occupied heap pool that has been measured last.
+     *
+     * @return the occupancy between <code>0.0</code> and <code>1.0</code>.
+     */
+    double getOccupancy();
+
+    /**
+     * Returns how often the capture level has changed.
+     *
+     * @return the number of level changes.
+     */
+    long getLevelChanges();
+
+    double getTruncateThreshold();
+
+    void setTruncateThreshold(double truncateThreshold);
+
+    double getHeadersOnlyThreshold();
+
+    void setHeadersOnlyThreshold(double headersOnlyThreshold);
+
+    double getOffThreshold();
+
+    void setOffThreshold(double offThreshold);
+
+    double getHysteresis();
+
+    void setHysteresis(double hysteresis);
+}
@@ -1,7 +1,17 @@
 package com.reucon.commons.web.filter;
 
+import com.reucon.commons.web.MBeanRegistration;
+import com.reucon.commons.web.request.CachedBody;
 import com.reucon.commons.web.request.CachedHttpRequestWrapper;
+import com.reucon.commons.web.request.CaptureSettings;
+import com.reucon.commons.web.request.CapturedBody;
+import com.reucon.commons.web.request.ChunkPool;
+import com.reucon.commons.web.request.HeadTailBody;
+import com.reucon.commons.web.request.RetainedBody;
 import java.io.IOException;
+import javax.management.ObjectName;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
@@ -10,23 +20,479 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.springframework.web.filter.GenericFilterBean;
 
+/**
+ * Filter that wraps the request in a {@link CachedHttpRequestWrapper} so the body can be read more
+ * than once, e.g. to include it in an exception report.
+ * <p>
+ * The captured body is exposed as {@link CapturedBody} in the request attribute
+ * {@link #REQUEST_ATTRIBUTE} and released when the request completes. Requests that do not match
+ * the configured {@link CaptureRules} are passed on unwrapped.
+ * <p>
+ * In {@linkplain #setRetainOnError(boolean) retain on error} mode the body of a request that
+ * fails with an exception or a 5xx status is promoted to a durable copy before the pooled body is
+ * released, the attribute then refers to the copy, e.g. for error pages rendered afterwards.
+ * <p>
+ * With {@linkplain #setAdaptiveCapture(boolean) adaptive capture} a {@link HeapPressureMonitor}
+ * degrades capturing while the heap is under pressure: first only the start of bodies is
+ * captured, then no bodies (the attribute contains {@link RetainedBody#EMPTY}) and finally requests
+ * are passed on untouched. The monitor is registered as MBean
+ * <code>com.reucon.commons:type=HeapPressureMonitor,name=&lt;filter name&gt;</code>.
+ */
 public class InputStreamPreservingRequestFilter extends GenericFilterBean
 {
     /**
-     * Name of the attribute to get hold of the request content
+     * Name of the attribute to get hold of the request content. The attribute contains a
+     * {@link CapturedBody}, in lazy mode the content is drained when it is first read.
      */
     public static final String REQUEST_ATTRIBUTE = "com.reucon.commons.web.filter.preservedInputStream";
 
+    /**
+     * Default number of bytes captured from the start of a body while capture is truncated: 4 KiB.
+     */
+    public static final int DEFAULT_TRUNCATED_CAPTURE_SIZE = 4 * 1024;
+
+    private static final String MBEAN_TYPE = "HeapPressureMonitor";
+
+    private final CaptureSettings settings = new CaptureSettings();
+    private CaptureRules rules = new CaptureRules();
+    private HeapPressureMonitor heapPressureMonitor;
+    private int truncatedCaptureSize = DEFAULT_TRUNCATED_CAPTURE_SIZE;
+    private ObjectName mbeanName;
+
+    /**
+     * Sets the rules that decide which requests are captured. Replaces all rules set by the
+     * individual setters.
+     *
+     * @param rules the rules to use.
+     * @since 2.2.7
+     */
+    public void setCaptureRules(CaptureRules rules)
+    {
+        this.rules = rules;
+    }
+
+    /**
+     * Sets the paths to capture as comma separated list of Ant-style patterns.
+     *
+     * @param capturePaths comma separated list of patterns.
+     * @see CaptureRules#setPaths(String)
+     * @since 2.2.7
+     */
+    public void setCapturePaths(String capturePaths)
+    {
+        rules.setPaths(capturePaths);
+    }
+
+    /**
+     * Sets the HTTP methods to capture as comma separated list.
+     *
+     * @param captureMethods comma separated list of methods.
+     * @see CaptureRules#setMethods(String)
+     * @since 2.2.7
+     */
+    public void setCaptureMethods(String captureMethods)
+    {
+        rules.setMethods(captureMethods);
+    }
+
+    /**
+     * Sets the content types to capture as comma separated list of prefixes.
+     *
+     * @param captureContentTypes comma separated list of content type prefixes.
+     * @see CaptureRules#setContentTypes(String)
+     * @since 2.2.7
+     */
+    public void setCaptureContentTypes(String captureContentTypes)
+    {
+        rules.setContentTypes(captureContentTypes);
+    }
+
+    /**
+     * Sets the maximum Content-Length of requests to capture.
+     *
+     * @param maxCaptureContentLength the maximum Content-Length.
+     * @see CaptureRules#setMaxContentLength(long)
+     * @since 2.2.7
+     */
+    public void setMaxCaptureContentLength(long maxCaptureContentLength)
+    {
+        rules.setMaxContentLength(maxCaptureContentLength);
+    }
+
+    /**
+     * Sets the fraction of matching requests to capture.
+     *
+     * @param captureSamplingRate value between <code>0.0</code> and <code>1.0</code>.
+     * @see CaptureRules#setSamplingRate(double)
+     * @since 2.2.7
+     */
+    public void setCaptureSamplingRate(double captureSamplingRate)
+    {
+        rules.setSamplingRate(captureSamplingRate);
+    }
+
+    /**
+     * Sets whether the request body is captured while the application reads it instead of being
+     * drained before the request is passed on. Default is <code>false</code>.
+     *
+     * @param lazyCapture <code>true</code> to capture the body lazily.
+     * @since 2.2.7
+     */
+    public void setLazyCapture(boolean lazyCapture)
+    {
+        settings.setLazy(lazyCapture);
+    }
+
+    /**
+     * Sets whether bodies of requests that support asynchronous processing are captured lazily
+     * even if lazy capture is disabled, so slow clients do not hold container threads. Default is
+     * <code>true</code>.
+     *
+     * @param lazyCaptureForAsync <code>true</code> to capture bodies of async requests lazily.
+     * @see CaptureSettings#setLazyForAsync(boolean)
+     * @since 2.2.7
+     */
+    public void setLazyCaptureForAsync(boolean lazyCaptureForAsync)
+    {
+        settings.setLazyForAsync(lazyCaptureForAsync);
+    }
+
+    /**
+     * Sets the maximum number of bytes of a request body to keep in memory. Larger bodies are
+     * spilled to a temporary file that is deleted when the request completes. Default is
+     * {@link CachedBody#UNLIMITED}.
+     *
+     * @param memoryThreshold maximum number of bytes to keep in memory.
+     * @since 2.2.7
+     */
+    public void setMemoryThreshold(int memoryThreshold)
+    {
+        settings.setMemoryThreshold(memoryThreshold);
+    }
+
+    /**
+     * Sets the pool to take the memory chunks for captured bodies from. Default is
+     * {@link ChunkPool#getDefault()}.
+     *
+     * @param chunkPool the pool to use.
+     * @since 2.2.7
+     */
+    public void setChunkPool(ChunkPool chunkPool)
+    {
+        settings.setChunkPool(chunkPool);
+    }
+
+    /**
+     * Returns the pool used for captured bodies, e.g. to monitor its hit and miss counters.
+     *
+     * @return the pool used for captured bodies.
+     * @since 2.2.7
+     */
+    public ChunkPool getChunkPool()
+    {
+        return settings.getChunkPool();
+    }
+
+    /**
+     * Sets the maximum number of bytes kept per text part of a multipart request. Default is
+     * {@link CaptureSettings#DEFAULT_MAX_TEXT_PART_SIZE}.
+     *
+     * @param maxTextPartSize maximum number of bytes kept per text part.
+     * @since 2.2.7
+     */
+    public void setMaxTextPartSize(int maxTextPartSize)
+    {
+        settings.setMaxTextPartSize(maxTextPartSize);
+    }
+
+    /**
+     * Sets the number of bytes of a multipart request that are inspected to capture its parts.
+     * Default is {@link CaptureSettings#DEFAULT_MULTIPART_BUDGET}.
+     *
+     * @param multipartBudget number of bytes to inspect.
+     * @since 2.2.7
+     */
+    public void setMultipartBudget(long multipartBudget)
+    {
+        settings.setMultipartBudget(multipartBudget);
+    }
+
+    /**
+     * Sets whether the body of a request that fails with an exception or a 5xx status is retained
+     * after the request completes. Default is <code>false</code>.
+     *
+     * @param retainOnError <code>true</code> to retain the bodies of failed requests.
+     * @since 2.2.7
+     */
+    public void setRetainOnError(boolean retainOnError)
+    {
+        settings.setRetainOnError(retainOnError);
+    }
+
+    /**
+     * Sets the maximum number of bytes of a body that are retained. Default is
+     * {@link CaptureSettings#DEFAULT_MAX_RETAINED_SIZE}.
+     *
+     * @param maxRetainedSize maximum number of bytes to retain.
+     * @since 2.2.7
+     */
+    public void setMaxRetainedSize(int maxRetainedSize)
+    {
+        settings.setMaxRetainedSize(maxRetainedSize);
+    }
+
+    /**
+     * Sets the number of bytes kept from the start of chunked or long bodies. Setting head or
+     * tail size enables head/tail mode that passes such bodies through and only keeps their start
+     * and end. Default is <code>0</code>.
+     *
+     * @param headSize number of bytes to keep from the start of the body.
+     * @see HeadTailBody
+     * @since 2.2.7
+     */
+    public void setHeadSize(int headSize)
+    {
+        settings.setHeadSize(headSize);
+    }
+
+    /**
+     * Sets the number of bytes kept from the end of chunked or long bodies. Default is
+     * <code>0</code>.
+     *
+     * @param tailSize number of bytes to keep from the end of the body.
+     * @see HeadTailBody
+     * @since 2.2.7
+     */
+    public void setTailSize(int tailSize)
+    {
+        settings.setTailSize(tailSize);
+    }
+
+    /**
+     * Sets whether bodies held in memory are kept deflate-compressed once they have been read
+     * completely. Default is <code>false</code>.
+     *
+     * @param compressBodies <code>true</code> to compress captured bodies.
+     * @see CaptureSettings#setCompress(boolean)
+     * @since 2.2.7
+     */
+    public void setCompressBodies(boolean compressBodies)
+    {
+        settings.setCompress(compressBodies);
+    }
+
+    /**
+     * Sets the minimum size of a body to be compressed. Default is
+     * {@link CaptureSettings#DEFAULT_MIN_COMPRESS_SIZE}.
+     *
+     * @param minCompressSize minimum number of bytes.
+     * @since 2.2.7
+     */
+    public void setMinCompressSize(int minCompressSize)
+    {
+        settings.setMinCompressSize(minCompressSize);
+    }
+
+    /**
+     * Sets whether capturing is degraded while the heap is under pressure. Default is
+     * <code>false</code>.
+     *
+     * @param adaptiveCapture <code>true</code> to adapt capturing to heap pressure.
+     * @since 2.2.7
+     */
+    public void setAdaptiveCapture(boolean adaptiveCapture)
+    {
+        this.heapPressureMonitor = adaptiveCapture ? new HeapPressureMonitor() : null;
+    }
+
+    /**
+     * Sets the monitor deciding the capture level, e.g. to use custom thresholds. Enables adaptive
+     * capture.
+     *
+     * @param heapPressureMonitor the monitor to use or <code>null</code> to disable adaptive capture.
+     * @since 2.2.7
+     */
+    public void setHeapPressureMonitor(HeapPressureMonitor heapPressureMonitor)
+    {
+        this.heapPressureMonitor = heapPressureMonitor;
+    }
+
+    /**
+     * Sets the number of bytes captured from the start of a body while capture is truncated.
+     * Default is {@link #DEFAULT_TRUNCATED_CAPTURE_SIZE}.
+     *
+     * @param truncatedCaptureSize number of bytes to capture.
+     * @since 2.2.7
+     */
+    public void setTruncatedCaptureSize(int truncatedCaptureSize)
+    {
+        this.truncatedCaptureSize = truncatedCaptureSize;
+    }
+
+    /**
+     * Returns the current capture level.
+     *
+     * @return the current capture level, {@link CaptureLevel#FULL} if adaptive capture is disabled.
+     * @since 2.2.7
+     */
+    public CaptureLevel getCaptureLevel()
+    {
+        return heapPressureMonitor == null ? CaptureLevel.FULL : heapPressureMonitor.getLevel();
+    }
+
+    @Override
+    protected void initFilterBean() throws ServletException
+    {
+        if (heapPressureMonitor == null)
+        {
+            return;
+        }
+        heapPressureMonitor.start();
+        final String name = getFilterName() != null ? getFilterName() : getClass().getSimpleName();
+        mbeanName = MBeanRegistration.register(heapPressureMonitor, MBEAN_TYPE, name, logger);
+    }
+
+    @Override
+    public void destroy()
+    {
+        if (heapPressureMonitor != null)
+        {
+            heapPressureMonitor.stop();
+        }
+        MBeanRegistration.unregister(mbeanName, logger);
+        mbeanName = null;
+    }
+
     @Override
     public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain) throws IOException, ServletException
     {
         final HttpServletRequest request = (HttpServletRequest) req;
         final HttpServletResponse response = (HttpServletResponse) res;
-        
-        final CachedHttpRequestWrapper wrappedRequest = new CachedHttpRequestWrapper(request);
-        
-        wrappedRequest.setAttribute(REQUEST_ATTRIBUTE, wrappedRequest.getBytes());
 
-        chain.doFilter(wrappedRequest, response);
+        final CaptureLevel level = getCaptureLevel();
+        if (level == CaptureLevel.OFF || !rules.matches(request))
+        {
+            chain.doFilter(request, response);
+            return;
+        }
+        if (level == CaptureLevel.HEADERS_ONLY)
+        {
+            request.setAttribute(REQUEST_ATTRIBUTE, RetainedBody.EMPTY);
+            chain.doFilter(request, response);
+            return;
+        }
+
+        final CachedHttpRequestWrapper wrappedRequest = new CachedHttpRequestWrapper(request,
+                level == CaptureLevel.TRUNCATED ? truncatedSettings() : settings);
+        final CapturedBody body = wrappedRequest.getBody();
+
+        wrappedRequest.setAttribute(REQUEST_ATTRIBUTE, body);
+
+        boolean completed = false;
+        try
+        {
+            chain.doFilter(wrappedRequest, response);
+            completed = true;
+        }
+        finally
+        {
+            if (request.isAsyncStarted())
+            {
+                request.getAsyncContext().addListener(new ReleasingAsyncListener(this, body));
+            }
+            else
+            {
+                if (!completed || response.getStatus() >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR)
+                {
+                    retain(request);
+                }
+                body.release();
+            }
+        }
+    }
+
+    /**
+     * Returns settings that only capture the start of bodies. Bodies of unknown length or longer
+     * than the truncated capture size are passed through with a head buffer only.
+     */
+    private CaptureSettings truncatedSettings()
+    {
+        final CaptureSettings truncated = new CaptureSettings(settings);
+        truncated.setHeadSize(truncatedCaptureSize);
+        truncated.setTailSize(0);
+        truncated.setMultipartBudget(Math.min(settings.getMultipartBudget(), truncatedCaptureSize));
+        return truncated;
+    }
+
+    /**
+     * Replaces the captured body in the request attribute by a durable copy if retain on error
+     * mode is enabled.
+     */
+    private void retain(ServletRequest request)
+    {
+        if (!settings.isRetainOnError())
+        {
+            return;
+        }
+        final Object body = request.getAttribute(REQUEST_ATTRIBUTE);
+        if (body instanceof CapturedBody)
+        {
+            try
+            {
+                request.setAttribute(REQUEST_ATTRIBUTE, ((CapturedBody) body).promote(settings.getMaxRetainedSize()));
+            }
+            catch (IOException | RuntimeException e)
+            {
+                logger.debug("Unable to retain request body", e);
+                request.removeAttribute(REQUEST_ATTRIBUTE);
+            }
+        }
+    }
+
+    /**
+     * Releases the body once an asynchronous request has completed, retaining it if the request
+     * failed.
+     */
+    private static class ReleasingAsyncListener implements AsyncListener
+    {
+        private final InputStreamPreservingRequestFilter filter;
+        private final CapturedBody body;
+
+        private ReleasingAsyncListener(InputStreamPreservingRequestFilter filter, CapturedBody body)
+        {
+            this.filter = filter;
+            this.body = body;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event)
+        {
+            final ServletResponse response = event.getSuppliedResponse() != null
+                    ? event.getSuppliedResponse() : event.getAsyncContext().getResponse();
+            if (response instanceof HttpServletResponse
+                    && ((HttpServletResponse) response).getStatus() >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR)
+            {
+                filter.retain(event.getSuppliedRequest() != null
+                        ? event.getSuppliedRequest() : event.getAsyncContext().getRequest());
+            }
+            body.release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event)
+        {
+        }
+
+        @Override
+        public void onError(AsyncEvent event)
+        {
+            filter.retain(event.getAsyncContext().getRequest());
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event)
+        {
+            event.getAsyncContext().addListener(this);
+        }
     }
 }
@@ -0,0 +1,64 @@
+package com.reucon.commons.web.filter;
+
+import com.reucon.commons.web.response.CapturedResponse;
+import com.reucon.commons.web.response.CapturingHttpResponseWrapper;
+import java.io.IOException;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.web.filter.GenericFilterBean;
+
+/**
+ * Filter that wraps the response in a {@link CapturingHttpResponseWrapper} so status, headers and
+ * the start of the body can be included in an exception report.
+ * <p>
+ * The captured response is exposed as {@link CapturedResponse} in the request attribute
+ * {@link #REQUEST_ATTRIBUTE}. Dispatches of a request whose response is already being captured,
+ * e.g. forwards, error pages or asynchronous dispatches, are passed on without wrapping the
+ * response again, so the attribute keeps referring to the original capture.
+ *
+ * @since 2.2.7
+ */
+public class ResponseCapturingFilter extends GenericFilterBean
+{
+    /**
+     * Name of the attribute to get hold of the captured response.
+     */
+    public static final String REQUEST_ATTRIBUTE = "com.reucon.commons.web.filter.capturedResponse";
+
+    /**
+     * Default maximum number of bytes or characters of the body to capture: 8 KiB.
+     */
+    public static final int DEFAULT_MAX_BODY_SIZE = 8 * 1024;
+
+    private int maxBodySize = DEFAULT_MAX_BODY_SIZE;
+
+    /**
+     * Sets the maximum number of bytes or characters of the body to capture. Default is
+     * {@link #DEFAULT_MAX_BODY_SIZE}.
+     *
+     * @param maxBodySize maximum number of bytes or characters to capture.
+     */
+    public void setMaxBodySize(int maxBodySize)
+    {
+        this.maxBodySize = maxBodySize;
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
+    {
+        if (request.getAttribute(REQUEST_ATTRIBUTE) != null)
+        {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        final CapturingHttpResponseWrapper wrappedResponse = new CapturingHttpResponseWrapper((HttpServletResponse) response, maxBodySize);
+
+        request.setAttribute(REQUEST_ATTRIBUTE, wrappedResponse.getCaptured());
+
+        chain.doFilter(request, wrappedResponse);
+    }
+}
@@ -0,0 +1,486 @@
+package com.reucon.commons.web.filter;
+
+import com.reucon.commons.web.ClientIpResolver;
+import com.reucon.commons.web.IdGenerator;
+import com.reucon.commons.web.RemoteHostResolver;
+import com.reucon.commons.web.UlidGenerator;
+import com.reucon.commons.web.exception.model.ExceptionReport;
+import com.reucon.commons.web.exception.model.SlowRequestException;
+import com.reucon.commons.web.exception.renderer.AbstractExceptionRenderer;
+import com.reucon.commons.web.exception.renderer.JacksonExceptionRenderer;
+import com.reucon.commons.web.exception.renderer.StringExceptionRenderer;
+import com.reucon.commons.web.exception.storage.ExceptionStorage;
+import com.reucon.commons.web.exception.storage.ExceptionStorageEntry;
+import com.reucon.commons.web.exception.storage.FilesystemStorage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.filter.GenericFilterBean;
+
+/**
+ * Filter that writes a report for requests that take longer than a threshold, including samples
+ * of the stack of the request thread.
+ * <p>
+ * Requests are registered while they are processed. A single watchdog thread scans the registry
+ * every {@linkplain #setScanInterval(long) scan interval}. Once a request has been running for
+ * longer than the {@linkplain #setThreshold(long) threshold}, the watchdog creates an
+ * {@link ExceptionReport} and samples the stack of the request thread every
+ * {@linkplain #setSampleInterval(long) sample interval}. When the request completes or the
+ * {@linkplain #setMaxSamples(int) maximum number of samples} has been taken the report is written
+ * with a {@link SlowRequestException} holding the samples through the configured
+ * {@link ExceptionStorage} and {@link AbstractExceptionRenderer}, like an exception report.
+ * <p>
+ * The watchdog never touches the request itself. When a request is registered the request thread
+ * takes a cheap snapshot of the request line, the server and the client, which is all the report
+ * contains about the request: no headers, parameters, attributes, session or body. The remote
+ * host is taken from a {@link RemoteHostResolver} instead of a blocking reverse lookup. The
+ * request thread never waits for the watchdog, a stack sample taken while the request completes
+ * is discarded. The number of requests sampled at the same time and the number of reports per
+ * minute are limited.
+ * <p>
+ * Only the time a request spends on the request thread is watched, asynchronous processing is
+ * not.
+ *
+ * @since 2.2.7
+ */
+public class SlowRequestFilter extends GenericFilterBean
+{
+    public static final long DEFAULT_THRESHOLD = 5000;
+    public static final long DEFAULT_SCAN_INTERVAL = 500;
+    public static final long DEFAULT_SAMPLE_INTERVAL = 1000;
+    public static final int DEFAULT_MAX_SAMPLES = 5;
+    public static final int DEFAULT_MAX_SAMPLED_REQUESTS = 8;
+    public static final int DEFAULT_MAX_REPORTS_PER_MINUTE = 10;
+
+    private static final long ONE_MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    private final Set<InFlightRequest> inFlight = ConcurrentHashMap.newKeySet();
+    private final List<InFlightRequest> sampled = new ArrayList<>();
+    private long threshold = DEFAULT_THRESHOLD;
+    private long scanInterval = DEFAULT_SCAN_INTERVAL;
+    private long sampleInterval = DEFAULT_SAMPLE_INTERVAL;
+    private int maxSamples = DEFAULT_MAX_SAMPLES;
+    private int maxSampledRequests = DEFAULT_MAX_SAMPLED_REQUESTS;
+    private int maxReportsPerMinute = DEFAULT_MAX_REPORTS_PER_MINUTE;
+    private ExceptionStorage storage = new FilesystemStorage();
+    private AbstractExceptionRenderer renderer;
+    private IdGenerator idGenerator = UlidGenerator.getDefault();
+    private RemoteHostResolver remoteHostResolver = RemoteHostResolver.getDefault();
+    private ClientIpResolver clientIpResolver;
+    private ScheduledExecutorService watchdog;
+    private long windowStart = System.nanoTime() - ONE_MINUTE;
+    private int reportsInWindow;
+
+    /**
+     * Sets the duration after which a request is considered slow. Default is
+     * {@link #DEFAULT_THRESHOLD}.
+     *
+     * @param threshold the threshold in milliseconds.
+     */
+    public void setThreshold(long threshold)
+    {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Sets how often the watchdog scans the requests in flight. Default is
+     * {@link #DEFAULT_SCAN_INTERVAL}. Has no effect once the filter has been initialized.
+     *
+     * @param scanInterval the interval in milliseconds.
+     */
+    public void setScanInterval(long scanInterval)
+    {
+        this.scanInterval = scanInterval;
+    }
+
+    /**
+     * Sets the interval between two stack samples of a slow request. Default is
+     * {@link #DEFAULT_SAMPLE_INTERVAL}.
+     *
+     * @param sampleInterval the interval in milliseconds.
+     */
+    public void setSampleInterval(long sampleInterval)
+    {
+        this.sampleInterval = sampleInterval;
+    }
+
+    /**
+     * Sets the number of stack samples after which the report of a request that is still running
+     * is written. Default is {@link #DEFAULT_MAX_SAMPLES}.
+     *
+     * @param maxSamples the maximum number of samples per request.
+     */
+    public void setMaxSamples(int maxSamples)
+    {
+        this.maxSamples = maxSamples;
+    }
+
+    /**
+     * Sets the maximum number of slow requests sampled at the same time, further slow requests
+     * are not reported. Default is {@link #DEFAULT_MAX_SAMPLED_REQUESTS}.
+     *
+     * @param maxSampledRequests the maximum number of requests.
+     */
+    public void setMaxSampledRequests(int maxSampledRequests)
+    {
+        this.maxSampledRequests = maxSampledRequests;
+    }
+
+    /**
+     * Sets the maximum number of reports per minute, further slow requests are not reported.
+     * Default is {@link #DEFAULT_MAX_REPORTS_PER_MINUTE}.
+     *
+     * @param maxReportsPerMinute the maximum number of reports per minute.
+     */
+    public void setMaxReportsPerMinute(int maxReportsPerMinute)
+    {
+        this.maxReportsPerMinute = maxReportsPerMinute;
+    }
+
+    /**
+     * Sets the storage to write the reports to. Default is a {@link FilesystemStorage}.
+     *
+     * @param storage the storage to use.
+     */
+    public void setStorage(ExceptionStorage storage)
+    {
+        this.storage = storage;
+    }
+
+    /**
+     * Writes the reports to the given directory.
+     *
+     * @param logDirectory the directory to write the reports to.
+     */
+    public void setLogDirectory(String logDirectory)
+    {
+        this.storage = new FilesystemStorage(logDirectory);
+    }
+
+    /**
+     * Sets the renderer for the reports. Default is {@link JacksonExceptionRenderer} if Jackson is
+     * available and {@link StringExceptionRenderer} otherwise.
+     *
+     * @param renderer the renderer to use.
+     */
+    public void setRenderer(AbstractExceptionRenderer renderer)
+    {
+        this.renderer = renderer;
+    }
+
+    /**
+     * Sets the generator for the unique part of the report ids. Default is
+     * {@link UlidGenerator#getDefault()}.
+     *
+     * @param idGenerator the generator to use.
+     */
+    public void setIdGenerator(IdGenerator idGenerator)
+    {
+        this.idGenerator = idGenerator;
+    }
+
+    /**
+     * Sets the resolver for the remote host of the reports. Default is
+     * {@link RemoteHostResolver#getDefault()}.
+     *
+     * @param remoteHostResolver the resolver to use or <code>null</code> to report the remote
+     *                           address as remote host.
+     */
+    public void setRemoteHostResolver(RemoteHostResolver remoteHostResolver)
+    {
+        this.remoteHostResolver = remoteHostResolver;
+    }
+
+    /**
+     * Sets the proxies whose forwarding headers are trusted to determine the client address of the
+     * reports. Default is none, i.e. the remote address of the connection.
+     *
+     * @param trustedProxies comma separated list of networks in CIDR notation
+     * @throws IllegalArgumentException if a network is invalid.
+     */
+    public void setTrustedProxies(String trustedProxies)
+    {
+        this.clientIpResolver = new ClientIpResolver(trustedProxies);
+    }
+
+    /**
+     * Returns the number of requests currently processed.
+     *
+     * @return the number of requests in flight.
+     */
+    public int getInFlightCount()
+    {
+        return inFlight.size();
+    }
+
+    @Override
+    protected void initFilterBean() throws ServletException
+    {
+        if (renderer == null)
+        {
+            final ClassLoader classLoader = getClass().getClassLoader();
+            renderer = ClassUtils.isPresent("com.fasterxml.jackson.databind.ObjectMapper", classLoader)
+                    ? new JacksonExceptionRenderer() : new StringExceptionRenderer();
+        }
+        final String name = "slow-request-watchdog-" + (getFilterName() != null ? getFilterName() : getClass().getSimpleName());
+        watchdog = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            final Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        watchdog.scheduleWithFixedDelay(this::scanSafely, scanInterval, scanInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy()
+    {
+        if (watchdog != null)
+        {
+            watchdog.shutdownNow();
+            watchdog = null;
+        }
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
+    {
+        if (!(request instanceof HttpServletRequest))
+        {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        final InFlightRequest entry = new InFlightRequest(new RequestSnapshot((HttpServletRequest) request, clientIpResolver));
+        inFlight.add(entry);
+        try
+        {
+            chain.doFilter(request, response);
+        }
+        finally
+        {
+            entry.complete();
+            inFlight.remove(entry);
+        }
+    }
+
+    private void scanSafely()
+    {
+        try
+        {
+            scan(System.nanoTime());
+        }
+        catch (RuntimeException e)
+        {
+            logger.warn("Slow request watchdog failed", e);
+        }
+    }
+
+    /**
+     * Takes due samples, writes the reports of requests that are done and starts sampling
+     * requests that have become slow. Only called by the watchdog thread.
+     */
+    void scan(long now)
+    {
+        final long sampleIntervalNanos = TimeUnit.MILLISECONDS.toNanos(sampleInterval);
+        for (Iterator<InFlightRequest> i = sampled.iterator(); i.hasNext(); )
+        {
+            final InFlightRequest entry = i.next();
+            if (entry.samples.size() < maxSamples && now - entry.lastSample >= sampleIntervalNanos)
+            {
+                entry.sample(now);
+            }
+            final boolean completed = entry.isCompleted();
+            if (completed || entry.samples.size() >= maxSamples)
+            {
+                i.remove();
+                writeReport(entry, completed ? entry.end : now, completed);
+            }
+        }
+
+        final long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(threshold);
+        for (InFlightRequest entry : inFlight)
+        {
+            if (entry.watched || now - entry.start < thresholdNanos)
+            {
+                continue;
+            }
+            entry.watched = true;
+            if (sampled.size() < maxSampledRequests && !entry.isCompleted() && acquireReport(now))
+            {
+                entry.report = createReport(entry.snapshot);
+                entry.sample(now);
+                sampled.add(entry);
+            }
+        }
+    }
+
+    private boolean acquireReport(long now)
+    {
+        if (now - windowStart >= ONE_MINUTE)
+        {
+            windowStart = now;
+            reportsInWindow = 0;
+        }
+        if (reportsInWindow >= maxReportsPerMinute)
+        {
+            return false;
+        }
+        reportsInWindow++;
+        return true;
+    }
+
+    private ExceptionReport createReport(RequestSnapshot snapshot)
+    {
+        final ExceptionReport report = new ExceptionReport(ExceptionReport.createId(snapshot.contextPath, idGenerator), null);
+        report.setRemoteAddress(snapshot.remoteAddress);
+        report.setRemoteHost(remoteHostResolver != null ? remoteHostResolver.resolve(snapshot.remoteAddress) : snapshot.remoteAddress);
+        report.setClientIp(snapshot.clientIp);
+        report.setRemoteUser(snapshot.remoteUser);
+        report.setProtocol(snapshot.protocol);
+        report.setHttpMethod(snapshot.method);
+        report.setCharacterEncoding(snapshot.characterEncoding);
+        report.setContentType(snapshot.contentType);
+        report.setContextPath(snapshot.contextPath);
+        report.setServletPath(snapshot.servletPath);
+        report.setPathInfo(snapshot.pathInfo);
+        report.setRequestURI(snapshot.requestURI);
+        report.setQueryString(snapshot.queryString);
+        report.setScheme(snapshot.scheme);
+        report.setServerName(snapshot.serverName);
+        report.setServerPort(snapshot.serverPort);
+        return report;
+    }
+
+    private void writeReport(InFlightRequest entry, long end, boolean completed)
+    {
+        final long durationMillis = TimeUnit.NANOSECONDS.toMillis(end - entry.start);
+        final SlowRequestException exception = new SlowRequestException("Request "
+                + (completed ? "completed after " : "still running after ") + durationMillis + " ms on thread "
+                + entry.threadName, durationMillis, completed);
+        for (SlowRequestException.StackSample sample : entry.samples)
+        {
+            exception.addSuppressed(sample);
+        }
+        final ExceptionReport report = entry.report;
+        report.setException(exception);
+        report.setExceptionMessage(exception.getMessage());
+        try
+        {
+            final ExceptionStorageEntry written = renderer.render(report, storage);
+            logger.info("Slow request report " + report.getId() + " written to " + written.location() + " for "
+                    + report.getHttpMethod() + " " + report.getRequestURI() + ": " + exception.getMessage());
+        }
+        catch (IOException | RuntimeException e)
+        {
+            logger.warn("Unable to write slow request report " + report.getId(), e);
+        }
+    }
+
+    /**
+     * Request registered while it is processed. The request thread only sets the end when it
+     * leaves the filter, the watchdog discards samples taken after that.
+     */
+    static final class InFlightRequest
+    {
+        private final RequestSnapshot snapshot;
+        private final Thread thread;
+        private final String threadName;
+        private final long start;
+        private volatile long end;
+        private volatile boolean completed;
+
+        // only accessed by the watchdog thread
+        private boolean watched;
+        private ExceptionReport report;
+        private final List<SlowRequestException.StackSample> samples = new ArrayList<>();
+        private long lastSample;
+
+        InFlightRequest(RequestSnapshot snapshot)
+        {
+            this.snapshot = snapshot;
+            this.thread = Thread.currentThread();
+            this.threadName = thread.getName();
+            this.start = System.nanoTime();
+        }
+
+        private void complete()
+        {
+            end = System.nanoTime();
+            completed = true;
+        }
+
+        private boolean isCompleted()
+        {
+            return completed;
+        }
+
+        private void sample(long now)
+        {
+            final StackTraceElement[] stack = thread.getStackTrace();
+            lastSample = now;
+            if (completed)
+            {
+                // the thread may already be processing another request
+                return;
+            }
+            samples.add(new SlowRequestException.StackSample("Stack of " + threadName + " after "
+                    + TimeUnit.NANOSECONDS.toMillis(now - start) + " ms", stack));
+        }
+    }
+
+    /**
+     * Snapshot of a request taken by the request thread when the request is registered. Only
+     * reads properties the container keeps at hand, nothing that is parsed from the body, looked up
+     * or may be changed by the application.
+     */
+    static final class RequestSnapshot
+    {
+        private final String remoteAddress;
+        private final String clientIp;
+        private final String remoteUser;
+        private final String protocol;
+        private final String method;
+        private final String characterEncoding;
+        private final String contentType;
+        private final String contextPath;
+        private final String servletPath;
+        private final String pathInfo;
+        private final String requestURI;
+        private final String queryString;
+        private final String scheme;
+        private final String serverName;
+        private final int serverPort;
+
+        RequestSnapshot(HttpServletRequest request, ClientIpResolver clientIpResolver)
+        {
+            this.remoteAddress = request.getRemoteAddr();
+            this.clientIp = clientIpResolver != null ? clientIpResolver.resolve(request) : remoteAddress;
+            this.remoteUser = request.getRemoteUser();
+            this.protocol = request.getProtocol();
+            this.method = request.getMethod();
+            this.characterEncoding = request.getCharacterEncoding();
+            this.contentType = request.getContentType();
+            this.contextPath = request.getContextPath();
+            this.servletPath = request.getServletPath();
+            this.pathInfo = request.getPathInfo();
+            this.requestURI = request.getRequestURI();
+            this.queryString = request.getQueryString();
+            this.scheme = request.getScheme();
+            this.serverName = request.getServerName();
+            this.serverPort = request.getServerPort();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.reucon.commons.web.request;
+
+import java.io.IOException;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+
+/**
+ * The input stream of the underlying request as seen by a {@link CapturedBody}.
+ * <p>
+ * The stream is opened on first use. Once the application registers a {@link ReadListener} the
+ * source switches to non-blocking mode: the listener is registered with the container's stream,
+ * bytes are captured as the application reads them in its callbacks, and draining stops as soon
+ * as the container has no more data ready instead of blocking the calling thread.
+ *
+ * @since 2.2.7
+ */
+class BodySource
+{
+    private final ServletRequest request;
+    private ServletInputStream stream;
+    private volatile boolean exhausted;
+    private boolean nonBlocking;
+
+    /**
+     * Creates a new source.
+     *
+     * @param request the request to read from or <code>null</code> for a source without content
+     */
+    BodySource(ServletRequest request)
+    {
+        this.request = request;
+        this.exhausted = request == null;
+    }
+
+    /**
+     * Returns whether the end of the request body has been seen.
+     */
+    boolean isExhausted()
+    {
+        return exhausted;
+    }
+
+    /**
+     * Returns whether the source has been opened.
+     */
+    boolean isOpen()
+    {
+        return stream != null;
+    }
+
+    /**
+     * Reads from the request body.
+     *
+     * @return the number of bytes read or <code>-1</code> at the end of the body.
+     */
+    int read(byte[] b, int off, int len) throws IOException
+    {
+        if (exhausted)
+        {
+            return -1;
+        }
+        final int read = stream().read(b, off, len);
+        if (read == -1)
+        {
+            exhausted = true;
+        }
+        return read;
+    }
+
+    /**
+     * Returns whether a body may be drained from this source without blocking on a non-blocking
+     * stream.
+     */
+    boolean canDrain() throws IOException
+    {
+        if (exhausted)
+        {
+            return false;
+        }
+        if (!nonBlocking)
+        {
+            return true;
+        }
+        if (stream().isFinished())
+        {
+            exhausted = true;
+            return false;
+        }
+        return stream().isReady();
+    }
+
+    int available() throws IOException
+    {
+        return stream != null && !exhausted ? stream.available() : 0;
+    }
+
+    boolean isFinished()
+    {
+        if (exhausted)
+        {
+            return true;
+        }
+        try
+        {
+            return stream().isFinished();
+        }
+        catch (IOException e)
+        {
+            // the next read reports the exception
+            return false;
+        }
+    }
+
+    boolean isReady()
+    {
+        if (exhausted)
+        {
+            return true;
+        }
+        try
+        {
+            return stream().isReady();
+        }
+        catch (IOException e)
+        {
+            // let the next read report the exception
+            return true;
+        }
+    }
+
+    /**
+     * Switches to non-blocking mode and registers the listener.
+     *
+     * @param listener the listener of the application
+     * @param pending <code>true</code> if the application has captured bytes to read before the
+     *                remaining body is read from the request
+     */
+    void setReadListener(ReadListener listener, boolean pending)
+    {
+        if (listener == null)
+        {
+            throw new NullPointerException("ReadListener must not be null");
+        }
+        nonBlocking = true;
+        if (exhausted)
+        {
+            // the container has nothing left to signal, replay the captured bytes ourselves
+            dispatch(() ->
+            {
+                try
+                {
+                    if (pending)
+                    {
+                        listener.onDataAvailable();
+                    }
+                    listener.onAllDataRead();
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    listener.onError(e);
+                }
+            });
+            return;
+        }
+        try
+        {
+            stream().setReadListener(new CapturingReadListener(listener));
+        }
+        catch (IOException e)
+        {
+            dispatch(() -> listener.onError(e));
+        }
+    }
+
+    private void dispatch(Runnable runnable)
+    {
+        if (request.isAsyncStarted())
+        {
+            request.getAsyncContext().start(runnable);
+        }
+        else
+        {
+            runnable.run();
+        }
+    }
+
+    private ServletInputStream stream() throws IOException
+    {
+        if (stream == null)
+        {
+            stream = request.getInputStream();
+        }
+        return stream;
+    }
+
+    /**
+     * Notes the end of the body before the application is notified.
+     */
+    private class CapturingReadListener implements ReadListener
+    {
+        private final ReadListener delegate;
+
+        private CapturingReadListener(ReadListener delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onDataAvailable() throws IOException
+        {
+            delegate.onDataAvailable();
+        }
+
+        @Override
+        public void onAllDataRead() throws IOException
+        {
+            exhausted = true;
+            delegate.onAllDataRead();
+        }
+
+        @Override
+        public void onError(Throwable t)
+        {
+            delegate.onError(t);
+        }
+    }
+}
@@ -0,0 +1,552 @@
+package com.reucon.commons.web.request;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Handle to the captured body of a request.
+ * <p>
+ * The body is read from the underlying request on demand and kept in memory until it exceeds the
+ * configured threshold. Larger bodies are spilled to a temporary file that is deleted when the
+ * body is {@linkplain #release() released}.
+ * <p>
+ * In memory the body is stored in chunks taken from a {@link ChunkPool}, each chunk is one size
+ * class larger than the previous one. The chunks are returned to the pool when the body is spilled
+ * or released.
+ * <p>
+ * If compression is enabled a body held in memory is deflated once it has been captured
+ * completely and its chunks are returned to the pool. Streams opened afterwards inflate the body
+ * on demand, so a body that is never replayed is never inflated.
+ *
+ * @since 2.2.7
+ */
+public class CachedBody extends CapturedBody
+{
+    /**
+     * Threshold value that keeps the body in memory regardless of its size.
+     */
+    public static final int UNLIMITED = -1;
+
+    private static final String TEMP_FILE_PREFIX = "reucon-body-";
+    private static final int BUFFER_SIZE = 4096;
+
+    private final Log logger = LogFactory.getLog(getClass());
+    private final BodySource source;
+    private final int memoryThreshold;
+    private final ChunkPool pool;
+    private final DeflatePool deflatePool;
+    private final int minCompressSize;
+    private final List<byte[]> chunks = new ArrayList<>();
+    private byte[] compressed;
+    private int lastChunkFill;
+    private File file;
+    private FileChannel channel;
+    private long length;
+    private boolean released;
+
+    /**
+     * Creates a new body reading from the given request.
+     *
+     * @param request the request to read the body from or <code>null</code> if the body is
+     *                written explicitly
+     * @param memoryThreshold maximum number of bytes to keep in memory or {@link #UNLIMITED}
+     * @param pool the pool to take the memory chunks from
+     */
+    CachedBody(ServletRequest request, int memoryThreshold, ChunkPool pool)
+    {
+        this(request, memoryThreshold, pool, null, 0);
+    }
+
+    /**
+     * Creates a new body reading from the given request.
+     *
+     * @param request the request to read the body from or <code>null</code> if the body is
+     *                written explicitly
+     * @param memoryThreshold maximum number of bytes to keep in memory or {@link #UNLIMITED}
+     * @param pool the pool to take the memory chunks from
+     * @param deflatePool the pool to compress the completed body with or <code>null</code> to keep
+     *                    it uncompressed
+     * @param minCompressSize minimum number of bytes of a body to be compressed
+     */
+    CachedBody(ServletRequest request, int memoryThreshold, ChunkPool pool, DeflatePool deflatePool, int minCompressSize)
+    {
+        this.source = new BodySource(request);
+        this.memoryThreshold = memoryThreshold;
+        this.pool = pool;
+        this.deflatePool = deflatePool;
+        this.minCompressSize = minCompressSize;
+    }
+
+    /**
+     * Returns the number of bytes captured so far.
+     *
+     * @return the number of bytes captured so far.
+     */
+    @Override
+    public long length()
+    {
+        return length;
+    }
+
+    /**
+     * Returns whether the body has been spilled to a temporary file.
+     *
+     * @return <code>true</code> if the body is stored on disk, <code>false</code> if it is held in memory.
+     */
+    public boolean isSpilled()
+    {
+        return channel != null;
+    }
+
+    /**
+     * Returns whether the body is held compressed in memory.
+     *
+     * @return <code>true</code> if the completed body has been compressed.
+     */
+    public boolean isCompressed()
+    {
+        return compressed != null;
+    }
+
+    /**
+     * Returns a new stream over the complete body. Bytes that have not been captured yet are read
+     * from the underlying request while the stream is consumed.
+     *
+     * @return a new stream starting at the beginning of the body.
+     */
+    @Override
+    public InputStream openStream()
+    {
+        return newInputStream();
+    }
+
+    /**
+     * Drains the body and returns it as a byte array.
+     *
+     * @return the complete body.
+     * @throws IOException if the body can not be read.
+     */
+    @Override
+    public byte[] toByteArray() throws IOException
+    {
+        drain();
+        if (length > Integer.MAX_VALUE)
+        {
+            throw new IOException("Body of " + length + " bytes is too large for a byte array");
+        }
+        final byte[] bytes = new byte[(int) length];
+        if (compressed != null)
+        {
+            try (InputStream is = deflatePool.inflate(compressed))
+            {
+                readFully(is, bytes, 0, bytes.length);
+            }
+            return bytes;
+        }
+        int position = 0;
+        while (position < bytes.length)
+        {
+            position += read(position, bytes, position, bytes.length - position);
+        }
+        return bytes;
+    }
+
+    /**
+     * Releases the resources held by this body and deletes the temporary file, if any.
+     */
+    @Override
+    public void release()
+    {
+        if (released)
+        {
+            return;
+        }
+        released = true;
+        compressed = null;
+        releaseChunks();
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                logger.debug("Unable to close temporary file " + file, e);
+            }
+        }
+        if (file != null && !file.delete())
+        {
+            logger.warn("Unable to delete temporary file " + file);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CachedBody[length=" + length + (isSpilled() ? ", spilled" : "") + (isCompressed() ? ", compressed" : "") + "]";
+    }
+
+    @Override
+    ServletInputStream newInputStream()
+    {
+        return new CachedInputStream();
+    }
+
+    void write(byte[] b, int off, int len) throws IOException
+    {
+        checkNotReleased();
+        if (channel == null && memoryThreshold != UNLIMITED && length + len > memoryThreshold)
+        {
+            spill();
+        }
+        if (channel != null)
+        {
+            final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer, length + buffer.position() - off);
+            }
+        }
+        else
+        {
+            writeChunks(b, off, len);
+        }
+        length += len;
+    }
+
+    /**
+     * Reads the remaining body. If the application reads the body with a {@link ReadListener}
+     * only the bytes the container has ready are read.
+     */
+    @Override
+    void drain() throws IOException
+    {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        while (source.canDrain())
+        {
+            readSource(buffer, 0, buffer.length);
+        }
+    }
+
+    /**
+     * Reads up to <code>len</code> bytes from the underlying request into <code>b</code> and
+     * appends them to the body.
+     */
+    private int readSource(byte[] b, int off, int len) throws IOException
+    {
+        final int read = source.read(b, off, len);
+        if (read > 0)
+        {
+            write(b, off, read);
+        }
+        else if (read == -1)
+        {
+            compress();
+        }
+        return read;
+    }
+
+    /**
+     * Compresses the completed body if it is held in memory and large enough.
+     */
+    private void compress()
+    {
+        if (deflatePool == null || compressed != null || released || channel != null || length < minCompressSize || chunks.isEmpty())
+        {
+            return;
+        }
+        final byte[] deflated = deflatePool.deflate(chunks, length);
+        if (deflated.length >= length)
+        {
+            // incompressible, e.g. an uploaded archive
+            return;
+        }
+        compressed = deflated;
+        releaseChunks();
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Compressed request body from " + length + " to " + deflated.length + " bytes");
+        }
+    }
+
+    private static void readFully(InputStream is, byte[] b, int off, int len) throws IOException
+    {
+        while (len > 0)
+        {
+            final int n = is.read(b, off, len);
+            if (n == -1)
+            {
+                throw new EOFException("Compressed body ended prematurely");
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Reads captured bytes starting at the given position.
+     */
+    private int read(long position, byte[] b, int off, int len) throws IOException
+    {
+        checkNotReleased();
+        final int n = (int) Math.min(len, length - position);
+        if (channel == null)
+        {
+            readChunks((int) position, b, off, n);
+            return n;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(b, off, n);
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position() - off) == -1)
+            {
+                break;
+            }
+        }
+        return buffer.position() - off;
+    }
+
+    private void spill() throws IOException
+    {
+        file = File.createTempFile(TEMP_FILE_PREFIX, ".tmp");
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        long position = 0;
+        for (int i = 0; i < chunks.size(); i++)
+        {
+            final byte[] chunk = chunks.get(i);
+            final ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, i == chunks.size() - 1 ? lastChunkFill : chunk.length);
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer, position + buffer.position());
+            }
+            position += buffer.limit();
+        }
+        releaseChunks();
+        logger.debug("Spilled request body to " + file);
+    }
+
+    private void checkNotReleased() throws IOException
+    {
+        if (released)
+        {
+            throw new IOException("Body has already been released");
+        }
+    }
+
+    private void writeChunks(byte[] b, int off, int len)
+    {
+        while (len > 0)
+        {
+            if (chunks.isEmpty() || lastChunkFill == chunks.get(chunks.size() - 1).length)
+            {
+                chunks.add(pool.acquire(chunks.size()));
+                lastChunkFill = 0;
+            }
+            final byte[] chunk = chunks.get(chunks.size() - 1);
+            final int n = Math.min(len, chunk.length - lastChunkFill);
+            System.arraycopy(b, off, chunk, lastChunkFill, n);
+            lastChunkFill += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void readChunks(int position, byte[] b, int off, int len)
+    {
+        if (len == 0)
+        {
+            return;
+        }
+        int index = 0;
+        while (position >= chunks.get(index).length)
+        {
+            position -= chunks.get(index).length;
+            index++;
+        }
+        while (len > 0)
+        {
+            final byte[] chunk = chunks.get(index++);
+            final int n = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, n);
+            position = 0;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void releaseChunks()
+    {
+        for (byte[] chunk : chunks)
+        {
+            pool.release(chunk);
+        }
+        chunks.clear();
+    }
+
+    /**
+     * Replays the captured bytes and continues with the underlying request once they are
+     * exhausted. Every stream starts at the beginning of the body.
+     */
+    private class CachedInputStream extends ServletInputStream
+    {
+        private final byte[] single = new byte[1];
+        private long position;
+        private long mark;
+        private InputStream inflated;
+        private long inflatedPosition;
+
+        @Override
+        public int read() throws IOException
+        {
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            final int read;
+            if (position < length)
+            {
+                read = compressed != null ? readCompressed(b, off, len) : CachedBody.this.read(position, b, off, len);
+            }
+            else
+            {
+                read = readSource(b, off, len);
+            }
+            if (read > 0)
+            {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            if (n <= 0)
+            {
+                return 0;
+            }
+            if (position >= length)
+            {
+                final byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+                final int read = read(buffer, 0, buffer.length);
+                return read == -1 ? 0 : read;
+            }
+            final long skipped = Math.min(n, length - position);
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            if (position < length)
+            {
+                return (int) Math.min(Integer.MAX_VALUE, length - position);
+            }
+            return source.available();
+        }
+
+        @Override
+        public boolean isFinished()
+        {
+            return position >= length && source.isFinished();
+        }
+
+        @Override
+        public boolean isReady()
+        {
+            return position < length || source.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener)
+        {
+            source.setReadListener(readListener, position < length);
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return true;
+        }
+
+        @Override
+        public void mark(int readAheadLimit)
+        {
+            mark = position;
+        }
+
+        @Override
+        public void reset()
+        {
+            position = mark;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            // the body remains available to other streams
+            closeInflated();
+        }
+
+        /**
+         * Reads from the compressed body. The inflating stream is kept while the stream is read
+         * sequentially and reopened if it has been reset to an earlier position.
+         */
+        private int readCompressed(byte[] b, int off, int len) throws IOException
+        {
+            checkNotReleased();
+            if (inflated == null || inflatedPosition > position)
+            {
+                closeInflated();
+                inflated = deflatePool.inflate(compressed);
+                inflatedPosition = 0;
+            }
+            while (inflatedPosition < position)
+            {
+                final long skipped = inflated.skip(position - inflatedPosition);
+                if (skipped <= 0)
+                {
+                    throw new EOFException("Compressed body ended prematurely");
+                }
+                inflatedPosition += skipped;
+            }
+            final int n = (int) Math.min(len, length - position);
+            readFully(inflated, b, off, n);
+            inflatedPosition += n;
+            if (inflatedPosition == length)
+            {
+                closeInflated();
+            }
+            return n;
+        }
+
+        private void closeInflated() throws IOException
+        {
+            if (inflated != null)
+            {
+                inflated.close();
+                inflated = null;
+            }
+        }
+    }
+}
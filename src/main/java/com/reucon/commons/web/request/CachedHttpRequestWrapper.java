@@ -1,51 +1,229 @@
 package com.reucon.commons.web.request;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.URLEncoder;
+import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
-import org.springframework.util.FileCopyUtils;
 import static org.springframework.web.servlet.support.WebContentGenerator.METHOD_POST;
 import org.springframework.web.util.WebUtils;
 
+/**
+ * Request wrapper that caches the request body so it can be read more than once.
+ * <p>
+ * By default the body is drained into the cache when the wrapper is created. In lazy mode the
+ * body is captured while the application reads it through {@link #getInputStream()} or
+ * {@link #getReader()} and the remaining bytes are only drained when {@link #getBytes()} is
+ * called or a later stream reads past what has been captured so far. Requests that support
+ * asynchronous processing are captured lazily by default, see {@link CaptureSettings#setLazyForAsync(boolean)}.
+ * <p>
+ * The streams returned by {@link #getInputStream()} support non-blocking reads with a
+ * {@link javax.servlet.ReadListener}, the bytes are captured as the application reads them in its
+ * callbacks.
+ * <p>
+ * Bodies exceeding the memory threshold are spilled to a temporary file, bodies held in memory
+ * can be kept compressed, see {@link CachedBody}.
+ * <p>
+ * For form posts the raw body is captured before the container parses the parameters and the
+ * parameters are parsed from the captured body, so the body is read only once and preserved
+ * exactly as sent by the client.
+ * <p>
+ * Multipart bodies are passed through and only a summary of their parts is captured, see
+ * {@link MultipartBody}.
+ * <p>
+ * In head/tail mode bodies of unknown length or longer than head and tail together are passed
+ * through as well and only their start and end are captured, see {@link HeadTailBody}. Form posts
+ * are always captured completely.
+ */
 public class CachedHttpRequestWrapper extends HttpServletRequestWrapper
 {
     private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
     private static final String MULTIPART_CONTENT_TYPE = "multipart/form-data";
-    private final byte[] bytes;
+    private static final int FORM_BUFFER_SIZE = 512;
+    private final CapturedBody body;
+    private final boolean lazy;
+    private final boolean formPost;
+    private Map<String, String[]> formParameters;
 
     public CachedHttpRequestWrapper(HttpServletRequest request) throws IOException
+    {
+        this(request, false);
+    }
+
+    /**
+     * Creates a new wrapper that keeps the body in memory.
+     *
+     * @param request the request to wrap
+     * @param lazy <code>true</code> to capture the body while it is read, <code>false</code> to
+     *             drain it right away
+     * @throws IOException if the body can not be read
+     * @since 2.2.7
+     */
+    public CachedHttpRequestWrapper(HttpServletRequest request, boolean lazy) throws IOException
+    {
+        this(request, lazy, CachedBody.UNLIMITED);
+    }
+
+    /**
+     * Creates a new wrapper.
+     *
+     * @param request the request to wrap
+     * @param lazy <code>true</code> to capture the body while it is read, <code>false</code> to
+     *             drain it right away
+     * @param memoryThreshold maximum number of bytes to keep in memory before the body is spilled
+     *                        to a temporary file or {@link CachedBody#UNLIMITED}
+     * @throws IOException if the body can not be read
+     * @since 2.2.7
+     */
+    public CachedHttpRequestWrapper(HttpServletRequest request, boolean lazy, int memoryThreshold) throws IOException
+    {
+        this(request, lazy, memoryThreshold, ChunkPool.getDefault());
+    }
+
+    /**
+     * Creates a new wrapper.
+     *
+     * @param request the request to wrap
+     * @param lazy <code>true</code> to capture the body while it is read, <code>false</code> to
+     *             drain it right away
+     * @param memoryThreshold maximum number of bytes to keep in memory before the body is spilled
+     *                        to a temporary file or {@link CachedBody#UNLIMITED}
+     * @param pool the pool to take the memory chunks for the body from
+     * @throws IOException if the body can not be read
+     * @since 2.2.7
+     */
+    public CachedHttpRequestWrapper(HttpServletRequest request, boolean lazy, int memoryThreshold, ChunkPool pool) throws IOException
+    {
+        this(request, settings(lazy, memoryThreshold, pool));
+    }
+
+    /**
+     * Creates a new wrapper.
+     *
+     * @param request the request to wrap
+     * @param settings the settings controlling how the body is captured
+     * @throws IOException if the body can not be read
+     * @since 2.2.7
+     */
+    public CachedHttpRequestWrapper(HttpServletRequest request, CaptureSettings settings) throws IOException
     {
         super(request);
-        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        if (!isFormPost() && !isMultiPart())
+        this.lazy = settings.isLazy() || (settings.isLazyForAsync() && request.isAsyncSupported());
+        this.formPost = isFormPost();
+        if (isMultiPart())
+        {
+            // never drained up front, the container may still have to parse the parts
+            this.body = new MultipartBody(request, MultipartBody.boundary(getContentType()), settings);
+            return;
+        }
+        if (!formPost && settings.isHeadTail() && isStreaming(settings))
         {
-            FileCopyUtils.copy(request.getInputStream(), bos);
-            this.bytes = bos.toByteArray();
+            // never drained up front, the body may be unbounded
+            this.body = new HeadTailBody(request, settings.getHeadSize(), settings.getTailSize());
             return;
         }
-        writeRequestParamsToContent(bos);
-        this.bytes = bos.toByteArray();
+        this.body = new CachedBody(request, settings.getMemoryThreshold(), settings.getChunkPool(),
+                settings.isCompress() ? settings.getDeflatePool() : null, settings.getMinCompressSize());
+        if (!lazy)
+        {
+            body.drain();
+        }
+    }
+
+    /**
+     * Returns whether the body is captured while it is read.
+     *
+     * @return <code>true</code> in lazy mode, <code>false</code> otherwise.
+     * @since 2.2.7
+     */
+    public boolean isLazy()
+    {
+        return lazy;
     }
 
+    /**
+     * Returns the handle to the captured body.
+     *
+     * @return the handle to the captured body.
+     * @since 2.2.7
+     */
+    public CapturedBody getBody()
+    {
+        return body;
+    }
+
+    /**
+     * Returns the complete request body. In lazy mode any bytes that have not yet been read by the
+     * application are drained from the underlying request first.
+     *
+     * @return the request body.
+     */
     public byte[] getBytes()
     {
-        return bytes;
+        try
+        {
+            return body.toByteArray();
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
     }
-    
+
     @Override
     public ServletInputStream getInputStream() throws IOException
     {
-        return new CachedInputStream(bytes);
+        return body.newInputStream();
+    }
+
+    @Override
+    public String getParameter(String name)
+    {
+        if (!formPost)
+        {
+            return super.getParameter(name);
+        }
+        final String[] values = getFormParameters().get(name);
+        return values == null || values.length == 0 ? null : values[0];
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap()
+    {
+        if (!formPost)
+        {
+            return super.getParameterMap();
+        }
+        return getFormParameters();
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames()
+    {
+        if (!formPost)
+        {
+            return super.getParameterNames();
+        }
+        return Collections.enumeration(getFormParameters().keySet());
+    }
+
+    @Override
+    public String[] getParameterValues(String name)
+    {
+        if (!formPost)
+        {
+            return super.getParameterValues(name);
+        }
+        return getFormParameters().get(name);
     }
 
     @Override
@@ -59,111 +237,165 @@ public class CachedHttpRequestWrapper extends HttpServletRequestWrapper
     {
         return new BufferedReader(new InputStreamReader(getInputStream(), getCharacterEncoding()));
     }
-    
+
     private boolean isFormPost()
     {
         return (getContentType() != null && getContentType().contains(FORM_CONTENT_TYPE) && METHOD_POST.equalsIgnoreCase(getMethod()));
     }
-    
+
     private boolean isMultiPart()
     {
         return (getContentType() != null && getContentType().contains(MULTIPART_CONTENT_TYPE) && METHOD_POST.equalsIgnoreCase(getMethod()));
     }
-    
-    private void writeRequestParamsToContent(ByteArrayOutputStream bos)
+
+    /**
+     * Returns whether the body is of unknown length, e.g. chunked, or too long to be kept by
+     * head and tail buffers completely.
+     */
+    private boolean isStreaming(CaptureSettings settings)
     {
+        final int contentLength = getContentLength();
+        return contentLength < 0 || contentLength > (long) settings.getHeadSize() + settings.getTailSize();
+    }
+
+    /**
+     * Returns the parameters of a form post. The body is drained before the container's parameters
+     * are requested so the container only contributes the query string parameters; the form
+     * parameters are parsed from the captured body.
+     */
+    private Map<String, String[]> getFormParameters()
+    {
+        if (formParameters != null)
+        {
+            return formParameters;
+        }
         try
         {
-            if (bos.size() == 0)
+            body.drain();
+            final Map<String, String[]> parameters = new LinkedHashMap<>(super.getParameterMap());
+            if (body.length() == 0 && getContentLength() > 0)
             {
-                String requestEncoding = getCharacterEncoding();
-                Map<String, String[]> form = getParameterMap();
-                for (Iterator<String> nameIterator = form.keySet().iterator(); nameIterator.hasNext();)
-                {
-                    String name = nameIterator.next();
-                    List<String> values = Arrays.asList(form.get(name));
-                    for (Iterator<String> valueIterator = values.iterator(); valueIterator.hasNext();)
-                    {
-                        String value = valueIterator.next();
-                        bos.write(URLEncoder.encode(name, requestEncoding).getBytes());
-                        if (value != null)
-                        {
-                            bos.write('=');
-                            bos.write(URLEncoder.encode(value, requestEncoding).getBytes());
-                            if (valueIterator.hasNext())
-                            {
-                                bos.write('&');
-                            }
-                        }
-                    }
-                    if (nameIterator.hasNext())
-                    {
-                        bos.write('&');
-                    }
-                }
+                // the body has been consumed before the request was wrapped,
+                // the container's parameters already include the form parameters
+                formParameters = Collections.unmodifiableMap(parameters);
+                return formParameters;
             }
+            try (InputStream is = body.openStream())
+            {
+                parseFormContent(is, getCharacterEncoding(), parameters);
+            }
+            formParameters = Collections.unmodifiableMap(parameters);
         }
         catch (IOException e)
         {
             throw new RuntimeException(e);
         }
+        return formParameters;
     }
 
-    private class CachedInputStream extends ServletInputStream
+    /**
+     * Parses <code>application/x-www-form-urlencoded</code> content and appends the values to the
+     * given parameters.
+     */
+    static void parseFormContent(InputStream is, String encoding, Map<String, String[]> parameters) throws IOException
     {
-        private final ByteArrayInputStream bis;
-
-        private CachedInputStream(byte[] bytes)
+        final ByteArrayOutputStream token = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[FORM_BUFFER_SIZE];
+        String name = null;
+        int read;
+        do
         {
-            this.bis = new ByteArrayInputStream(bytes);
-        }
-
-        @Override
-        public int read()
-        {
-            return bis.read();
-        }
-
-        @Override
-        public int read(byte[] b, int off, int len)
-        {
-            return bis.read(b, off, len);
+            read = is.read(buffer);
+            for (int i = 0; i < read; i++)
+            {
+                final byte b = buffer[i];
+                if (b == '=' && name == null)
+                {
+                    name = decode(token, encoding);
+                }
+                else if (b == '&')
+                {
+                    name = addParameter(parameters, name, token, encoding);
+                }
+                else
+                {
+                    token.write(b);
+                }
+            }
         }
+        while (read != -1);
+        addParameter(parameters, name, token, encoding);
+    }
 
-        @Override
-        public long skip(long n)
+    private static String addParameter(Map<String, String[]> parameters, String name, ByteArrayOutputStream token, String encoding) throws UnsupportedEncodingException
+    {
+        if (name != null)
         {
-            return bis.skip(n);
+            addParameter(parameters, name, decode(token, encoding));
         }
-
-        @Override
-        public int available()
+        else if (token.size() > 0)
         {
-            return bis.available();
+            addParameter(parameters, decode(token, encoding), "");
         }
+        return null;
+    }
 
-        @Override
-        public boolean markSupported()
+    /**
+     * Decodes the token like the container does: escapes are decoded to bytes and the bytes,
+     * including those that were not escaped, are then decoded once with the request encoding.
+     * Malformed escapes are kept as they are.
+     */
+    private static String decode(ByteArrayOutputStream token, String encoding) throws UnsupportedEncodingException
+    {
+        final byte[] bytes = token.toByteArray();
+        token.reset();
+        int length = 0;
+        for (int i = 0; i < bytes.length; i++)
         {
-            return bis.markSupported();
+            final byte b = bytes[i];
+            if (b == '+')
+            {
+                bytes[length++] = ' ';
+            }
+            else if (b == '%' && i + 2 < bytes.length && hexDigit(bytes[i + 1]) >= 0 && hexDigit(bytes[i + 2]) >= 0)
+            {
+                bytes[length++] = (byte) ((hexDigit(bytes[i + 1]) << 4) + hexDigit(bytes[i + 2]));
+                i += 2;
+            }
+            else
+            {
+                bytes[length++] = b;
+            }
         }
+        return new String(bytes, 0, length, encoding);
+    }
 
-        @Override
-        public void mark(int readAheadLimit)
-        {
-            bis.mark(readAheadLimit);
-        }
+    private static int hexDigit(byte b)
+    {
+        return Character.digit((char) b, 16);
+    }
 
-        @Override
-        public void reset()
+    private static void addParameter(Map<String, String[]> parameters, String name, String value)
+    {
+        final String[] values = parameters.get(name);
+        if (values == null)
         {
-            bis.reset();
+            parameters.put(name, new String[]{value});
+            return;
         }
+        final String[] newValues = Arrays.copyOf(values, values.length + 1);
+        newValues[values.length] = value;
+        parameters.put(name, newValues);
+    }
 
-        @Override
-        public void close() throws IOException
-        {
-            bis.close();
-        }
+    private static CaptureSettings settings(boolean lazy, int memoryThreshold, ChunkPool pool)
+    {
+        final CaptureSettings settings = new CaptureSettings();
+        settings.setLazy(lazy);
+        // an explicit lazy flag takes precedence
+        settings.setLazyForAsync(false);
+        settings.setMemoryThreshold(memoryThreshold);
+        settings.setChunkPool(pool);
+        return settings;
     }
 }
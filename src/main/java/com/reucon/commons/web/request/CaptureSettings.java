@@ -0,0 +1,293 @@
+package com.reucon.commons.web.request;
+
+/**
+ * Settings controlling how a {@link CachedHttpRequestWrapper} captures the request body.
+ *
+ * @since 2.2.7
+ */
+public class CaptureSettings
+{
+    /**
+     * Default maximum number of bytes kept per text part of a multipart request: 16 KiB.
+     */
+    public static final int DEFAULT_MAX_TEXT_PART_SIZE = 16 * 1024;
+
+    /**
+     * Default number of bytes of a multipart request that are inspected: 1 MiB.
+     */
+    public static final long DEFAULT_MULTIPART_BUDGET = 1024 * 1024;
+
+    /**
+     * Default maximum number of bytes of a body kept when it is retained on error: 1 MiB.
+     */
+    public static final int DEFAULT_MAX_RETAINED_SIZE = 1024 * 1024;
+
+    /**
+     * Default minimum size of a body to be compressed: 1 KiB.
+     */
+    public static final int DEFAULT_MIN_COMPRESS_SIZE = 1024;
+
+    private boolean lazy = false;
+    private boolean lazyForAsync = true;
+    private int memoryThreshold = CachedBody.UNLIMITED;
+    private ChunkPool chunkPool = ChunkPool.getDefault();
+    private int maxTextPartSize = DEFAULT_MAX_TEXT_PART_SIZE;
+    private long multipartBudget = DEFAULT_MULTIPART_BUDGET;
+    private boolean retainOnError = false;
+    private int maxRetainedSize = DEFAULT_MAX_RETAINED_SIZE;
+    private int headSize = 0;
+    private int tailSize = 0;
+    private boolean compress = false;
+    private int minCompressSize = DEFAULT_MIN_COMPRESS_SIZE;
+    private DeflatePool deflatePool = DeflatePool.getDefault();
+
+    public CaptureSettings()
+    {
+    }
+
+    /**
+     * Creates a copy of the given settings.
+     *
+     * @param other the settings to copy
+     */
+    public CaptureSettings(CaptureSettings other)
+    {
+        this.lazy = other.lazy;
+        this.lazyForAsync = other.lazyForAsync;
+        this.memoryThreshold = other.memoryThreshold;
+        this.chunkPool = other.chunkPool;
+        this.maxTextPartSize = other.maxTextPartSize;
+        this.multipartBudget = other.multipartBudget;
+        this.retainOnError = other.retainOnError;
+        this.maxRetainedSize = other.maxRetainedSize;
+        this.headSize = other.headSize;
+        this.tailSize = other.tailSize;
+        this.compress = other.compress;
+        this.minCompressSize = other.minCompressSize;
+        this.deflatePool = other.deflatePool;
+    }
+
+    public boolean isLazy()
+    {
+        return lazy;
+    }
+
+    /**
+     * Sets whether the body is captured while the application reads it instead of being drained
+     * when the wrapper is created. Default is <code>false</code>.
+     *
+     * @param lazy <code>true</code> to capture the body lazily.
+     */
+    public void setLazy(boolean lazy)
+    {
+        this.lazy = lazy;
+    }
+
+    public boolean isLazyForAsync()
+    {
+        return lazyForAsync;
+    }
+
+    /**
+     * Sets whether bodies of requests that support asynchronous processing are captured lazily
+     * even if lazy mode is disabled. Draining such a body up front would hold a container thread
+     * while a slow client sends it, although the application may read it with a non-blocking
+     * {@link javax.servlet.ReadListener}. Default is <code>true</code>.
+     *
+     * @param lazyForAsync <code>true</code> to capture bodies of async requests lazily.
+     */
+    public void setLazyForAsync(boolean lazyForAsync)
+    {
+        this.lazyForAsync = lazyForAsync;
+    }
+
+    public int getMemoryThreshold()
+    {
+        return memoryThreshold;
+    }
+
+    /**
+     * Sets the maximum number of bytes of a body to keep in memory before it is spilled to a
+     * temporary file. Default is {@link CachedBody#UNLIMITED}.
+     *
+     * @param memoryThreshold maximum number of bytes to keep in memory.
+     */
+    public void setMemoryThreshold(int memoryThreshold)
+    {
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    public ChunkPool getChunkPool()
+    {
+        return chunkPool;
+    }
+
+    /**
+     * Sets the pool to take the memory chunks from. Default is {@link ChunkPool#getDefault()}.
+     *
+     * @param chunkPool the pool to use.
+     */
+    public void setChunkPool(ChunkPool chunkPool)
+    {
+        this.chunkPool = chunkPool;
+    }
+
+    public int getMaxTextPartSize()
+    {
+        return maxTextPartSize;
+    }
+
+    /**
+     * Sets the maximum number of bytes kept per text part of a multipart request. Default is
+     * {@link #DEFAULT_MAX_TEXT_PART_SIZE}.
+     *
+     * @param maxTextPartSize maximum number of bytes kept per text part.
+     */
+    public void setMaxTextPartSize(int maxTextPartSize)
+    {
+        this.maxTextPartSize = maxTextPartSize;
+    }
+
+    public long getMultipartBudget()
+    {
+        return multipartBudget;
+    }
+
+    /**
+     * Sets the number of bytes of a multipart request that are inspected. Parts beyond the budget
+     * are not recorded. Default is {@link #DEFAULT_MULTIPART_BUDGET}.
+     *
+     * @param multipartBudget number of bytes to inspect.
+     */
+    public void setMultipartBudget(long multipartBudget)
+    {
+        this.multipartBudget = multipartBudget;
+    }
+
+    public boolean isRetainOnError()
+    {
+        return retainOnError;
+    }
+
+    /**
+     * Sets whether the body of a failed request is copied to the heap when the request completes.
+     * Otherwise the body is only held in pooled chunks for the duration of the request. Default is
+     * <code>false</code>.
+     *
+     * @param retainOnError <code>true</code> to retain the bodies of failed requests.
+     */
+    public void setRetainOnError(boolean retainOnError)
+    {
+        this.retainOnError = retainOnError;
+    }
+
+    public int getMaxRetainedSize()
+    {
+        return maxRetainedSize;
+    }
+
+    /**
+     * Sets the maximum number of bytes of a body that are retained. Default is
+     * {@link #DEFAULT_MAX_RETAINED_SIZE}.
+     *
+     * @param maxRetainedSize maximum number of bytes to retain.
+     */
+    public void setMaxRetainedSize(int maxRetainedSize)
+    {
+        this.maxRetainedSize = maxRetainedSize;
+    }
+
+    public int getHeadSize()
+    {
+        return headSize;
+    }
+
+    /**
+     * Sets the number of bytes kept from the start of a body in head/tail mode. Head/tail mode is
+     * enabled if head or tail size are greater than zero. Default is <code>0</code>.
+     *
+     * @param headSize number of bytes to keep from the start of the body.
+     * @see HeadTailBody
+     */
+    public void setHeadSize(int headSize)
+    {
+        this.headSize = headSize;
+    }
+
+    public int getTailSize()
+    {
+        return tailSize;
+    }
+
+    /**
+     * Sets the number of bytes kept from the end of a body in head/tail mode. Default is
+     * <code>0</code>.
+     *
+     * @param tailSize number of bytes to keep from the end of the body.
+     * @see HeadTailBody
+     */
+    public void setTailSize(int tailSize)
+    {
+        this.tailSize = tailSize;
+    }
+
+    /**
+     * Returns whether head/tail mode is enabled.
+     *
+     * @return <code>true</code> if head or tail size are greater than zero.
+     */
+    public boolean isHeadTail()
+    {
+        return headSize > 0 || tailSize > 0;
+    }
+
+    public boolean isCompress()
+    {
+        return compress;
+    }
+
+    /**
+     * Sets whether bodies held in memory are compressed once they have been captured completely.
+     * The body is inflated again whenever it is replayed, so this trades CPU for heap and works
+     * best with lazy capture where the application reads the body only once. Default is
+     * <code>false</code>.
+     *
+     * @param compress <code>true</code> to compress captured bodies.
+     * @see #setMinCompressSize(int)
+     */
+    public void setCompress(boolean compress)
+    {
+        this.compress = compress;
+    }
+
+    public int getMinCompressSize()
+    {
+        return minCompressSize;
+    }
+
+    /**
+     * Sets the minimum size of a body to be compressed, smaller bodies are kept as they are.
+     * Default is {@link #DEFAULT_MIN_COMPRESS_SIZE}.
+     *
+     * @param minCompressSize minimum number of bytes.
+     */
+    public void setMinCompressSize(int minCompressSize)
+    {
+        this.minCompressSize = minCompressSize;
+    }
+
+    public DeflatePool getDeflatePool()
+    {
+        return deflatePool;
+    }
+
+    /**
+     * Sets the pool to take deflaters and inflaters from. Default is {@link DeflatePool#getDefault()}.
+     *
+     * @param deflatePool the pool to use.
+     */
+    public void setDeflatePool(DeflatePool deflatePool)
+    {
+        this.deflatePool = deflatePool;
+    }
+}
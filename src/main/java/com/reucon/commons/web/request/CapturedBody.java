@@ -0,0 +1,87 @@
+package com.reucon.commons.web.request;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.servlet.ServletInputStream;
+
+/**
+ * Handle to the body of a request captured by a {@link CachedHttpRequestWrapper}.
+ *
+ * @since 2.2.7
+ */
+public abstract class CapturedBody
+{
+    /**
+     * Returns the number of body bytes read from the request so far.
+     *
+     * @return the number of body bytes read from the request so far.
+     */
+    public abstract long length();
+
+    /**
+     * Returns a new stream over the captured content. Bytes that have not been read from the
+     * request yet are drained first or while the stream is consumed.
+     *
+     * @return a new stream over the captured content.
+     * @throws IOException if the content can not be read.
+     */
+    public abstract InputStream openStream() throws IOException;
+
+    /**
+     * Drains the body and returns the captured content as a byte array.
+     *
+     * @return the captured content.
+     * @throws IOException if the content can not be read.
+     */
+    public abstract byte[] toByteArray() throws IOException;
+
+    /**
+     * Releases the resources held by this body.
+     */
+    public abstract void release();
+
+    /**
+     * Drains the body and copies up to <code>maxSize</code> bytes of the captured content to the
+     * heap. The copy remains readable after this body has been released, e.g. to write an
+     * exception report after the request has completed.
+     *
+     * @param maxSize maximum number of bytes to copy
+     * @return a durable copy of the captured content.
+     * @throws IOException if the content can not be read.
+     * @see RetainedBody
+     */
+    public CapturedBody promote(int maxSize) throws IOException
+    {
+        drain();
+        final ByteArrayOutputStream content = new ByteArrayOutputStream((int) Math.min(maxSize, length()));
+        boolean truncated = false;
+        try (InputStream in = openStream())
+        {
+            final byte[] buffer = new byte[4096];
+            int read;
+            // read one byte beyond the maximum size to detect truncation
+            while ((read = in.read(buffer, 0, (int) Math.min(buffer.length, maxSize - content.size() + 1L))) != -1)
+            {
+                if (content.size() + read > maxSize)
+                {
+                    content.write(buffer, 0, maxSize - content.size());
+                    truncated = true;
+                    break;
+                }
+                content.write(buffer, 0, read);
+            }
+        }
+        return new RetainedBody(content.toByteArray(), length(), truncated);
+    }
+
+    /**
+     * Returns the stream the wrapper hands out to the application.
+     */
+    abstract ServletInputStream newInputStream() throws IOException;
+
+    /**
+     * Reads the remaining body from the request.
+     */
+    abstract void drain() throws IOException;
+}
@@ -0,0 +1,184 @@
+package com.reucon.commons.web.request;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Summary of one part of a multipart request captured by {@link MultipartBody}.
+ * <p>
+ * For text parts the content is kept up to a configurable size, for file parts only the
+ * headers, the length and a SHA-256 hash of the content are recorded.
+ *
+ * @since 2.2.7
+ */
+public class CapturedPart
+{
+    private static final String CONTENT_DISPOSITION = "content-disposition";
+    private static final String CONTENT_TYPE = "content-type";
+
+    private final List<String> headers;
+    private final String name;
+    private final String fileName;
+    private final String contentType;
+    private long length;
+    private byte[] content;
+    private boolean truncated;
+    private String sha256;
+    private boolean complete;
+
+    CapturedPart(List<String> headers)
+    {
+        this.headers = new ArrayList<>(headers);
+        String disposition = null;
+        String type = null;
+        for (String header : headers)
+        {
+            final int colon = header.indexOf(':');
+            if (colon < 0)
+            {
+                continue;
+            }
+            final String headerName = header.substring(0, colon).trim().toLowerCase(Locale.ENGLISH);
+            if (CONTENT_DISPOSITION.equals(headerName))
+            {
+                disposition = header.substring(colon + 1);
+            }
+            else if (CONTENT_TYPE.equals(headerName))
+            {
+                type = header.substring(colon + 1).trim();
+            }
+        }
+        this.name = parameter(disposition, "name");
+        this.fileName = parameter(disposition, "filename");
+        this.contentType = type;
+    }
+
+    /**
+     * Returns the raw header lines of this part.
+     *
+     * @return the raw header lines of this part.
+     */
+    public List<String> getHeaders()
+    {
+        return headers;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getFileName()
+    {
+        return fileName;
+    }
+
+    public String getContentType()
+    {
+        return contentType;
+    }
+
+    /**
+     * Returns whether this part is a file part whose content is not kept.
+     *
+     * @return <code>true</code> for file parts, <code>false</code> for text parts.
+     */
+    public boolean isBinary()
+    {
+        return fileName != null;
+    }
+
+    /**
+     * Returns the number of content bytes of this part that have been seen.
+     *
+     * @return the number of content bytes of this part that have been seen.
+     */
+    public long getLength()
+    {
+        return length;
+    }
+
+    /**
+     * Returns the captured content of a text part.
+     *
+     * @return the captured content or <code>null</code> for file parts.
+     */
+    public byte[] getContent()
+    {
+        return content;
+    }
+
+    /**
+     * Returns whether the content of a text part exceeded the maximum size and has been truncated.
+     *
+     * @return <code>true</code> if the content has been truncated.
+     */
+    public boolean isTruncated()
+    {
+        return truncated;
+    }
+
+    /**
+     * Returns the hex encoded SHA-256 hash of the content of a file part.
+     *
+     * @return the hash or <code>null</code> for text parts and parts that have not been read completely.
+     */
+    public String getSha256()
+    {
+        return sha256;
+    }
+
+    /**
+     * Returns whether the end of this part has been seen.
+     *
+     * @return <code>true</code> if the part has been read completely.
+     */
+    public boolean isComplete()
+    {
+        return complete;
+    }
+
+    void setLength(long length)
+    {
+        this.length = length;
+    }
+
+    void setContent(byte[] content, boolean truncated)
+    {
+        this.content = content;
+        this.truncated = truncated;
+    }
+
+    void complete(String sha256)
+    {
+        this.sha256 = sha256;
+        this.complete = true;
+    }
+
+    /**
+     * Extracts a parameter like <code>name="value"</code> from a header value.
+     */
+    static String parameter(String header, String parameter)
+    {
+        if (header == null)
+        {
+            return null;
+        }
+        for (String element : header.split(";"))
+        {
+            final int equals = element.indexOf('=');
+            if (equals < 0 || !element.substring(0, equals).trim().equalsIgnoreCase(parameter))
+            {
+                continue;
+            }
+            final String value = element.substring(equals + 1).trim();
+            if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\""))
+            {
+                return value.substring(1, value.length() - 1);
+            }
+            return value;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,186 @@
+package com.reucon.commons.web.request;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of recycled byte array chunks used to capture request bodies.
+ * <p>
+ * Chunks are organized in size classes. The chunks of each size class are kept in a number of
+ * stripes, the stripe used by a thread is derived from its id so concurrent requests rarely
+ * compete for the same slots. Acquiring and releasing a chunk is lock-free. If no pooled chunk
+ * is available a new one is allocated (a miss), if a stripe is full a released chunk is left to
+ * the garbage collector (a discard).
+ *
+ * @since 2.2.7
+ */
+public class ChunkPool
+{
+    /**
+     * Default chunk sizes: 4 KiB, 32 KiB and 256 KiB.
+     */
+    public static final int[] DEFAULT_CHUNK_SIZES = {4 * 1024, 32 * 1024, 256 * 1024};
+
+    private static final int DEFAULT_STRIPES = 8;
+    private static final int DEFAULT_SLOTS_PER_STRIPE = 4;
+    private static final ChunkPool DEFAULT = new ChunkPool(DEFAULT_CHUNK_SIZES, DEFAULT_STRIPES, DEFAULT_SLOTS_PER_STRIPE);
+
+    private final int[] chunkSizes;
+    private final int stripeMask;
+    private final int slotsPerStripe;
+    private final List<AtomicReferenceArray<byte[]>> slots;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder discards = new LongAdder();
+
+    /**
+     * Creates a new pool.
+     *
+     * @param chunkSizes the chunk sizes in ascending order
+     * @param stripes the number of stripes per size class, rounded up to the next power of two
+     * @param slotsPerStripe the maximum number of chunks kept per stripe
+     */
+    @SuppressWarnings("unchecked")
+    public ChunkPool(int[] chunkSizes, int stripes, int slotsPerStripe)
+    {
+        if (chunkSizes.length == 0)
+        {
+            throw new IllegalArgumentException("At least one chunk size is required");
+        }
+        final int stripeCount = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.chunkSizes = chunkSizes.clone();
+        this.stripeMask = stripeCount - 1;
+        this.slotsPerStripe = slotsPerStripe;
+        this.slots = new ArrayList<>(chunkSizes.length);
+        for (int i = 0; i < chunkSizes.length; i++)
+        {
+            slots.add(new AtomicReferenceArray<>(stripeCount * slotsPerStripe));
+        }
+    }
+
+    /**
+     * Returns the pool shared by all wrappers that are not configured with a pool of their own.
+     *
+     * @return the default pool.
+     */
+    public static ChunkPool getDefault()
+    {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the number of size classes.
+     *
+     * @return the number of size classes.
+     */
+    public int getSizeClasses()
+    {
+        return chunkSizes.length;
+    }
+
+    /**
+     * Acquires a chunk of the given size class, allocating a new one if none is pooled.
+     *
+     * @param sizeClass the size class, values beyond the largest class use the largest class
+     * @return a chunk of the size of the size class.
+     */
+    public byte[] acquire(int sizeClass)
+    {
+        final int index = Math.min(sizeClass, chunkSizes.length - 1);
+        final AtomicReferenceArray<byte[]> classSlots = slots.get(index);
+        final int offset = stripeOffset();
+        for (int i = 0; i < slotsPerStripe; i++)
+        {
+            if (classSlots.get(offset + i) != null)
+            {
+                final byte[] chunk = classSlots.getAndSet(offset + i, null);
+                if (chunk != null)
+                {
+                    hits.increment();
+                    return chunk;
+                }
+            }
+        }
+        misses.increment();
+        return new byte[chunkSizes[index]];
+    }
+
+    /**
+     * Returns a chunk to the pool. Chunks that do not match a size class are ignored.
+     *
+     * @param chunk the chunk to return
+     */
+    public void release(byte[] chunk)
+    {
+        final int index = sizeClassOf(chunk.length);
+        if (index < 0)
+        {
+            return;
+        }
+        final AtomicReferenceArray<byte[]> classSlots = slots.get(index);
+        final int offset = stripeOffset();
+        for (int i = 0; i < slotsPerStripe; i++)
+        {
+            if (classSlots.get(offset + i) == null && classSlots.compareAndSet(offset + i, null, chunk))
+            {
+                return;
+            }
+        }
+        discards.increment();
+    }
+
+    /**
+     * Returns the number of chunks served from the pool.
+     *
+     * @return the number of chunks served from the pool.
+     */
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of chunks that had to be allocated because the pool was empty.
+     *
+     * @return the number of chunks that had to be allocated.
+     */
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of released chunks that were dropped because the pool was full.
+     *
+     * @return the number of released chunks that were dropped.
+     */
+    public long getDiscards()
+    {
+        return discards.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ChunkPool[hits=" + getHits() + ", misses=" + getMisses() + ", discards=" + getDiscards() + "]";
+    }
+
+    private int sizeClassOf(int length)
+    {
+        for (int i = 0; i < chunkSizes.length; i++)
+        {
+            if (chunkSizes[i] == length)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int stripeOffset()
+    {
+        return ((int) Thread.currentThread().getId() & stripeMask) * slotsPerStripe;
+    }
+}
@@ -0,0 +1,173 @@
+package com.reucon.commons.web.request;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Pool of recycled {@link Deflater} and {@link Inflater} instances used to hold captured bodies
+ * compressed.
+ * <p>
+ * Creating a deflater allocates considerable native memory, so instances are reset and kept for
+ * reuse. Acquiring and releasing is lock-free, instances that do not fit into the pool are ended
+ * right away to free their native memory.
+ *
+ * @since 2.2.7
+ */
+public class DeflatePool
+{
+    private static final int DEFAULT_SIZE = 16;
+    private static final int BUFFER_SIZE = 4096;
+    private static final DeflatePool DEFAULT = new DeflatePool(DEFAULT_SIZE, Deflater.BEST_SPEED);
+
+    private final int level;
+    private final AtomicReferenceArray<Deflater> deflaters;
+    private final AtomicReferenceArray<Inflater> inflaters;
+
+    /**
+     * Creates a new pool.
+     *
+     * @param size maximum number of deflaters and of inflaters kept
+     * @param level the compression level of the deflaters
+     */
+    public DeflatePool(int size, int level)
+    {
+        this.level = level;
+        this.deflaters = new AtomicReferenceArray<>(size);
+        this.inflaters = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * Returns the pool shared by all bodies that are not configured with a pool of their own.
+     * It compresses with {@link Deflater#BEST_SPEED}.
+     *
+     * @return the default pool.
+     */
+    public static DeflatePool getDefault()
+    {
+        return DEFAULT;
+    }
+
+    /**
+     * Compresses the first <code>length</code> bytes held in the given chunks.
+     *
+     * @param chunks the chunks holding the data, all but the last one must be full
+     * @param length the number of bytes to compress
+     * @return the compressed data.
+     */
+    public byte[] deflate(List<byte[]> chunks, long length)
+    {
+        final Deflater deflater = acquire(deflaters);
+        final Deflater used = deflater != null ? deflater : new Deflater(level);
+        try
+        {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE, length / 4 + 64));
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = length;
+            for (byte[] chunk : chunks)
+            {
+                if (remaining == 0)
+                {
+                    break;
+                }
+                final int n = (int) Math.min(chunk.length, remaining);
+                used.setInput(chunk, 0, n);
+                while (!used.needsInput())
+                {
+                    out.write(buffer, 0, used.deflate(buffer));
+                }
+                remaining -= n;
+            }
+            used.finish();
+            while (!used.finished())
+            {
+                out.write(buffer, 0, used.deflate(buffer));
+            }
+            return out.toByteArray();
+        }
+        finally
+        {
+            used.reset();
+            if (!release(deflaters, used))
+            {
+                used.end();
+            }
+        }
+    }
+
+    /**
+     * Returns a stream decompressing the given data. The inflater is returned to the pool when the
+     * stream is closed.
+     *
+     * @param compressed data compressed by {@link #deflate(List, long)}
+     * @return a stream over the decompressed data.
+     */
+    public InputStream inflate(byte[] compressed)
+    {
+        final Inflater inflater = acquire(inflaters);
+        return new PooledInflaterInputStream(compressed, inflater != null ? inflater : new Inflater());
+    }
+
+    private static <T> T acquire(AtomicReferenceArray<T> slots)
+    {
+        for (int i = 0; i < slots.length(); i++)
+        {
+            if (slots.get(i) != null)
+            {
+                final T instance = slots.getAndSet(i, null);
+                if (instance != null)
+                {
+                    return instance;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static <T> boolean release(AtomicReferenceArray<T> slots, T instance)
+    {
+        for (int i = 0; i < slots.length(); i++)
+        {
+            if (slots.get(i) == null && slots.compareAndSet(i, null, instance))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Inflates from a byte array and returns the inflater to the pool when closed.
+     */
+    private class PooledInflaterInputStream extends InflaterInputStream
+    {
+        private boolean closed;
+
+        private PooledInflaterInputStream(byte[] compressed, Inflater inflater)
+        {
+            super(new ByteArrayInputStream(compressed), inflater, BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+            super.close();
+            inf.reset();
+            if (!release(inflaters, inf))
+            {
+                inf.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.reucon.commons.web.request;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Adler32;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+
+/**
+ * Captures the first and the last bytes of a request body while it is passed through to the
+ * application.
+ * <p>
+ * The first bytes are kept in a fixed-size head buffer, the following bytes are written to a
+ * ring buffer that holds the tail. Besides that only the total length and an Adler-32 checksum of
+ * the whole body are recorded, so memory usage is bounded regardless of the length of the body.
+ * This is meant for chunked uploads and long-lived streaming requests that must not be buffered.
+ * <p>
+ * The body is not drained to the end to render it, only the head buffer is filled if the
+ * application has not read that far. Bytes read into the head buffer that way are replayed to
+ * the application before it continues with the request.
+ *
+ * @since 2.2.7
+ */
+public class HeadTailBody extends CapturedBody
+{
+    private static final int BUFFER_SIZE = 4096;
+
+    private final BodySource source;
+    private final byte[] head;
+    private final byte[] tail;
+    private final Adler32 checksum = new Adler32();
+    private int headFill;
+    private int tailPosition;
+    private long tailLength;
+    private long length;
+    private long position;
+    private ServletInputStream inputStream;
+
+    /**
+     * Creates a new body.
+     *
+     * @param request the request to read the body from
+     * @param headSize number of bytes to keep from the start of the body
+     * @param tailSize number of bytes to keep from the end of the body
+     */
+    HeadTailBody(ServletRequest request, int headSize, int tailSize)
+    {
+        this.source = new BodySource(request);
+        this.head = new byte[headSize];
+        this.tail = new byte[tailSize];
+    }
+
+    /**
+     * Returns the number of body bytes passed through so far.
+     *
+     * @return the number of body bytes passed through so far.
+     */
+    @Override
+    public long length()
+    {
+        return length;
+    }
+
+    /**
+     * Returns the first bytes of the body.
+     *
+     * @return up to head size bytes from the start of the body.
+     */
+    public byte[] getHead()
+    {
+        return Arrays.copyOf(head, headFill);
+    }
+
+    /**
+     * Returns the last bytes of the body that are not part of the head.
+     *
+     * @return up to tail size bytes from the end of the body.
+     */
+    public byte[] getTail()
+    {
+        final int n = (int) Math.min(tailLength, tail.length);
+        final byte[] result = new byte[n];
+        final int start = (tailPosition - n + tail.length) % Math.max(tail.length, 1);
+        final int first = Math.min(n, tail.length - start);
+        System.arraycopy(tail, start, result, 0, first);
+        System.arraycopy(tail, 0, result, first, n - first);
+        return result;
+    }
+
+    /**
+     * Returns the number of bytes between head and tail that have not been kept.
+     *
+     * @return the number of elided bytes.
+     */
+    public long getElided()
+    {
+        return Math.max(0, tailLength - tail.length);
+    }
+
+    /**
+     * Returns the Adler-32 checksum of the bytes passed through so far.
+     *
+     * @return the Adler-32 checksum.
+     */
+    public long getChecksum()
+    {
+        return checksum.getValue();
+    }
+
+    /**
+     * Returns whether the application has read the body to the end.
+     *
+     * @return <code>true</code> if the end of the body has been seen.
+     */
+    public boolean isComplete()
+    {
+        return source.isExhausted();
+    }
+
+    /**
+     * Returns a marker to be written between head and tail describing what has been left out.
+     *
+     * @return the marker or <code>null</code> if nothing has been left out.
+     */
+    public String getElisionMarker()
+    {
+        if (getElided() == 0 && source.isExhausted())
+        {
+            return null;
+        }
+        final StringBuilder sb = new StringBuilder("\n--");
+        if (getElided() > 0)
+        {
+            sb.append("elided ").append(getElided()).append(" of ");
+        }
+        sb.append(length).append(" bytes, adler32 ").append(String.format("%08x", getChecksum()));
+        if (!source.isExhausted())
+        {
+            sb.append(", not read to the end");
+        }
+        return sb.append("--\n").toString();
+    }
+
+    /**
+     * Returns head and tail separated by the elision marker.
+     */
+    @Override
+    public InputStream openStream() throws IOException
+    {
+        return new ByteArrayInputStream(toByteArray());
+    }
+
+    /**
+     * Returns head and tail separated by the elision marker.
+     */
+    @Override
+    public byte[] toByteArray() throws IOException
+    {
+        drain();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(headFill + tail.length + 128);
+        out.write(head, 0, headFill);
+        final String marker = getElisionMarker();
+        if (marker != null)
+        {
+            out.write(marker.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        out.write(getTail());
+        return out.toByteArray();
+    }
+
+    /**
+     * Fills the head buffer and returns this body, head and tail are already bounded heap
+     * buffers that remain readable after the request has completed.
+     */
+    @Override
+    public CapturedBody promote(int maxSize) throws IOException
+    {
+        drain();
+        return this;
+    }
+
+    @Override
+    public void release()
+    {
+        // the buffers are left to the garbage collector
+    }
+
+    @Override
+    public String toString()
+    {
+        return "HeadTailBody[length=" + length + ", elided=" + getElided() + "]";
+    }
+
+    @Override
+    ServletInputStream newInputStream()
+    {
+        if (inputStream == null)
+        {
+            inputStream = new HeadTailInputStream();
+        }
+        return inputStream;
+    }
+
+    /**
+     * Fills the head buffer if the application has not read that far, the rest of the body is
+     * left alone as it may be unbounded. The application reads the drained bytes from the head
+     * buffer.
+     */
+    @Override
+    void drain() throws IOException
+    {
+        final byte[] buffer = new byte[Math.max(1, Math.min(BUFFER_SIZE, head.length))];
+        while (headFill < head.length && source.canDrain())
+        {
+            readSource(buffer, 0, Math.min(buffer.length, head.length - headFill));
+        }
+    }
+
+    private int readSource(byte[] b, int off, int len) throws IOException
+    {
+        final int read = source.read(b, off, len);
+        if (read > 0)
+        {
+            update(b, off, read);
+        }
+        return read;
+    }
+
+    private void update(byte[] b, int off, int len)
+    {
+        checksum.update(b, off, len);
+        length += len;
+        final int toHead = Math.min(len, head.length - headFill);
+        System.arraycopy(b, off, head, headFill, toHead);
+        headFill += toHead;
+        off += toHead;
+        len -= toHead;
+        tailLength += len;
+        if (len == 0 || tail.length == 0)
+        {
+            return;
+        }
+        if (len > tail.length)
+        {
+            // only the last bytes fit into the ring
+            off += len - tail.length;
+            len = tail.length;
+        }
+        final int first = Math.min(len, tail.length - tailPosition);
+        System.arraycopy(b, off, tail, tailPosition, first);
+        System.arraycopy(b, off + first, tail, 0, len - first);
+        tailPosition = (tailPosition + len) % tail.length;
+    }
+
+    /**
+     * Passes the body through to the application and records head, tail and checksum. Bytes that
+     * have been drained into the head buffer before the application read them are replayed from
+     * there.
+     */
+    private class HeadTailInputStream extends ServletInputStream
+    {
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read() throws IOException
+        {
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            final int read;
+            if (position < headFill)
+            {
+                read = Math.min(len, headFill - (int) position);
+                System.arraycopy(head, (int) position, b, off, read);
+            }
+            else
+            {
+                read = readSource(b, off, len);
+            }
+            if (read > 0)
+            {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            return position < headFill ? headFill - (int) position : source.available();
+        }
+
+        @Override
+        public boolean isFinished()
+        {
+            return position >= headFill && source.isFinished();
+        }
+
+        @Override
+        public boolean isReady()
+        {
+            return position < headFill || source.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener)
+        {
+            source.setReadListener(readListener, position < headFill);
+        }
+    }
+}
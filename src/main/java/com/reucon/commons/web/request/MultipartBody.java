@@ -0,0 +1,579 @@
+package com.reucon.commons.web.request;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.servlet.ServletException;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.Part;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Captures a summary of a <code>multipart/form-data</code> body without buffering it.
+ * <p>
+ * The body is passed through to the application unchanged and parsed on the fly while it is read.
+ * Text parts are kept up to {@link CaptureSettings#getMaxTextPartSize()} bytes, for file parts
+ * only the headers, the length and a SHA-256 hash are recorded. Parsing stops once
+ * {@link CaptureSettings#getMultipartBudget()} bytes have been inspected.
+ * <p>
+ * The body is never drained to build the summary, as the application or the container may still
+ * have to read it from the request. Only what has been read through the wrapper is summarized. If
+ * nothing has been read through the wrapper, the summary is built from the container's
+ * {@link Part Parts} instead.
+ *
+ * @since 2.2.7
+ */
+public class MultipartBody extends CapturedBody
+{
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+    private static final int MAX_HEADER_SIZE = 8 * 1024;
+    private static final int BUFFER_SIZE = 4096;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private enum State
+    {
+        PREAMBLE, DELIMITER_SUFFIX, HEADERS, CONTENT, DONE, STOPPED
+    }
+
+    private final Log logger = LogFactory.getLog(getClass());
+    private final HttpServletRequest request;
+    private final int maxTextPartSize;
+    private final long budget;
+    private final byte[] delimiter;
+    private final List<CapturedPart> parts = new ArrayList<>();
+    private final ByteArrayOutputStream headerBuffer = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream text = new ByteArrayOutputStream();
+    private State state;
+    private int matched;
+    private int headerEndMatched;
+    private boolean suffixDash;
+    private CapturedPart current;
+    private long currentLength;
+    private MessageDigest digest;
+    private long length;
+    private long inspected;
+    private boolean budgetExceeded;
+    private final BodySource source;
+    private ServletInputStream inputStream;
+
+    /**
+     * Creates a new multipart body.
+     *
+     * @param request the request to read the body from
+     * @param boundary the boundary taken from the content type or <code>null</code> if there is none
+     * @param settings the capture settings
+     */
+    MultipartBody(HttpServletRequest request, String boundary, CaptureSettings settings)
+    {
+        this.request = request;
+        this.source = new BodySource(request);
+        this.maxTextPartSize = settings.getMaxTextPartSize();
+        this.budget = settings.getMultipartBudget();
+        if (boundary == null)
+        {
+            this.delimiter = null;
+            this.state = State.STOPPED;
+        }
+        else
+        {
+            this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+            this.state = State.PREAMBLE;
+            // the first delimiter is not preceded by CRLF
+            this.matched = CRLF.length;
+        }
+    }
+
+    /**
+     * Extracts the boundary from a multipart content type.
+     *
+     * @param contentType the content type
+     * @return the boundary or <code>null</code> if the content type does not specify one.
+     */
+    static String boundary(String contentType)
+    {
+        return CapturedPart.parameter(contentType, "boundary");
+    }
+
+    /**
+     * Returns the parts captured so far.
+     *
+     * @return the parts captured so far.
+     */
+    public List<CapturedPart> getParts()
+    {
+        return Collections.unmodifiableList(parts);
+    }
+
+    /**
+     * Returns whether parsing stopped because the budget has been exceeded.
+     *
+     * @return <code>true</code> if the budget has been exceeded.
+     */
+    public boolean isBudgetExceeded()
+    {
+        return budgetExceeded;
+    }
+
+    @Override
+    public long length()
+    {
+        return length;
+    }
+
+    /**
+     * Returns a textual summary of the captured parts.
+     */
+    @Override
+    public InputStream openStream() throws IOException
+    {
+        return new ByteArrayInputStream(toByteArray());
+    }
+
+    /**
+     * Returns a textual summary of the captured parts.
+     */
+    @Override
+    public byte[] toByteArray() throws IOException
+    {
+        if (length == 0 && parts.isEmpty() && !source.isOpen())
+        {
+            captureContainerParts();
+        }
+        return render();
+    }
+
+    @Override
+    public void release()
+    {
+        parts.clear();
+        headerBuffer.reset();
+        text.reset();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MultipartBody[length=" + length + ", parts=" + parts.size() + "]";
+    }
+
+    @Override
+    ServletInputStream newInputStream()
+    {
+        if (inputStream == null)
+        {
+            inputStream = new MultipartInputStream();
+        }
+        return inputStream;
+    }
+
+    /**
+     * Does not read anything: the bytes would be lost to the container parsing the parts of the
+     * request, which reads them from the request itself.
+     */
+    @Override
+    void drain()
+    {
+    }
+
+    private int readSource(byte[] b, int off, int len) throws IOException
+    {
+        final int read = source.read(b, off, len);
+        if (read > 0)
+        {
+            update(b, off, read);
+        }
+        return read;
+    }
+
+    /**
+     * Feeds body bytes to the parser.
+     */
+    void update(byte[] b, int off, int len)
+    {
+        length += len;
+        if (state == State.DONE || state == State.STOPPED)
+        {
+            return;
+        }
+        if (inspected + len > budget)
+        {
+            len = (int) (budget - inspected);
+            budgetExceeded = true;
+        }
+        inspected += len;
+        parse(b, off, off + len);
+        if (budgetExceeded && state != State.DONE)
+        {
+            stop();
+        }
+    }
+
+    private void parse(byte[] b, int i, int end)
+    {
+        while (i < end)
+        {
+            switch (state)
+            {
+                case PREAMBLE:
+                case CONTENT:
+                    i = parseContent(b, i, end);
+                    break;
+                case DELIMITER_SUFFIX:
+                    i = parseDelimiterSuffix(b[i], i);
+                    break;
+                case HEADERS:
+                    parseHeaders(b[i++]);
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Passes content on to the current part until the delimiter is found. As the delimiter starts
+     * with CR, which does not occur again in the delimiter, a mismatch restarts matching at the
+     * current byte.
+     */
+    private int parseContent(byte[] b, int i, int end)
+    {
+        while (i < end)
+        {
+            if (matched == 0)
+            {
+                final int start = i;
+                while (i < end && b[i] != '\r')
+                {
+                    i++;
+                }
+                content(b, start, i - start);
+                if (i == end)
+                {
+                    return i;
+                }
+                matched = 1;
+                i++;
+            }
+            else if (b[i] == delimiter[matched])
+            {
+                matched++;
+                i++;
+                if (matched == delimiter.length)
+                {
+                    matched = 0;
+                    endPart();
+                    state = State.DELIMITER_SUFFIX;
+                    return i;
+                }
+            }
+            else
+            {
+                content(delimiter, 0, matched);
+                matched = 0;
+            }
+        }
+        return i;
+    }
+
+    private int parseDelimiterSuffix(byte b, int i)
+    {
+        if (suffixDash)
+        {
+            state = b == '-' ? State.DONE : State.STOPPED;
+        }
+        else if (b == '-')
+        {
+            suffixDash = true;
+        }
+        else if (b == '\n')
+        {
+            state = State.HEADERS;
+        }
+        else if (b != '\r' && b != ' ' && b != '\t')
+        {
+            state = State.STOPPED;
+        }
+        return i + 1;
+    }
+
+    private void parseHeaders(byte b)
+    {
+        headerBuffer.write(b);
+        headerEndMatched = b == HEADER_END[headerEndMatched] ? headerEndMatched + 1 : (b == '\r' ? 1 : 0);
+        final boolean noHeaders = headerBuffer.size() == CRLF.length && headerEndMatched == CRLF.length;
+        if (!noHeaders && headerEndMatched < HEADER_END.length)
+        {
+            if (headerBuffer.size() > MAX_HEADER_SIZE)
+            {
+                stop();
+            }
+            return;
+        }
+        final List<String> headers = new ArrayList<>();
+        for (String line : new String(headerBuffer.toByteArray(), StandardCharsets.ISO_8859_1).split("\r\n"))
+        {
+            if (!line.isEmpty())
+            {
+                headers.add(line);
+            }
+        }
+        headerBuffer.reset();
+        headerEndMatched = 0;
+        startPart(new CapturedPart(headers));
+        state = State.CONTENT;
+    }
+
+    private void startPart(CapturedPart part)
+    {
+        current = part;
+        currentLength = 0;
+        text.reset();
+        digest = part.isBinary() ? sha256() : null;
+        parts.add(part);
+    }
+
+    private void content(byte[] b, int off, int len)
+    {
+        if (state != State.CONTENT || len == 0)
+        {
+            return;
+        }
+        currentLength += len;
+        if (digest != null)
+        {
+            digest.update(b, off, len);
+        }
+        else if (text.size() < maxTextPartSize)
+        {
+            text.write(b, off, Math.min(len, maxTextPartSize - text.size()));
+        }
+    }
+
+    private void endPart()
+    {
+        if (current == null)
+        {
+            return;
+        }
+        updateCurrent();
+        current.complete(digest != null ? hex(digest.digest()) : null);
+        current = null;
+        digest = null;
+    }
+
+    private void stop()
+    {
+        if (current != null)
+        {
+            updateCurrent();
+            current = null;
+            digest = null;
+        }
+        state = State.STOPPED;
+    }
+
+    private void updateCurrent()
+    {
+        current.setLength(currentLength);
+        if (!current.isBinary())
+        {
+            current.setContent(text.toByteArray(), currentLength > text.size());
+        }
+    }
+
+    /**
+     * Builds the summary from the parts parsed by the container.
+     */
+    private void captureContainerParts()
+    {
+        final List<Part> containerParts;
+        try
+        {
+            containerParts = new ArrayList<>(request.getParts());
+        }
+        catch (IOException | ServletException | RuntimeException e)
+        {
+            logger.debug("Unable to obtain parts of multipart request", e);
+            return;
+        }
+        if (containerParts.isEmpty())
+        {
+            // leave the parser alone, the body may still be read through the wrapper
+            return;
+        }
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        for (Part part : containerParts)
+        {
+            if (budgetExceeded)
+            {
+                break;
+            }
+            final List<String> headers = new ArrayList<>();
+            for (String name : part.getHeaderNames())
+            {
+                for (String value : part.getHeaders(name))
+                {
+                    headers.add(name + ": " + value);
+                }
+            }
+            startPart(new CapturedPart(headers));
+            state = State.CONTENT;
+            try (InputStream is = part.getInputStream())
+            {
+                int read;
+                while (!budgetExceeded && (read = is.read(buffer)) != -1)
+                {
+                    if (inspected + read > budget)
+                    {
+                        read = (int) (budget - inspected);
+                        budgetExceeded = true;
+                    }
+                    inspected += read;
+                    content(buffer, 0, read);
+                    if (digest == null && text.size() >= maxTextPartSize)
+                    {
+                        currentLength = part.getSize();
+                        break;
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                logger.debug("Unable to read part " + part.getName(), e);
+            }
+            if (budgetExceeded)
+            {
+                stop();
+            }
+            else
+            {
+                endPart();
+            }
+        }
+        state = State.DONE;
+    }
+
+    private byte[] render() throws IOException
+    {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        int index = 1;
+        for (CapturedPart part : parts)
+        {
+            write(os, "[part " + index++ + "]\r\n");
+            for (String header : part.getHeaders())
+            {
+                write(os, header + "\r\n");
+            }
+            write(os, "\r\n");
+            if (part.isBinary())
+            {
+                write(os, "[binary content: " + part.getLength() + " bytes"
+                        + (part.getSha256() != null ? ", SHA-256 " + part.getSha256() : ", incomplete") + "]\r\n");
+            }
+            else
+            {
+                if (part.getContent() != null)
+                {
+                    os.write(part.getContent());
+                }
+                write(os, "\r\n");
+                if (part.isTruncated())
+                {
+                    write(os, "[text content truncated after " + part.getContent().length + " of " + part.getLength() + " bytes]\r\n");
+                }
+            }
+        }
+        if (budgetExceeded)
+        {
+            write(os, "[capture stopped after " + budget + " bytes]\r\n");
+        }
+        return os.toByteArray();
+    }
+
+    private static void write(ByteArrayOutputStream os, String s) throws IOException
+    {
+        os.write(s.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static MessageDigest sha256()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes)
+    {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Passes the body through to the application and feeds it to the parser.
+     */
+    private class MultipartInputStream extends ServletInputStream
+    {
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read() throws IOException
+        {
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            return readSource(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            return source.available();
+        }
+
+        @Override
+        public boolean isFinished()
+        {
+            return source.isFinished();
+        }
+
+        @Override
+        public boolean isReady()
+        {
+            return source.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener)
+        {
+            source.setReadListener(readListener, false);
+        }
+    }
+}
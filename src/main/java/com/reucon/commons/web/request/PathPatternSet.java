@@ -0,0 +1,276 @@
+package com.reucon.commons.web.request;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Precompiled set of Ant-style path patterns.
+ * <p>
+ * Supported wildcards are <code>?</code> (one character except <code>/</code>), <code>*</code>
+ * (zero or more characters except <code>/</code>) and <code>**</code> (zero or more characters
+ * including <code>/</code>). A pattern ending in <code>/**</code> also matches the path without
+ * the trailing slash, so <code>/api/**</code> matches <code>/api</code> and <code>/api/orders</code>
+ * but not <code>/apidocs</code>. Likewise <code>/**&#47;edit</code> matches <code>/edit</code>.
+ * <p>
+ * Each pattern is compiled into a non-deterministic automaton whose states are kept in the bits of
+ * a <code>long</code>. Matching walks the path once per pattern without backtracking and without
+ * allocating, the path may be given as servlet path and path info to avoid concatenating them.
+ *
+ * @since 2.2.7
+ */
+public class PathPatternSet
+{
+    private static final int MAX_TOKENS = 63;
+    private static final int ASCII = 128;
+
+    private final String[] patterns;
+    private final Automaton[] automata;
+
+    private PathPatternSet(String[] patterns, Automaton[] automata)
+    {
+        this.patterns = patterns;
+        this.automata = automata;
+    }
+
+    /**
+     * Compiles a comma separated list of patterns.
+     *
+     * @param patterns comma separated list of patterns, may be <code>null</code>
+     * @return the compiled patterns.
+     * @throws IllegalArgumentException if a pattern is too long to be compiled.
+     */
+    public static PathPatternSet compile(String patterns)
+    {
+        final List<String> list = new ArrayList<>();
+        if (patterns != null)
+        {
+            for (String pattern : patterns.split(","))
+            {
+                if (!pattern.trim().isEmpty())
+                {
+                    list.add(pattern.trim());
+                }
+            }
+        }
+        return compile(list);
+    }
+
+    /**
+     * Compiles the given patterns.
+     *
+     * @param patterns the patterns to compile
+     * @return the compiled patterns.
+     * @throws IllegalArgumentException if a pattern is too long to be compiled.
+     */
+    public static PathPatternSet compile(List<String> patterns)
+    {
+        final Automaton[] automata = new Automaton[patterns.size()];
+        for (int i = 0; i < automata.length; i++)
+        {
+            automata[i] = new Automaton(patterns.get(i));
+        }
+        return new PathPatternSet(patterns.toArray(new String[0]), automata);
+    }
+
+    /**
+     * Returns whether the set contains no patterns.
+     *
+     * @return <code>true</code> if the set is empty.
+     */
+    public boolean isEmpty()
+    {
+        return automata.length == 0;
+    }
+
+    /**
+     * Returns whether any pattern matches the given path.
+     *
+     * @param path the path to match, <code>null</code> is treated as empty path
+     * @return <code>true</code> if a pattern matches.
+     */
+    public boolean matches(String path)
+    {
+        return matches(path, null);
+    }
+
+    /**
+     * Returns whether any pattern matches the concatenation of the given parts, e.g. the servlet
+     * path and the path info of a request.
+     *
+     * @param first first part of the path, may be <code>null</code>
+     * @param second second part of the path, may be <code>null</code>
+     * @return <code>true</code> if a pattern matches.
+     */
+    public boolean matches(String first, String second)
+    {
+        for (Automaton automaton : automata)
+        {
+            if (automaton.matches(first, second))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(patterns);
+    }
+
+    /**
+     * Automaton for a single pattern. Bit <code>k</code> of the state is set if the first
+     * <code>k</code> tokens of the pattern match the input consumed so far.
+     */
+    private static class Automaton
+    {
+        private final char[] literals;
+        private final long[] asciiMasks = new long[ASCII];
+        private final long anyMask;
+        private final long starMask;
+        private final long doubleStarMask;
+        private final long segmentSkipMask;
+        private final long acceptMask;
+        private final int tokens;
+
+        private Automaton(String pattern)
+        {
+            final List<Character> literalList = new ArrayList<>();
+            long any = 0;
+            long star = 0;
+            long doubleStar = 0;
+            int n = 0;
+            for (int i = 0; i < pattern.length(); i++)
+            {
+                final char c = pattern.charAt(i);
+                if (n == MAX_TOKENS)
+                {
+                    throw new IllegalArgumentException("Pattern '" + pattern + "' is too long");
+                }
+                if (c == '*' && i + 1 < pattern.length() && pattern.charAt(i + 1) == '*')
+                {
+                    doubleStar |= 1L << n;
+                    star |= 1L << n;
+                    literalList.add('\0');
+                    i++;
+                }
+                else if (c == '*')
+                {
+                    star |= 1L << n;
+                    literalList.add('\0');
+                }
+                else if (c == '?')
+                {
+                    any |= 1L << n;
+                    literalList.add('\0');
+                }
+                else
+                {
+                    if (c < ASCII)
+                    {
+                        asciiMasks[c] |= 1L << n;
+                    }
+                    literalList.add(c);
+                }
+                n++;
+            }
+            this.tokens = n;
+            this.literals = new char[n];
+            for (int i = 0; i < n; i++)
+            {
+                literals[i] = literalList.get(i);
+            }
+            this.anyMask = any;
+            this.starMask = star;
+            this.doubleStarMask = doubleStar;
+
+            long segmentSkip = 0;
+            // a "**" enclosed in slashes may match no segment at all, including its trailing slash
+            for (int i = 0; i + 1 < n; i++)
+            {
+                if ((doubleStar & (1L << i)) != 0 && literals[i + 1] == '/' && (i == 0 || literals[i - 1] == '/'))
+                {
+                    segmentSkip |= 1L << i;
+                }
+            }
+            this.segmentSkipMask = segmentSkip;
+
+            long accept = 1L << n;
+            // a trailing "/**" also matches the path without the slash
+            if (n >= 2 && (doubleStar & (1L << (n - 1))) != 0 && literals[n - 2] == '/')
+            {
+                accept |= 1L << (n - 2);
+            }
+            this.acceptMask = accept;
+        }
+
+        private boolean matches(String first, String second)
+        {
+            long state = closure(1L, true);
+            state = advance(state, first);
+            if (state != 0)
+            {
+                state = advance(state, second);
+            }
+            return (state & acceptMask) != 0;
+        }
+
+        private long advance(long state, String s)
+        {
+            if (s == null)
+            {
+                return state;
+            }
+            for (int i = 0; i < s.length() && state != 0; i++)
+            {
+                state = step(state, s.charAt(i));
+            }
+            return state;
+        }
+
+        private long step(long state, char c)
+        {
+            long consuming = anyMask;
+            long staying = starMask;
+            if (c == '/')
+            {
+                consuming = 0;
+                staying = doubleStarMask;
+            }
+            consuming |= c < ASCII ? asciiMasks[c] : literalMask(c);
+            return closure((state & consuming) << 1, true) | closure(state & staying, false);
+        }
+
+        /**
+         * Adds the states reachable by letting stars match the empty string. Segments may only be
+         * skipped by states that have just been entered, not by a star that already consumed input.
+         */
+        private long closure(long state, boolean entered)
+        {
+            final long skipMask = entered ? segmentSkipMask : 0;
+            long previous;
+            do
+            {
+                previous = state;
+                state |= ((state & starMask) << 1) | ((state & skipMask) << 2);
+            }
+            while (state != previous);
+            return state;
+        }
+
+        private long literalMask(char c)
+        {
+            long mask = 0;
+            for (int i = 0; i < tokens; i++)
+            {
+                if (literals[i] == c)
+                {
+                    mask |= 1L << i;
+                }
+            }
+            return mask;
+        }
+    }
+}
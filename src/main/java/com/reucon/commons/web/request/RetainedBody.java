@@ -0,0 +1,139 @@
+package com.reucon.commons.web.request;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+
+/**
+ * Durable heap copy of a captured body created by {@link CapturedBody#promote(int)}.
+ * <p>
+ * The copy does not depend on pooled chunks or temporary files, so it remains readable after the
+ * request has completed and the original body has been released.
+ *
+ * @since 2.2.7
+ */
+public class RetainedBody extends CapturedBody
+{
+    /**
+     * Body without content, e.g. for requests whose body has deliberately not been captured.
+     */
+    public static final RetainedBody EMPTY = new RetainedBody(new byte[0], 0, false);
+
+    private final byte[] content;
+    private final long originalLength;
+    private final boolean truncated;
+
+    RetainedBody(byte[] content, long originalLength, boolean truncated)
+    {
+        this.content = content;
+        this.originalLength = originalLength;
+        this.truncated = truncated;
+    }
+
+    @Override
+    public long length()
+    {
+        return content.length;
+    }
+
+    /**
+     * Returns the number of body bytes that had been read from the request when the copy was created.
+     *
+     * @return the length of the original body.
+     */
+    public long getOriginalLength()
+    {
+        return originalLength;
+    }
+
+    /**
+     * Returns whether the copy has been cut off at the maximum size.
+     *
+     * @return <code>true</code> if the captured content was longer than the maximum size.
+     */
+    public boolean isTruncated()
+    {
+        return truncated;
+    }
+
+    @Override
+    public InputStream openStream()
+    {
+        return new ByteArrayInputStream(content);
+    }
+
+    @Override
+    public byte[] toByteArray()
+    {
+        return content.clone();
+    }
+
+    /**
+     * Returns this body, it is already durable.
+     */
+    @Override
+    public CapturedBody promote(int maxSize)
+    {
+        return this;
+    }
+
+    @Override
+    public void release()
+    {
+        // nothing to release, the copy is left to the garbage collector
+    }
+
+    @Override
+    public String toString()
+    {
+        return "RetainedBody[length=" + content.length + (isTruncated() ? ", truncated" : "") + "]";
+    }
+
+    @Override
+    ServletInputStream newInputStream()
+    {
+        final ByteArrayInputStream stream = new ByteArrayInputStream(content);
+        return new ServletInputStream()
+        {
+            @Override
+            public int read()
+            {
+                return stream.read();
+            }
+
+            @Override
+            public boolean isFinished()
+            {
+                return stream.available() == 0;
+            }
+
+            @Override
+            public boolean isReady()
+            {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener)
+            {
+                try
+                {
+                    readListener.onDataAvailable();
+                    readListener.onAllDataRead();
+                }
+                catch (IOException e)
+                {
+                    readListener.onError(e);
+                }
+            }
+        };
+    }
+
+    @Override
+    void drain()
+    {
+        // nothing to drain
+    }
+}
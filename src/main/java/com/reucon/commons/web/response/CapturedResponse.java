@@ -0,0 +1,294 @@
+package com.reucon.commons.web.response;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Status, headers and the start of the body of a response captured by a
+ * {@link CapturingHttpResponseWrapper}.
+ * <p>
+ * Status and headers are read from the response when they are requested. Of the body only the
+ * first bytes or characters up to the configured maximum are kept. Bodies that are compressed or
+ * have a binary content type are not captured at all, only their length is counted.
+ *
+ * @since 2.2.7
+ */
+public class CapturedResponse
+{
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+    private static final String IDENTITY = "identity";
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final String[] TEXT_TYPES = {
+            "text/", "application/json", "application/xml", "application/javascript", "application/x-www-form-urlencoded",
+            "application/problem"
+    };
+    private static final String[] TEXT_SUFFIXES = {"+json", "+xml"};
+
+    private final HttpServletResponse response;
+    private final int maxBodySize;
+    private byte[] bytes;
+    private char[] chars;
+    private int size;
+    private long length;
+    private boolean decided;
+    private String skipped;
+
+    CapturedResponse(HttpServletResponse response, int maxBodySize)
+    {
+        this.response = response;
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Returns the current status of the response.
+     *
+     * @return the status of the response.
+     */
+    public int getStatus()
+    {
+        return response.getStatus();
+    }
+
+    /**
+     * Returns the headers that have been set on the response so far.
+     *
+     * @return the headers of the response.
+     */
+    public Map<String, List<String>> getHeaders()
+    {
+        final Map<String, List<String>> headers = new LinkedHashMap<>();
+        for (String name : response.getHeaderNames())
+        {
+            headers.put(name, new ArrayList<>(response.getHeaders(name)));
+        }
+        return headers;
+    }
+
+    /**
+     * Returns the number of bytes or characters written to the body so far.
+     *
+     * @return the length of the body written so far.
+     */
+    public long getBodyLength()
+    {
+        return length;
+    }
+
+    /**
+     * Returns whether the body is longer than the part that has been captured.
+     *
+     * @return <code>true</code> if the body has been truncated.
+     */
+    public boolean isBodyTruncated()
+    {
+        return skipped == null && length > size;
+    }
+
+    /**
+     * Returns why the body has not been captured.
+     *
+     * @return <code>compressed</code> or <code>binary</code>, <code>null</code> if the body has been captured.
+     */
+    public String getBodySkipped()
+    {
+        return skipped;
+    }
+
+    /**
+     * Returns the captured start of the body as text, decoded with the character encoding of the
+     * response.
+     *
+     * @return the captured body, empty if nothing has been captured.
+     */
+    public String getBody()
+    {
+        if (chars != null)
+        {
+            return new String(chars, 0, size);
+        }
+        if (bytes != null)
+        {
+            return new String(bytes, 0, size, charset());
+        }
+        return "";
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CapturedResponse[status=" + getStatus() + ", bodyLength=" + length + "]";
+    }
+
+    /**
+     * Records a byte written to the output stream.
+     */
+    void captureByte(int b)
+    {
+        if (reserveBytes(1) > 0)
+        {
+            bytes[size++] = (byte) b;
+        }
+    }
+
+    /**
+     * Records bytes written to the output stream.
+     */
+    void captureBytes(byte[] b, int off, int len)
+    {
+        final int n = reserveBytes(len);
+        if (n > 0)
+        {
+            System.arraycopy(b, off, bytes, size, n);
+            size += n;
+        }
+    }
+
+    /**
+     * Records a character written to the writer.
+     */
+    void captureChar(int c)
+    {
+        if (reserveChars(1) > 0)
+        {
+            chars[size++] = (char) c;
+        }
+    }
+
+    /**
+     * Records characters written to the writer.
+     */
+    void captureChars(char[] c, int off, int len)
+    {
+        final int n = reserveChars(len);
+        if (n > 0)
+        {
+            System.arraycopy(c, off, chars, size, n);
+            size += n;
+        }
+    }
+
+    /**
+     * Records a string written to the writer.
+     */
+    void captureString(String str, int off, int len)
+    {
+        final int n = reserveChars(len);
+        if (n > 0)
+        {
+            str.getChars(off, off + n, chars, size);
+            size += n;
+        }
+    }
+
+    /**
+     * Discards what has been captured when the response buffer is reset.
+     */
+    void reset()
+    {
+        size = 0;
+        length = 0;
+        decided = false;
+        skipped = null;
+    }
+
+    private int reserveBytes(int len)
+    {
+        length += len;
+        final int n = capacityFor(len);
+        if (n > 0 && (bytes == null || bytes.length < size + n))
+        {
+            bytes = Arrays.copyOf(bytes == null ? new byte[0] : bytes, newCapacity(bytes == null ? 0 : bytes.length, size + n));
+        }
+        return n;
+    }
+
+    private int reserveChars(int len)
+    {
+        length += len;
+        final int n = capacityFor(len);
+        if (n > 0 && (chars == null || chars.length < size + n))
+        {
+            chars = Arrays.copyOf(chars == null ? new char[0] : chars, newCapacity(chars == null ? 0 : chars.length, size + n));
+        }
+        return n;
+    }
+
+    /**
+     * Returns how many of the given number of bytes or characters are to be captured. Whether the
+     * body is captured at all is decided on the first write, when the headers are usually set.
+     */
+    private int capacityFor(int len)
+    {
+        if (!decided)
+        {
+            decided = true;
+            skipped = skipReason();
+        }
+        if (skipped != null)
+        {
+            return 0;
+        }
+        return Math.min(len, maxBodySize - size);
+    }
+
+    private String skipReason()
+    {
+        final String encoding = response.getHeader(CONTENT_ENCODING);
+        if (encoding != null && !encoding.trim().isEmpty() && !IDENTITY.equalsIgnoreCase(encoding.trim()))
+        {
+            return "compressed";
+        }
+        final String contentType = response.getContentType();
+        if (contentType == null || isText(contentType.toLowerCase(Locale.ENGLISH)))
+        {
+            return null;
+        }
+        return "binary";
+    }
+
+    private static boolean isText(String contentType)
+    {
+        for (String type : TEXT_TYPES)
+        {
+            if (contentType.startsWith(type))
+            {
+                return true;
+            }
+        }
+        final int semicolon = contentType.indexOf(';');
+        final String mimeType = semicolon < 0 ? contentType.trim() : contentType.substring(0, semicolon).trim();
+        for (String suffix : TEXT_SUFFIXES)
+        {
+            if (mimeType.endsWith(suffix))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Charset charset()
+    {
+        final String encoding = response.getCharacterEncoding();
+        try
+        {
+            return encoding == null ? StandardCharsets.ISO_8859_1 : Charset.forName(encoding);
+        }
+        catch (IllegalArgumentException e)
+        {
+            return StandardCharsets.ISO_8859_1;
+        }
+    }
+
+    private int newCapacity(int current, int required)
+    {
+        return Math.min(maxBodySize, Math.max(required, Math.max(current * 2, INITIAL_CAPACITY)));
+    }
+}
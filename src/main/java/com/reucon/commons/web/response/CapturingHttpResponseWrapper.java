@@ -0,0 +1,195 @@
+package com.reucon.commons.web.response;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response wrapper that records status, headers and the start of the body, e.g. to include them
+ * in an exception report.
+ * <p>
+ * Output is written straight through to the wrapped response, the body is not buffered. Only the
+ * first bytes or characters up to the maximum body size are copied to a capture buffer, once it is
+ * full or if the body is compressed or binary nothing is copied at all.
+ *
+ * @see CapturedResponse
+ * @since 2.2.7
+ */
+public class CapturingHttpResponseWrapper extends HttpServletResponseWrapper
+{
+    private final CapturedResponse captured;
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
+
+    /**
+     * Creates a new wrapper.
+     *
+     * @param response the response to wrap
+     * @param maxBodySize maximum number of bytes or characters of the body to capture
+     */
+    public CapturingHttpResponseWrapper(HttpServletResponse response, int maxBodySize)
+    {
+        super(response);
+        this.captured = new CapturedResponse(response, maxBodySize);
+    }
+
+    /**
+     * Returns what has been captured so far.
+     *
+     * @return the captured response.
+     */
+    public CapturedResponse getCaptured()
+    {
+        return captured;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException
+    {
+        if (outputStream == null)
+        {
+            outputStream = new CapturingOutputStream(super.getOutputStream());
+        }
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException
+    {
+        if (writer == null)
+        {
+            writer = new CapturingWriter(super.getWriter());
+        }
+        return writer;
+    }
+
+    @Override
+    public void reset()
+    {
+        super.reset();
+        captured.reset();
+    }
+
+    @Override
+    public void resetBuffer()
+    {
+        super.resetBuffer();
+        captured.reset();
+    }
+
+    /**
+     * Writes to the output stream of the response and captures what is written.
+     */
+    private class CapturingOutputStream extends ServletOutputStream
+    {
+        private final ServletOutputStream delegate;
+
+        private CapturingOutputStream(ServletOutputStream delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            delegate.write(b);
+            captured.captureByte(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            delegate.write(b, off, len);
+            captured.captureBytes(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            delegate.close();
+        }
+
+        @Override
+        public boolean isReady()
+        {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener)
+        {
+            delegate.setWriteListener(writeListener);
+        }
+    }
+
+    /**
+     * Writes to the writer of the response and captures what is written. Errors are reported by
+     * the writer of the response, so {@link #checkError()} still notices e.g. a client that has
+     * disconnected.
+     */
+    private class CapturingWriter extends PrintWriter
+    {
+        private final PrintWriter delegate;
+
+        private CapturingWriter(PrintWriter delegate)
+        {
+            super(delegate);
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int c)
+        {
+            delegate.write(c);
+            captured.captureChar(c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len)
+        {
+            delegate.write(cbuf, off, len);
+            captured.captureChars(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len)
+        {
+            delegate.write(str, off, len);
+            captured.captureString(str, off, len);
+        }
+
+        @Override
+        public void println()
+        {
+            // PrintWriter writes the line separator to the delegate directly
+            write(System.lineSeparator());
+        }
+
+        @Override
+        public void flush()
+        {
+            delegate.flush();
+        }
+
+        @Override
+        public void close()
+        {
+            delegate.close();
+        }
+
+        @Override
+        public boolean checkError()
+        {
+            return delegate.checkError();
+        }
+    }
+}
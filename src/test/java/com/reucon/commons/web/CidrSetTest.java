@@ -0,0 +1,82 @@
+package com.reucon.commons.web;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CidrSetTest
+{
+    @Test
+    public void matchesIpv4Networks()
+    {
+        final CidrSet set = CidrSet.compile("10.0.0.0/8, 192.168.1.0/24,203.0.113.7");
+
+        assertTrue(set.contains("10.1.2.3"));
+        assertTrue(set.contains("192.168.1.255"));
+        assertTrue(set.contains("203.0.113.7"));
+        assertFalse(set.contains("192.168.2.1"));
+        assertFalse(set.contains("203.0.113.8"));
+        assertFalse(set.contains("11.0.0.1"));
+    }
+
+    @Test
+    public void matchesIpv6Networks()
+    {
+        final CidrSet set = CidrSet.compile("2001:db8::/32,::1");
+
+        assertTrue(set.contains("2001:db8:1::17"));
+        assertTrue(set.contains("::1"));
+        assertFalse(set.contains("2001:db9::1"));
+        assertFalse(set.contains("10.0.0.1"));
+    }
+
+    @Test
+    public void matchesMappedIpv4()
+    {
+        assertTrue(CidrSet.compile("10.0.0.0/8").contains("::ffff:10.0.0.1"));
+    }
+
+    @Test
+    public void widerNetworkCoversNarrower()
+    {
+        final CidrSet set = CidrSet.compile("10.1.0.0/16,10.0.0.0/8");
+
+        assertTrue(set.contains("10.200.0.1"));
+        assertTrue(CidrSet.compile("0.0.0.0/0").contains("198.51.100.1"));
+    }
+
+    @Test
+    public void rejectsNonLiterals()
+    {
+        final CidrSet set = CidrSet.compile("0.0.0.0/0");
+
+        assertFalse(set.contains("unknown"));
+        assertFalse(set.contains("localhost"));
+        assertFalse(set.contains("1.2.3"));
+        assertFalse(set.contains("1.2.3.256"));
+        assertFalse(set.contains("_hidden:80"));
+        assertNull(CidrSet.parseAddress("example.org:80"));
+    }
+
+    @Test
+    public void rejectsTextInetAddressWouldLookUp()
+    {
+        // InetAddress hands these to the system resolver instead of rejecting them
+        assertNull(CidrSet.parseAddress(".a:"));
+        assertNull(CidrSet.parseAddress(".:1"));
+        assertNull(CidrSet.parseAddress("..::"));
+        assertFalse(CidrSet.compile("::/0").contains(".a:"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidPrefix()
+    {
+        CidrSet.compile("10.0.0.0/33");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsHostNames()
+    {
+        CidrSet.compile("proxy.example.org");
+    }
+}
@@ -0,0 +1,79 @@
+package com.reucon.commons.web;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.junit.Assert.*;
+
+public class ClientIpResolverTest
+{
+    private ClientIpResolver resolver;
+    private MockHttpServletRequest request;
+
+    @Before
+    public void setUp()
+    {
+        resolver = new ClientIpResolver("10.0.0.0/8,2001:db8::/32");
+        request = new MockHttpServletRequest();
+        request.setRemoteAddr("10.0.0.1");
+    }
+
+    @Test
+    public void walksXForwardedForFromTheRight()
+    {
+        request.addHeader("X-Forwarded-For", "198.51.100.7, 203.0.113.9, 10.0.0.2");
+
+        assertEquals("203.0.113.9", resolver.resolve(request));
+    }
+
+    @Test
+    public void prefersForwardedHeader()
+    {
+        request.addHeader("X-Forwarded-For", "198.51.100.7");
+        request.addHeader("Forwarded", "for=192.0.2.60;proto=http;by=203.0.113.43, For=\"[2001:db8:cafe::17]:4711\"");
+
+        assertEquals("192.0.2.60", resolver.resolve(request));
+    }
+
+    @Test
+    public void untrustedRemoteAddressIsClient()
+    {
+        request.setRemoteAddr("198.51.100.1");
+        request.addHeader("X-Forwarded-For", "192.0.2.1");
+
+        assertEquals("198.51.100.1", resolver.resolve(request));
+    }
+
+    @Test
+    public void headersIgnoredWithoutTrustedProxies()
+    {
+        request.addHeader("X-Forwarded-For", "192.0.2.1");
+
+        assertEquals("10.0.0.1", new ClientIpResolver("").resolve(request));
+    }
+
+    @Test
+    public void forgedNonLiteralStopsWalk()
+    {
+        request.addHeader("Forwarded", "for=192.0.2.1, for=\"[.a:]\", for=10.0.0.2");
+
+        assertEquals(".a:", resolver.resolve(request));
+    }
+
+    @Test
+    public void obfuscatedNodeStopsWalk()
+    {
+        request.addHeader("Forwarded", "for=192.0.2.60, for=unknown, for=10.0.0.3");
+
+        assertEquals("unknown", resolver.resolve(request));
+    }
+
+    @Test
+    public void allTrustedReturnsLeftmost()
+    {
+        request.addHeader("X-Forwarded-For", "10.0.0.5:8080, 10.0.0.2");
+
+        assertEquals("10.0.0.5", resolver.resolve(request));
+    }
+}
@@ -0,0 +1,199 @@
+package com.reucon.commons.web;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.Assert.*;
+
+public class CompositeOptionalFilterTest
+{
+    private static final List<String> calls = new ArrayList<>();
+
+    private CompositeOptionalFilter filter;
+    private MockFilterConfig filterConfig;
+
+    @Before
+    public void setUp()
+    {
+        calls.clear();
+        filter = new CompositeOptionalFilter();
+        filterConfig = new MockFilterConfig("profiling");
+        filterConfig.addInitParameter(CompositeOptionalFilter.TARGET_FILTER_CLASSES_PARAMETER,
+                FirstFilter.class.getName() + ", com.example.MissingFilter, " + SecondFilter.class.getName());
+    }
+
+    @After
+    public void tearDown()
+    {
+        filter.destroy();
+    }
+
+    @Test
+    public void delegatesInOrderAndSkipsMissingFilters() throws Exception
+    {
+        filter.init(filterConfig);
+        assertEquals(calls.toString(), 2, calls.size());
+
+        request();
+
+        assertEquals("[init first, init second, first, second, chain]", calls.toString());
+        assertFalse(filter.getDelegates().get(1).isAvailable());
+    }
+
+    @Test
+    public void disabledFilterIsSkippedAndInitializedWhenEnabled() throws Exception
+    {
+        filterConfig.addInitParameter(CompositeOptionalFilter.DISABLED_FILTER_CLASSES_PARAMETER, SecondFilter.class.getName());
+        filter.init(filterConfig);
+        request();
+        assertEquals("[init first, first, chain]", calls.toString());
+
+        calls.clear();
+        filter.getDelegates().get(0).setEnabled(false);
+        filter.getDelegates().get(2).setEnabled(true);
+        request();
+        assertEquals("[init second, second, chain]", calls.toString());
+    }
+
+    @Test
+    public void requestIsPassedOnIfAllFiltersAreDisabled() throws Exception
+    {
+        filterConfig.addInitParameter(CompositeOptionalFilter.DISABLED_FILTER_CLASSES_PARAMETER,
+                FirstFilter.class.getName() + "," + SecondFilter.class.getName());
+        filter.init(filterConfig);
+
+        request();
+
+        assertEquals("[chain]", calls.toString());
+    }
+
+    @Test
+    public void lazyInit() throws Exception
+    {
+        filterConfig.addInitParameter(CompositeOptionalFilter.LAZY_INIT_PARAMETER, "true");
+        filter.init(filterConfig);
+        assertTrue(calls.isEmpty());
+        assertFalse(filter.getDelegates().get(0).isInitialized());
+
+        request();
+        request();
+
+        assertEquals("[init first, first, init second, second, chain, first, second, chain]", calls.toString());
+    }
+
+    @Test
+    public void scopedToPaths() throws Exception
+    {
+        filterConfig.addInitParameter(CompositeOptionalFilter.EXCLUDE_PATHS_PARAMETER, "/static/**");
+        filter.init(filterConfig);
+        calls.clear();
+
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/static/app.js");
+        request.setServletPath("/static/app.js");
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain(new RecordingServlet()));
+
+        assertEquals("[chain]", calls.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void missingFilterCannotBeEnabled() throws Exception
+    {
+        filter.init(filterConfig);
+        filter.getDelegates().get(1).setEnabled(true);
+    }
+
+    @Test
+    public void toggledOverJmx() throws Exception
+    {
+        filter.init(filterConfig);
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName("com.reucon.commons:type=OptionalFilter,name="
+                + ObjectName.quote("profiling/" + FirstFilter.class.getName()));
+        assertEquals(true, server.getAttribute(name, "Enabled"));
+
+        server.setAttribute(name, new Attribute("Enabled", false));
+        calls.clear();
+        request();
+        assertEquals("[second, chain]", calls.toString());
+    }
+
+    private void request() throws Exception
+    {
+        filter.doFilter(new MockHttpServletRequest(), new MockHttpServletResponse(),
+                new MockFilterChain(new RecordingServlet()));
+    }
+
+    private static class RecordingServlet extends HttpServlet
+    {
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp)
+        {
+            calls.add("chain");
+        }
+    }
+
+    public abstract static class RecordingFilter implements Filter
+    {
+        private final String name;
+
+        RecordingFilter(String name)
+        {
+            this.name = name;
+        }
+
+        @Override
+        public void init(FilterConfig filterConfig)
+        {
+            calls.add("init " + name);
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
+        {
+            calls.add(name);
+            chain.doFilter(request, response);
+        }
+
+        @Override
+        public void destroy()
+        {
+        }
+    }
+
+    public static class FirstFilter extends RecordingFilter
+    {
+        public FirstFilter()
+        {
+            super("first");
+        }
+    }
+
+    public static class SecondFilter extends RecordingFilter
+    {
+        public SecondFilter()
+        {
+            super("second");
+        }
+    }
+}
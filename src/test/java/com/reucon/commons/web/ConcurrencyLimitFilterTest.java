@@ -0,0 +1,159 @@
+package com.reucon.commons.web;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.Assert.*;
+
+public class ConcurrencyLimitFilterTest
+{
+    private ConcurrencyLimitFilter filter;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        filter = new ConcurrencyLimitFilter();
+        final MockFilterConfig filterConfig = new MockFilterConfig("limit");
+        filterConfig.addInitParameter("initialLimit", "10");
+        filterConfig.addInitParameter("minLimit", "2");
+        filterConfig.addInitParameter("maxLimit", "20");
+        filterConfig.addInitParameter("windowSize", "1");
+        filterConfig.addInitParameter("highPriorityPaths", "/health/**");
+        filterConfig.addInitParameter("lowPriorityPaths", "/reports/**");
+        filter.init(filterConfig);
+    }
+
+    @After
+    public void tearDown()
+    {
+        filter.destroy();
+    }
+
+    @Test
+    public void initialLimitIsBoundedByConfiguredLimits() throws Exception
+    {
+        final ConcurrencyLimitFilter large = new ConcurrencyLimitFilter();
+        final MockFilterConfig largeConfig = new MockFilterConfig("large");
+        largeConfig.addInitParameter("initialLimit", "300");
+        largeConfig.addInitParameter("maxLimit", "500");
+        large.init(largeConfig);
+        final ConcurrencyLimitFilter small = new ConcurrencyLimitFilter();
+        final MockFilterConfig smallConfig = new MockFilterConfig("small");
+        smallConfig.addInitParameter("initialLimit", "2");
+        smallConfig.addInitParameter("minLimit", "1");
+        small.init(smallConfig);
+        try
+        {
+            assertEquals(300, large.getLimit());
+            assertEquals(2, small.getLimit());
+        }
+        finally
+        {
+            large.destroy();
+            small.destroy();
+        }
+    }
+
+    @Test
+    public void priorityClassesGetShareOfLimit()
+    {
+        for (int i = 0; i < 5; i++)
+        {
+            assertTrue(filter.tryAcquire(ConcurrencyLimitFilter.Priority.LOW));
+        }
+        assertFalse("low priority may use half of the limit", filter.tryAcquire(ConcurrencyLimitFilter.Priority.LOW));
+        for (int i = 0; i < 4; i++)
+        {
+            assertTrue(filter.tryAcquire(ConcurrencyLimitFilter.Priority.NORMAL));
+        }
+        assertFalse("normal priority may use 90% of the limit", filter.tryAcquire(ConcurrencyLimitFilter.Priority.NORMAL));
+        assertTrue(filter.tryAcquire(ConcurrencyLimitFilter.Priority.HIGH));
+        assertFalse(filter.tryAcquire(ConcurrencyLimitFilter.Priority.HIGH));
+        assertEquals(10, filter.getInFlight());
+    }
+
+    @Test
+    public void excessRequestsAreRejectedWith503() throws Exception
+    {
+        for (int i = 0; i < 5; i++)
+        {
+            filter.tryAcquire(ConcurrencyLimitFilter.Priority.LOW);
+        }
+
+        final MockHttpServletResponse rejected = request("/reports/monthly");
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, rejected.getStatus());
+        assertEquals("1", rejected.getHeader("Retry-After"));
+        assertEquals(1, filter.getRejectedLowPriorityCount());
+
+        final MockHttpServletResponse accepted = request("/orders");
+        assertEquals(HttpServletResponse.SC_OK, accepted.getStatus());
+        assertEquals(1, filter.getAcceptedCount());
+        assertEquals(5, filter.getInFlight());
+    }
+
+    @Test
+    public void limitBacksOffWhenLatencyIncreases()
+    {
+        filter.tryAcquire(ConcurrencyLimitFilter.Priority.NORMAL);
+        filter.release(TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(10.0, filter.getBaselineLatency(), 0.001);
+        assertEquals(10, filter.getLimit());
+
+        filter.tryAcquire(ConcurrencyLimitFilter.Priority.NORMAL);
+        filter.release(TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(9, filter.getLimit());
+
+        for (int i = 0; i < 10; i++)
+        {
+            filter.tryAcquire(ConcurrencyLimitFilter.Priority.NORMAL);
+            filter.release(TimeUnit.MILLISECONDS.toNanos(50));
+        }
+        assertEquals("bounded by the minimum", 2, filter.getLimit());
+    }
+
+    @Test
+    public void limitGrowsWhileInUseAndLatencyIsStable()
+    {
+        for (int i = 0; i < 8; i++)
+        {
+            filter.tryAcquire(ConcurrencyLimitFilter.Priority.HIGH);
+        }
+        filter.release(TimeUnit.MILLISECONDS.toNanos(10));
+        filter.release(TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(12, filter.getLimit());
+
+        filter.setMaxLimit(8);
+        assertEquals(8, filter.getLimit());
+    }
+
+    @Test
+    public void exposedAsMXBean() throws Exception
+    {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName("com.reucon.commons:type=ConcurrencyLimit,name=\"limit\"");
+        assertEquals(10, server.getAttribute(name, "Limit"));
+
+        server.setAttribute(name, new Attribute("MaxLimit", 5));
+        assertEquals(5, filter.getLimit());
+    }
+
+    private MockHttpServletResponse request(String servletPath) throws Exception
+    {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", servletPath);
+        request.setServletPath(servletPath);
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        return response;
+    }
+}
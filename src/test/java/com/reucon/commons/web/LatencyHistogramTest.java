@@ -0,0 +1,76 @@
+package com.reucon.commons.web;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest
+{
+    @Test
+    public void bucketsAreContiguous()
+    {
+        for (long value = 0; value < 1 << 20; value++)
+        {
+            final int index = LatencyHistogram.index(value);
+            assertTrue(value + " above its bucket", value <= LatencyHistogram.highestEquivalentValue(index));
+            assertTrue(value + " below its bucket", index == 0 || value > LatencyHistogram.highestEquivalentValue(index - 1));
+        }
+    }
+
+    @Test
+    public void percentilesWithinPrecision()
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10000; i++)
+        {
+            histogram.record(i);
+        }
+
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000, histogram.getMax());
+        assertEquals(5000.5, histogram.getMean(), 0.001);
+        assertWithin(5000, histogram.getPercentile(0.5));
+        assertWithin(9900, histogram.getPercentile(0.99));
+        assertWithin(9990, histogram.getPercentile(0.999));
+        assertEquals(10000, histogram.getPercentile(1.0));
+    }
+
+    @Test
+    public void smallValuesAreExact()
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(3999);
+        histogram.recordNanos(-5);
+
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertEquals(3, histogram.getPercentile(1.0));
+    }
+
+    @Test
+    public void hugeValuesGoToLastBucket()
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(histogram.getMax(), histogram.getPercentile(0.5));
+    }
+
+    @Test
+    public void reset()
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(42);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.99));
+    }
+
+    private static void assertWithin(long expected, long actual)
+    {
+        assertTrue("expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 32);
+    }
+}
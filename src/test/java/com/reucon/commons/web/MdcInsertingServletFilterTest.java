@@ -1,9 +1,11 @@
 package com.reucon.commons.web;
 
+import ch.qos.logback.classic.spi.LoggingEvent;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.MDC;
+import org.springframework.mock.web.MockFilterConfig;
 
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
@@ -13,6 +15,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.*;
@@ -97,4 +100,202 @@ public class MdcInsertingServletFilterTest
         assertNull("MDC was not restored", MDC.get(MdcInsertingServletFilter.REQUEST_REMOTE_HOST_MDC_KEY));
         assertEquals("foo", MDC.get(MdcInsertingServletFilter.REQUEST_REMOTE_USER));
     }
+
+    @Test
+    public void testApplicationKeysAreClearedIfMdcWasEmpty() throws Exception
+    {
+        filter.doFilter(request, response, new FilterChain()
+        {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response)
+            {
+                MDC.put("order", "42");
+            }
+        });
+        assertNull(MDC.getCopyOfContextMap());
+    }
+
+    @Test
+    public void testUnrelatedKeysAreKept() throws Exception
+    {
+        when(request.getRemoteHost()).thenReturn("1.2.3.4");
+
+        MDC.put("tenant", "acme");
+        filter.doFilter(request, response, chain);
+        assertEquals("acme", MDC.get("tenant"));
+        assertNull(MDC.get(MdcInsertingServletFilter.REQUEST_REMOTE_HOST_MDC_KEY));
+    }
+
+    @Test
+    public void testCustomizedFilterRestoresWholeMDC() throws Exception
+    {
+        final MdcInsertingServletFilter customized = new MdcInsertingServletFilter()
+        {
+            @Override
+            protected void insertAdditionalProperties(HttpServletRequest request)
+            {
+                MDC.put("custom", "value");
+            }
+        };
+
+        MDC.put("tenant", "acme");
+        customized.doFilter(request, response, new FilterChain()
+        {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException
+            {
+                assertEquals("value", MDC.get("custom"));
+            }
+        });
+        assertNull(MDC.get("custom"));
+        assertEquals("acme", MDC.get("tenant"));
+    }
+
+    @Test
+    public void testLazyModeResolvesOnDemand() throws Exception
+    {
+        when(request.getRemoteHost()).thenReturn("1.2.3.4");
+        when(request.getRequestURI()).thenReturn("/app/me");
+        filter.setLazy(true);
+
+        final RequestContextConverter converter = new RequestContextConverter();
+        converter.setOptionList(Collections.singletonList(MdcInsertingServletFilter.REQUEST_REQUEST_URI));
+        converter.start();
+
+        filter.doFilter(request, response, new FilterChain()
+        {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException
+            {
+                assertNull(MDC.get(MdcInsertingServletFilter.REQUEST_REMOTE_HOST_MDC_KEY));
+                final RequestContext context = RequestContext.current();
+                assertEquals("1.2.3.4", context.get(MdcInsertingServletFilter.REQUEST_REMOTE_HOST_MDC_KEY));
+                assertEquals("1.2.3.4", context.get(MdcInsertingServletFilter.REQUEST_REMOTE_HOST_MDC_KEY));
+                assertNull(context.get(MdcInsertingServletFilter.REQUEST_SESSION_ID));
+                assertNull(context.get("unknown"));
+                assertEquals("/app/me", converter.convert(new LoggingEvent()));
+            }
+        });
+
+        assertNull(RequestContext.current());
+        assertEquals("", converter.convert(new LoggingEvent()));
+        verify(request, times(1)).getRemoteHost();
+        verify(request, never()).getRequestURL();
+    }
+
+    @Test
+    public void testKeyPlanSkipsUnselectedLookups() throws Exception
+    {
+        when(request.getRequestURI()).thenReturn("/app/me");
+        final MockFilterConfig config = new MockFilterConfig();
+        config.addInitParameter("mdcKeys", "requestURI, req.method");
+        filter.init(config);
+
+        filter.doFilter(request, response, new FilterChain()
+        {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException
+            {
+                assertEquals("/app/me", MDC.get(MdcInsertingServletFilter.REQUEST_REQUEST_URI));
+            }
+        });
+        filter.setLazy(true);
+        filter.doFilter(request, response, new FilterChain()
+        {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException
+            {
+                assertNull(RequestContext.current().get(MdcInsertingServletFilter.REQUEST_SESSION_ID));
+            }
+        });
+
+        verify(request, never()).getRemoteHost();
+        verify(request, never()).getSession(false);
+        verify(request).getMethod();
+    }
+
+    @Test(expected = ServletException.class)
+    public void testUnknownKeyIsRejected() throws Exception
+    {
+        final MockFilterConfig config = new MockFilterConfig();
+        config.addInitParameter("mdcKeys", "remoteHost,tenant");
+        filter.init(config);
+    }
+
+    @Test
+    public void testRemoteHostFromResolver() throws Exception
+    {
+        when(request.getRemoteAddr()).thenReturn("192.0.2.1");
+        final RemoteHostResolver resolver = new RemoteHostResolver(address -> "client.example.org");
+        resolver.setExecutor(Runnable::run);
+        filter.setRemoteHostResolver(resolver);
+        resolver.resolve("192.0.2.1");
+
+        filter.doFilter(request, response, new FilterChain()
+        {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException
+            {
+                assertEquals("client.example.org", MDC.get(MdcInsertingServletFilter.REQUEST_REMOTE_HOST_MDC_KEY));
+            }
+        });
+        verify(request, never()).getRemoteHost();
+    }
+
+    @Test
+    public void testClientIpBehindTrustedProxy() throws Exception
+    {
+        when(request.getRemoteAddr()).thenReturn("10.0.0.1");
+        when(request.getHeaders("Forwarded")).thenReturn(Collections.emptyEnumeration());
+        when(request.getHeaders("X-Forwarded-For")).thenReturn(Collections.enumeration(Collections.singletonList("192.0.2.1, 10.0.0.2")));
+        final MockFilterConfig config = new MockFilterConfig();
+        config.addInitParameter("trustedProxies", "10.0.0.0/8");
+        config.addInitParameter("mdcKeys", "clientIp");
+        filter.init(config);
+
+        filter.doFilter(request, response, new FilterChain()
+        {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException
+            {
+                assertEquals("192.0.2.1", MDC.get(MdcInsertingServletFilter.REQUEST_CLIENT_IP));
+            }
+        });
+    }
+
+    @Test
+    public void testRequestIdFromGenerator() throws Exception
+    {
+        filter.setIdGenerator(() -> "id-1");
+        filter.setMdcKeys("id");
+
+        filter.doFilter(request, response, new FilterChain()
+        {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException
+            {
+                assertEquals("id-1", MDC.get(MdcInsertingServletFilter.REQUEST_ID));
+            }
+        });
+        assertNull(MDC.get(MdcInsertingServletFilter.REQUEST_ID));
+    }
+
+    @Test
+    public void testRequestIdAndClientIpAreOptIn() throws Exception
+    {
+        final IdGenerator idGenerator = mock(IdGenerator.class);
+        filter.setIdGenerator(idGenerator);
+
+        filter.doFilter(request, response, new FilterChain()
+        {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException
+            {
+                assertNull(MDC.get(MdcInsertingServletFilter.REQUEST_ID));
+                assertNull(MDC.get(MdcInsertingServletFilter.REQUEST_CLIENT_IP));
+            }
+        });
+        verifyNoInteractions(idGenerator);
+        verify(request, never()).getHeaders(anyString());
+    }
 }
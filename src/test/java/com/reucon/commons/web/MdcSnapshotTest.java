@@ -0,0 +1,139 @@
+package com.reucon.commons.web;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.MDC;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.Assert.*;
+
+public class MdcSnapshotTest
+{
+    private ExecutorService executor;
+
+    @Before
+    public void setUp()
+    {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+        MDC.clear();
+    }
+
+    @Test
+    public void wrappedTaskRunsWithSnapshotAndRestoresThread() throws Exception
+    {
+        MDC.put(MdcInsertingServletFilter.REQUEST_ID, "request-1");
+        MDC.put("tenant", "acme");
+        final MdcSnapshot snapshot = MdcSnapshot.capture("tenant");
+        MDC.clear();
+        MDC.put(MdcInsertingServletFilter.REQUEST_ID, "other");
+
+        snapshot.wrap(() ->
+        {
+            assertEquals("request-1", MDC.get(MdcInsertingServletFilter.REQUEST_ID));
+            assertEquals("acme", MDC.get("tenant"));
+        }).run();
+
+        assertEquals("other", MDC.get(MdcInsertingServletFilter.REQUEST_ID));
+        assertNull(MDC.get("tenant"));
+    }
+
+    @Test
+    public void executorServicePropagatesMdc() throws Exception
+    {
+        final ExecutorService propagating = new MdcPropagatingExecutorService(executor);
+        MDC.put(MdcInsertingServletFilter.REQUEST_ID, "request-1");
+
+        assertEquals("request-1", propagating.submit(() -> MDC.get(MdcInsertingServletFilter.REQUEST_ID)).get(5, TimeUnit.SECONDS));
+        assertEquals("request-1", propagating.invokeAll(Collections.singletonList(() -> MDC.get(MdcInsertingServletFilter.REQUEST_ID))).get(0).get());
+        assertEquals("request-1", MdcSnapshot.supplyAsync(() -> MDC.get(MdcInsertingServletFilter.REQUEST_ID), executor).get(5, TimeUnit.SECONDS));
+
+        MDC.clear();
+        assertNull("pool thread is left clean", executor.submit(() -> MDC.get(MdcInsertingServletFilter.REQUEST_ID)).get());
+    }
+
+    @Test
+    public void taskDecoratorPropagatesMdc() throws Exception
+    {
+        final String[] seen = new String[1];
+        MDC.put(MdcInsertingServletFilter.REQUEST_ID, "request-1");
+        final Runnable task = new MdcTaskDecorator().decorate(() -> seen[0] = MDC.get(MdcInsertingServletFilter.REQUEST_ID));
+
+        executor.submit(task).get(5, TimeUnit.SECONDS);
+
+        assertEquals("request-1", seen[0]);
+    }
+
+    @Test
+    public void lazyKeysAreResolvedWhenCaptured() throws Exception
+    {
+        final MdcInsertingServletFilter filter = new MdcInsertingServletFilter();
+        filter.setLazy(true);
+        filter.setMdcKeys("id,requestURI");
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/lazy");
+        final MdcSnapshot[] snapshot = new MdcSnapshot[1];
+
+        filter.doFilter(request, new MockHttpServletResponse(), (req, res) -> snapshot[0] = MdcSnapshot.capture());
+        request.setRequestURI("/recycled");
+
+        assertEquals("/lazy", snapshot[0].get(MdcInsertingServletFilter.REQUEST_REQUEST_URI));
+        assertNotNull(snapshot[0].get(MdcInsertingServletFilter.REQUEST_ID));
+        assertNull(snapshot[0].get(MdcInsertingServletFilter.REQUEST_REMOTE_HOST_MDC_KEY));
+        final String[] seen = new String[2];
+        executor.submit(snapshot[0].wrap(() ->
+        {
+            seen[0] = MDC.get(MdcInsertingServletFilter.REQUEST_REQUEST_URI);
+            seen[1] = RequestContext.current() == null ? null : "bound";
+        })).get(5, TimeUnit.SECONDS);
+        assertEquals("/lazy", seen[0]);
+        assertNull("request context is not carried over", seen[1]);
+    }
+
+    @Test
+    public void asyncDispatchKeepsRequestKeys() throws Exception
+    {
+        final MdcInsertingServletFilter filter = new MdcInsertingServletFilter();
+        filter.setMdcKeys("id,requestURI");
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/async");
+        request.setAsyncSupported(true);
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        final String[] ids = new String[2];
+
+        filter.doFilter(request, response, (req, res) ->
+        {
+            ids[0] = MDC.get(MdcInsertingServletFilter.REQUEST_ID);
+            req.startAsync();
+        });
+        assertNull(MDC.get(MdcInsertingServletFilter.REQUEST_ID));
+
+        request.setDispatcherType(DispatcherType.ASYNC);
+        filter.doFilter(request, response, (req, res) -> ids[1] = MDC.get(MdcInsertingServletFilter.REQUEST_ID));
+
+        assertNotNull(ids[0]);
+        assertEquals(ids[0], ids[1]);
+        assertNull(MDC.get(MdcInsertingServletFilter.REQUEST_ID));
+
+        final MockAsyncContext asyncContext = (MockAsyncContext) request.getAsyncContext();
+        final AsyncListener listener = asyncContext.getListeners().get(0);
+        final AsyncEvent event = new AsyncEvent(asyncContext);
+        listener.onTimeout(event);
+        assertEquals(ids[0], MDC.get(MdcInsertingServletFilter.REQUEST_ID));
+        listener.onComplete(event);
+        assertNull(MDC.get(MdcInsertingServletFilter.REQUEST_ID));
+    }
+}
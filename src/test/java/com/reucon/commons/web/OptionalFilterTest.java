@@ -0,0 +1,198 @@
+package com.reucon.commons.web;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.*;
+
+public class OptionalFilterTest
+{
+    private OptionalFilter filter;
+    private MockFilterConfig filterConfig;
+
+    @Before
+    public void setUp()
+    {
+        filter = new OptionalFilter();
+        filterConfig = new MockFilterConfig("jamon");
+        filterConfig.addInitParameter(OptionalFilter.TARGET_FILTER_CLASS_PARAMETER, SleepingFilter.class.getName());
+    }
+
+    @After
+    public void tearDown()
+    {
+        filter.destroy();
+    }
+
+    @Test
+    public void missingTargetPassesRequestOn() throws Exception
+    {
+        final MockFilterConfig missing = new MockFilterConfig("missing");
+        missing.addInitParameter(OptionalFilter.TARGET_FILTER_CLASS_PARAMETER, "com.example.MissingFilter");
+        filter.init(missing);
+        final boolean[] called = new boolean[1];
+
+        filter.doFilter(new MockHttpServletRequest(), new MockHttpServletResponse(), (req, res) -> called[0] = true);
+
+        assertTrue(called[0]);
+        assertNull(filter.getDelegate());
+    }
+
+    @Test
+    public void selfTimeExcludesRestOfChain() throws Exception
+    {
+        filterConfig.addInitParameter(OptionalFilter.SELF_TIME_HISTOGRAM_PARAMETER, "true");
+        filter.init(filterConfig);
+
+        filter.doFilter(new MockHttpServletRequest(), new MockHttpServletResponse(), (req, res) -> sleep(100));
+
+        final OptionalDelegateMXBean delegate = filter.getDelegate();
+        assertEquals(1, delegate.getInvocationCount());
+        assertEquals(0, delegate.getExceptionCount());
+        assertThat(delegate.getSelfTime(), greaterThanOrEqualTo(20L));
+        assertThat(delegate.getSelfTime(), lessThan(100L));
+        assertThat(delegate.getSelfTimeP99(), greaterThanOrEqualTo(20000L));
+        assertEquals(delegate.getMaxSelfTime(), delegate.getSelfTimeP50());
+    }
+
+    @Test
+    public void onlyExceptionsOfTheFilterAreCounted() throws Exception
+    {
+        filter.init(filterConfig);
+        final MockHttpServletRequest failing = new MockHttpServletRequest();
+        failing.setAttribute(SleepingFilter.FAIL, Boolean.TRUE);
+
+        try
+        {
+            filter.doFilter(failing, new MockHttpServletResponse(), (req, res) -> {});
+            fail("exception expected");
+        }
+        catch (ServletException e)
+        {
+            // expected
+        }
+        try
+        {
+            filter.doFilter(new MockHttpServletRequest(), new MockHttpServletResponse(), (req, res) ->
+            {
+                throw new IOException("downstream");
+            });
+            fail("exception expected");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+
+        assertEquals(2, filter.getDelegate().getInvocationCount());
+        assertEquals(1, filter.getDelegate().getExceptionCount());
+        assertFalse(filter.getDelegate().isHistogramEnabled());
+        assertEquals(0, filter.getDelegate().getSelfTimeP99());
+    }
+
+    @Test
+    public void appliedToIncludedPathsOnly() throws Exception
+    {
+        filterConfig.addInitParameter(OptionalFilter.INCLUDE_PATHS_PARAMETER, "/api/**, /admin/*.do");
+        filterConfig.addInitParameter(OptionalFilter.EXCLUDE_PATHS_PARAMETER, "/api/health");
+        filter.init(filterConfig);
+
+        request("/api", "/orders");
+        request("/admin", null);
+        request("/admin/users.do", null);
+        request("/api", "/health");
+        request("/static", "/app.js");
+
+        assertEquals(2, filter.getDelegate().getInvocationCount());
+    }
+
+    @Test(expected = ServletException.class)
+    public void invalidPatternFailsInit() throws Exception
+    {
+        final StringBuilder pattern = new StringBuilder("/");
+        for (int i = 0; i < 64; i++)
+        {
+            pattern.append('a');
+        }
+        filterConfig.addInitParameter(OptionalFilter.INCLUDE_PATHS_PARAMETER, pattern.toString());
+        filter.init(filterConfig);
+    }
+
+    @Test
+    public void exposedAsMXBean() throws Exception
+    {
+        filter.init(filterConfig);
+        filter.doFilter(new MockHttpServletRequest(), new MockHttpServletResponse(), (req, res) -> {});
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName("com.reucon.commons:type=OptionalFilter,name="
+                + ObjectName.quote("jamon/" + SleepingFilter.class.getName()));
+        assertEquals(1L, server.getAttribute(name, "InvocationCount"));
+
+        server.invoke(name, "resetStatistics", null, null);
+        assertEquals(0L, server.getAttribute(name, "InvocationCount"));
+    }
+
+    private void request(String servletPath, String pathInfo) throws Exception
+    {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", servletPath + (pathInfo == null ? "" : pathInfo));
+        request.setServletPath(servletPath);
+        request.setPathInfo(pathInfo);
+        filter.doFilter(request, new MockHttpServletResponse(), (req, res) -> {});
+    }
+
+    private static void sleep(long millis)
+    {
+        try
+        {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static class SleepingFilter implements Filter
+    {
+        static final String FAIL = "fail";
+
+        @Override
+        public void init(FilterConfig filterConfig)
+        {
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
+        {
+            if (request.getAttribute(FAIL) != null)
+            {
+                throw new ServletException("failed");
+            }
+            sleep(20);
+            chain.doFilter(request, response);
+        }
+
+        @Override
+        public void destroy()
+        {
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.reucon.commons.web;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RemoteHostResolverTest
+{
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private ExecutorService executor;
+    private RemoteHostResolver resolver;
+
+    @Before
+    public void setUp()
+    {
+        executor = Executors.newSingleThreadExecutor();
+        resolver = new RemoteHostResolver(address ->
+        {
+            lookups.incrementAndGet();
+            release.await(5, TimeUnit.SECONDS);
+            if (address.startsWith("10."))
+            {
+                throw new IllegalStateException("no name");
+            }
+            return "host-" + address;
+        });
+        resolver.setExecutor(executor);
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void returnsAddressUntilResolved() throws Exception
+    {
+        assertEquals("192.0.2.1", resolver.resolve("192.0.2.1"));
+        assertEquals("192.0.2.1", resolver.resolve("192.0.2.1"));
+        assertEquals("192.0.2.1", resolver.resolve("192.0.2.1"));
+
+        release.countDown();
+        awaitIdle();
+
+        assertEquals("host-192.0.2.1", resolver.resolve("192.0.2.1"));
+        assertEquals("concurrent lookups are coalesced", 1, lookups.get());
+    }
+
+    @Test
+    public void failedLookupIsCachedAsAddress() throws Exception
+    {
+        release.countDown();
+        resolver.resolve("10.0.0.1");
+        awaitIdle();
+
+        assertEquals("10.0.0.1", resolver.resolve("10.0.0.1"));
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    public void expiredEntryIsRefreshed() throws Exception
+    {
+        release.countDown();
+        resolver.setTtl(0);
+        resolver.resolve("192.0.2.1");
+        awaitIdle();
+
+        assertEquals("stale host name is returned while refreshing", "host-192.0.2.1", resolver.resolve("192.0.2.1"));
+        awaitIdle();
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void cacheIsBounded() throws Exception
+    {
+        release.countDown();
+        resolver.setMaxEntries(2);
+        for (int i = 1; i <= 5; i++)
+        {
+            resolver.resolve("192.0.2." + i);
+        }
+        awaitIdle();
+
+        assertTrue(resolver.size() <= 2);
+    }
+
+    @Test
+    public void pendingEntriesAreNotEvicted()
+    {
+        final List<Runnable> tasks = new ArrayList<>();
+        resolver.setExecutor(tasks::add);
+        resolver.setMaxEntries(1);
+        release.countDown();
+
+        resolver.resolve("192.0.2.1");
+        resolver.resolve("192.0.2.2");
+        assertEquals("lookup, eviction, lookup", 3, tasks.size());
+        tasks.remove(1).run();
+
+        assertEquals(2, resolver.size());
+        resolver.resolve("192.0.2.1");
+        assertEquals("lookup is still coalesced", 2, tasks.size());
+        tasks.forEach(Runnable::run);
+        assertEquals(2, lookups.get());
+    }
+
+    private void awaitIdle() throws Exception
+    {
+        executor.submit(() -> null).get(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,137 @@
+package com.reucon.commons.web;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.servlet.DispatcherType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.Assert.*;
+
+public class RequestTimingFilterTest
+{
+    private RequestTimingFilter filter;
+    private MockFilterConfig filterConfig;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        filter = new RequestTimingFilter();
+        filterConfig = new MockFilterConfig("timing");
+        filterConfig.addInitParameter("maxPaths", "2");
+        filter.init(filterConfig);
+    }
+
+    @After
+    public void tearDown()
+    {
+        filter.destroy();
+    }
+
+    @Test
+    public void recordsPerPath() throws Exception
+    {
+        request("/app", "/orders");
+        request("/app", "/orders");
+        request("/status", null);
+
+        final List<PathLatency> latencies = filter.getLatencies();
+        assertEquals(2, latencies.size());
+        assertEquals("/app/orders", latencies.get(0).getPath());
+        assertEquals(2, latencies.get(0).getCount());
+        assertEquals("/status", latencies.get(1).getPath());
+        assertEquals(3, filter.getRequestCount());
+    }
+
+    @Test
+    public void idsInPathsAreNormalized() throws Exception
+    {
+        request("/api", "/orders/42/items");
+        request("/api", "/orders/4711/items");
+        request("/api", "/users/01ARZ3NDEKTSV4RRFFQ69G5FAV");
+        request("/api", "/users/123e4567-e89b-12d3-a456-426614174000");
+
+        final List<PathLatency> latencies = filter.getLatencies();
+        assertEquals(2, latencies.size());
+        assertEquals("/api/orders/{id}/items", latencies.get(0).getPath());
+        assertEquals("/api/users/{id}", latencies.get(1).getPath());
+        assertEquals("/v2/reports/", RequestTimingFilter.normalizePath("/v2/reports/"));
+        assertEquals("/a/{id}/", RequestTimingFilter.normalizePath("/a/7/"));
+    }
+
+    @Test
+    public void onlyRequestDispatchesAreRecorded() throws Exception
+    {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/error");
+        request.setServletPath("/error");
+        request.setDispatcherType(DispatcherType.ERROR);
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+        request.setDispatcherType(DispatcherType.FORWARD);
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+
+        assertEquals(0, filter.getRequestCount());
+    }
+
+    @Test
+    public void pathsBeyondLimitAreRecordedAsOther() throws Exception
+    {
+        request("/a", null);
+        request("/b", null);
+        request("/c", null);
+        request("/d", null);
+
+        assertEquals(2, filter.getPathCount());
+        assertEquals(4, filter.getRequestCount());
+        assertTrue(filter.dump().contains(RequestTimingFilter.OTHER_PATHS));
+
+        filter.reset();
+        assertEquals(0, filter.getRequestCount());
+        assertEquals(0, filter.getLatencies().size());
+    }
+
+    @Test
+    public void asyncRequestRecordedOnComplete() throws Exception
+    {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/async");
+        request.setServletPath("/async");
+        request.setAsyncSupported(true);
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, (req, res) -> req.startAsync());
+
+        assertEquals(0, filter.getRequestCount());
+
+        request.getAsyncContext().complete();
+        assertEquals(1, filter.getRequestCount());
+    }
+
+    @Test
+    public void exposedAsMXBean() throws Exception
+    {
+        request("/status", null);
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName("com.reucon.commons:type=RequestTiming,name=\"timing\"");
+        assertEquals(1L, server.getAttribute(name, "RequestCount"));
+        final CompositeData[] latencies = (CompositeData[]) server.getAttribute(name, "Latencies");
+        assertEquals("/status", latencies[0].get("path"));
+
+        filter.destroy();
+        assertFalse(server.isRegistered(name));
+    }
+
+    private void request(String servletPath, String pathInfo) throws Exception
+    {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", servletPath);
+        request.setServletPath(servletPath);
+        request.setPathInfo(pathInfo);
+        filter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+    }
+}
@@ -0,0 +1,88 @@
+package com.reucon.commons.web;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class UlidGeneratorTest
+{
+    @Test
+    public void idHasUlidFormat()
+    {
+        final long before = System.currentTimeMillis();
+        final String id = new UlidGenerator().nextId();
+
+        assertEquals(26, id.length());
+        assertTrue(id, id.matches("[0-9A-HJKMNP-TV-Z]{26}"));
+        final long timestamp = UlidGenerator.timestamp(id);
+        assertTrue(timestamp >= before && timestamp <= System.currentTimeMillis());
+    }
+
+    @Test
+    public void idsAreStrictlyIncreasingWithinMillisecond()
+    {
+        final UlidGenerator generator = new UlidGenerator()
+        {
+            @Override
+            protected long currentTimeMillis()
+            {
+                return 1_600_000_000_000L;
+            }
+        };
+        String previous = generator.nextId();
+        for (int i = 0; i < 10_000; i++)
+        {
+            final String id = generator.nextId();
+            assertTrue(previous + " < " + id, previous.compareTo(id) < 0);
+            previous = id;
+        }
+        assertEquals(1_600_000_000_000L, UlidGenerator.timestamp(previous));
+    }
+
+    @Test
+    public void idsAreUniqueAcrossThreads() throws Exception
+    {
+        final UlidGenerator generator = new UlidGenerator();
+        final Set<String> ids = ConcurrentHashMap.newKeySet();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++)
+            {
+                futures.add(executor.submit(() ->
+                {
+                    for (int i = 0; i < 10_000; i++)
+                    {
+                        ids.add(generator.nextId());
+                    }
+                }));
+            }
+            for (Future<?> future : futures)
+            {
+                future.get();
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        assertEquals(40_000, ids.size());
+    }
+
+    @Test
+    public void appendsToBuilder()
+    {
+        final StringBuilder sb = new UlidGenerator().appendNextId(new StringBuilder("ROOT-"));
+
+        assertEquals(31, sb.length());
+        assertTrue(sb.toString().startsWith("ROOT-"));
+    }
+}
@@ -3,6 +3,13 @@ package com.reucon.commons.web.exception;
 import com.reucon.commons.web.exception.model.ExceptionReport;
 import com.reucon.commons.web.exception.storage.FilesystemStorage;
 import com.reucon.commons.web.exception.storage.MemoryStorage;
+import com.reucon.commons.web.filter.InputStreamPreservingRequestFilter;
+import com.reucon.commons.web.filter.ResponseCapturingFilter;
+import com.reucon.commons.web.request.CachedHttpRequestWrapper;
+import com.reucon.commons.web.request.CaptureSettings;
+import com.reucon.commons.web.request.CapturedBody;
+import com.reucon.commons.web.request.RetainedBody;
+import com.reucon.commons.web.response.CapturingHttpResponseWrapper;
 import java.io.ByteArrayOutputStream;
 import java.io.CharArrayWriter;
 import java.io.IOException;
@@ -10,11 +17,13 @@ import org.junit.Before;
 import org.junit.Test;
 
 import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.mock.web.MockHttpSession;
 
 import static org.junit.Assert.*;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.not;
 
 public class ExceptionReportGeneratorTest
 {
@@ -177,5 +186,85 @@ public class ExceptionReportGeneratorTest
         String result = new String(payloadOutputStream.toByteArray());
         assertThat("Wrong length '" +result +"'" , result.length(), greaterThan(64));
     }
-    
+
+    @Test
+    public void compressedPayloadIsInflatedOnAccess() throws Exception
+    {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+        {
+            content.append("line ").append(i).append(" of the demo content\n");
+        }
+        httpServletRequest.setContent(content.toString().getBytes());
+        httpServletRequest.setContentType("text/plain");
+        storage.setCompressPayloads(true);
+
+        writeExceptionReport();
+
+        assertTrue(storage.getLastReport().isPayloadCompressed());
+        assertEquals(content.toString(), new String(payloadOutputStream.toByteArray()));
+        assertEquals(content.toString(), payloadOutputStream.toString());
+        assertTrue("reading leaves the payload compressed", storage.getLastReport().isPayloadCompressed());
+
+        payloadOutputStream.write('!');
+        assertFalse(storage.getLastReport().isPayloadCompressed());
+        assertEquals(content + "!", payloadOutputStream.toString());
+    }
+
+    @Test
+    public void capturedBodyIsRetained() throws Exception
+    {
+        httpServletRequest.setContent("demo content".getBytes());
+        final CapturedBody body = new CachedHttpRequestWrapper(httpServletRequest, true).getBody();
+        httpServletRequest.setAttribute(InputStreamPreservingRequestFilter.REQUEST_ATTRIBUTE, body);
+        reportGenerator.setMaxRetainedBodySize(4);
+
+        reportGenerator.retainCapturedBody(httpServletRequest);
+        body.release();
+
+        final Object retained = httpServletRequest.getAttribute(InputStreamPreservingRequestFilter.REQUEST_ATTRIBUTE);
+        assertTrue(retained instanceof RetainedBody);
+        assertEquals("demo", new String(((CapturedBody) retained).toByteArray()));
+    }
+
+    @Test
+    public void headTailPayloadContainsElisionMarker() throws Exception
+    {
+        httpServletRequest.setContent("0123456789abcdefghij".getBytes());
+        final CaptureSettings settings = new CaptureSettings();
+        settings.setHeadSize(3);
+        settings.setTailSize(3);
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(httpServletRequest, settings);
+        while (wrapper.getInputStream().read() != -1)
+        {
+            // consume
+        }
+        httpServletRequest.setAttribute(InputStreamPreservingRequestFilter.REQUEST_ATTRIBUTE, wrapper.getBody());
+
+        writeExceptionReport();
+
+        final String payload = new String(payloadOutputStream.toByteArray());
+        assertThat(payload, containsString("012\n--elided 14 of 20 bytes, adler32 "));
+        assertThat(payload, containsString("--\nhij"));
+    }
+
+    @Test
+    public void reportContainsCapturedResponse() throws Exception
+    {
+        final CapturingHttpResponseWrapper response = new CapturingHttpResponseWrapper(new MockHttpServletResponse(), 1024);
+        response.setStatus(500);
+        response.setContentType("text/plain");
+        response.addHeader("X-Trace", "abc");
+        response.getWriter().write("Internal error");
+        httpServletRequest.setAttribute(ResponseCapturingFilter.REQUEST_ATTRIBUTE, response.getCaptured());
+
+        writeExceptionReport();
+
+        final String report = writer.toString();
+        assertThat(report, containsString("Response:"));
+        assertThat(report, containsString("Status:                500"));
+        assertThat(report, containsString("X-Trace: abc"));
+        assertThat(report, containsString("Internal error"));
+        assertThat(report, not(containsString(ResponseCapturingFilter.REQUEST_ATTRIBUTE)));
+    }
 }
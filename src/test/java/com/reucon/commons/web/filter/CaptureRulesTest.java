@@ -0,0 +1,97 @@
+package com.reucon.commons.web.filter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.junit.Assert.*;
+
+public class CaptureRulesTest
+{
+    private CaptureRules rules;
+    private MockHttpServletRequest request;
+
+    @Before
+    public void setUp()
+    {
+        rules = new CaptureRules();
+        request = new MockHttpServletRequest("POST", "/app/api/orders");
+        request.setServletPath("/api");
+        request.setPathInfo("/orders");
+        request.setContentType("application/json; charset=UTF-8");
+        request.setContent(new byte[100]);
+    }
+
+    @Test
+    public void emptyRulesMatchEverything()
+    {
+        assertTrue(rules.matches(request));
+    }
+
+    @Test
+    public void paths()
+    {
+        rules.setPaths("/api/**");
+        assertTrue(rules.matches(request));
+
+        rules.setPaths("/static/**, /api/*/edit");
+        assertFalse(rules.matches(request));
+    }
+
+    @Test
+    public void methods()
+    {
+        rules.setMethods("put, post");
+        assertTrue(rules.matches(request));
+
+        rules.setMethods("GET");
+        assertFalse(rules.matches(request));
+
+        request.setMethod("PROPFIND");
+        assertFalse(rules.matches(request));
+    }
+
+    @Test
+    public void contentTypes()
+    {
+        rules.setContentTypes("text/,Application/JSON");
+        assertTrue(rules.matches(request));
+
+        rules.setContentTypes("application/xml");
+        assertFalse(rules.matches(request));
+
+        request.setContentType(null);
+        assertFalse(rules.matches(request));
+    }
+
+    @Test
+    public void maxContentLength()
+    {
+        rules.setMaxContentLength(100);
+        assertTrue(rules.matches(request));
+
+        rules.setMaxContentLength(99);
+        assertFalse(rules.matches(request));
+    }
+
+    @Test
+    public void samplingRate()
+    {
+        rules.setSamplingRate(0.0);
+        assertFalse(rules.matches(request));
+
+        rules.setSamplingRate(0.5);
+        int matches = 0;
+        for (int i = 0; i < 1000; i++)
+        {
+            matches += rules.matches(request) ? 1 : 0;
+        }
+        assertTrue(matches > 300 && matches < 700);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSamplingRate()
+    {
+        rules.setSamplingRate(1.5);
+    }
+}
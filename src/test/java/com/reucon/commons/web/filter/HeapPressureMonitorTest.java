@@ -0,0 +1,128 @@
+package com.reucon.commons.web.filter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.ObjectName;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterConfig;
+
+import static org.junit.Assert.*;
+
+public class HeapPressureMonitorTest
+{
+    private StubMonitor monitor;
+
+    @Before
+    public void setUp()
+    {
+        monitor = new StubMonitor();
+        monitor.setRecheckInterval(0);
+    }
+
+    @Test
+    public void levelDegradesInSteps()
+    {
+        assertEquals(CaptureLevel.FULL, monitor.update());
+
+        monitor.occupancy = 0.75;
+        assertEquals(CaptureLevel.TRUNCATED, monitor.update());
+
+        monitor.occupancy = 0.85;
+        assertEquals(CaptureLevel.HEADERS_ONLY, monitor.update());
+
+        monitor.occupancy = 0.95;
+        assertEquals(CaptureLevel.OFF, monitor.update());
+        assertEquals(3, monitor.getCaptureLevelOrdinal());
+        assertEquals(3, monitor.getLevelChanges());
+    }
+
+    @Test
+    public void recoveryUsesHysteresis()
+    {
+        monitor.occupancy = 0.95;
+        monitor.update();
+
+        monitor.occupancy = 0.85;
+        assertEquals(CaptureLevel.OFF, monitor.getLevel());
+
+        monitor.occupancy = 0.79;
+        assertEquals(CaptureLevel.HEADERS_ONLY, monitor.getLevel());
+
+        monitor.occupancy = 0.65;
+        assertEquals(CaptureLevel.TRUNCATED, monitor.getLevel());
+
+        monitor.occupancy = 0.5;
+        assertEquals(CaptureLevel.FULL, monitor.getLevel());
+        assertEquals("FULL", monitor.getCaptureLevel());
+    }
+
+    @Test
+    public void fullCaptureIsNotPolled()
+    {
+        monitor.update();
+        monitor.occupancy = 0.95;
+
+        assertEquals(CaptureLevel.FULL, monitor.getLevel());
+    }
+
+    @Test
+    public void thresholdsAreRestoredOnStop()
+    {
+        final List<Long> before = thresholds();
+
+        final HeapPressureMonitor real = new HeapPressureMonitor();
+        real.start();
+        real.stop();
+
+        assertEquals(before, thresholds());
+    }
+
+    private static List<Long> thresholds()
+    {
+        final List<Long> thresholds = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.isUsageThresholdSupported())
+            {
+                thresholds.add(pool.getUsageThreshold());
+            }
+            if (pool.isCollectionUsageThresholdSupported())
+            {
+                thresholds.add(pool.getCollectionUsageThreshold());
+            }
+        }
+        return thresholds;
+    }
+
+    @Test
+    public void filterRegistersMonitorAsMBean() throws Exception
+    {
+        final InputStreamPreservingRequestFilter filter = new InputStreamPreservingRequestFilter();
+        filter.setHeapPressureMonitor(monitor);
+        filter.init(new MockFilterConfig("preservingFilter"));
+        final ObjectName name = new ObjectName("com.reucon.commons:type=HeapPressureMonitor,name=\"preservingFilter\"");
+        try
+        {
+            assertEquals("FULL", ManagementFactory.getPlatformMBeanServer().getAttribute(name, "CaptureLevel"));
+        }
+        finally
+        {
+            filter.destroy();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    static class StubMonitor extends HeapPressureMonitor
+    {
+        double occupancy;
+
+        @Override
+        protected double measureOccupancy()
+        {
+            return occupancy;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.reucon.commons.web.filter;
+
+import com.reucon.commons.web.request.CapturedBody;
+import com.reucon.commons.web.request.RetainedBody;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.FileCopyUtils;
+
+import static org.junit.Assert.*;
+
+public class InputStreamPreservingRequestFilterTest
+{
+    private static final String CONTENT = "{\"name\": \"Hirsch\", \"value\": 42}";
+
+    private InputStreamPreservingRequestFilter filter;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @Before
+    public void setUp()
+    {
+        filter = new InputStreamPreservingRequestFilter();
+        request = new MockHttpServletRequest("POST", "/api");
+        request.setContentType("application/json");
+        request.setContent(CONTENT.getBytes());
+        response = new MockHttpServletResponse();
+    }
+
+    @Test
+    public void bodyIsExposedAsAttribute() throws Exception
+    {
+        final AtomicReference<CapturedBody> body = new AtomicReference<>();
+        filter.doFilter(request, response, new MockFilterChain()
+        {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException
+            {
+                assertEquals(CONTENT, new String(FileCopyUtils.copyToByteArray(request.getInputStream())));
+                body.set((CapturedBody) request.getAttribute(InputStreamPreservingRequestFilter.REQUEST_ATTRIBUTE));
+                assertEquals(CONTENT, new String(body.get().toByteArray()));
+            }
+        });
+
+        assertEquals(CONTENT.length(), body.get().length());
+    }
+
+    @Test(expected = IOException.class)
+    public void bodyIsReleasedWhenRequestCompletes() throws Exception
+    {
+        filter.setLazyCapture(true);
+        filter.setMemoryThreshold(8);
+        final AtomicReference<CapturedBody> body = new AtomicReference<>();
+        filter.doFilter(request, response, new MockFilterChain()
+        {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response)
+            {
+                body.set((CapturedBody) request.getAttribute(InputStreamPreservingRequestFilter.REQUEST_ATTRIBUTE));
+            }
+        });
+
+        body.get().toByteArray();
+    }
+
+    @Test
+    public void nonMatchingRequestIsPassedOnUnwrapped() throws Exception
+    {
+        filter.setCaptureMethods("PUT");
+        final MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter(request, response, chain);
+
+        assertSame(request, chain.getRequest());
+        assertNull(request.getAttribute(InputStreamPreservingRequestFilter.REQUEST_ATTRIBUTE));
+    }
+
+    @Test
+    public void bodyIsRetainedOnServerError() throws Exception
+    {
+        filter.setRetainOnError(true);
+        filter.doFilter(request, response, new MockFilterChain()
+        {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response)
+            {
+                ((HttpServletResponse) response).setStatus(HttpServletResponse.SC_BAD_GATEWAY);
+            }
+        });
+
+        final Object body = request.getAttribute(InputStreamPreservingRequestFilter.REQUEST_ATTRIBUTE);
+        assertTrue(body instanceof RetainedBody);
+        assertEquals(CONTENT, new String(((CapturedBody) body).toByteArray()));
+    }
+
+    @Test
+    public void bodyIsRetainedOnAsyncServerError() throws Exception
+    {
+        filter.setRetainOnError(true);
+        request.setAsyncSupported(true);
+        filter.doFilter(request, response, new MockFilterChain()
+        {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException
+            {
+                FileCopyUtils.copyToByteArray(request.getInputStream());
+                request.startAsync(request, response);
+            }
+        });
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        ((MockAsyncContext) request.getAsyncContext()).complete();
+
+        final Object body = request.getAttribute(InputStreamPreservingRequestFilter.REQUEST_ATTRIBUTE);
+        assertTrue(body instanceof RetainedBody);
+        assertEquals(CONTENT, new String(((CapturedBody) body).toByteArray()));
+    }
+
+    @Test
+    public void bodyIsRetainedOnException() throws Exception
+    {
+        filter.setRetainOnError(true);
+        try
+        {
+            filter.doFilter(request, response, new MockFilterChain()
+            {
+                @Override
+                public void doFilter(ServletRequest request, ServletResponse response) throws ServletException
+                {
+                    throw new ServletException("failed");
+                }
+            });
+            fail("ServletException expected");
+        }
+        catch (ServletException e)
+        {
+            // expected
+        }
+
+        assertTrue(request.getAttribute(InputStreamPreservingRequestFilter.REQUEST_ATTRIBUTE) instanceof RetainedBody);
+    }
+
+    @Test
+    public void bodyIsNotRetainedOnSuccess() throws Exception
+    {
+        filter.setRetainOnError(true);
+        filter.doFilter(request, response, new MockFilterChain());
+
+        assertFalse(request.getAttribute(InputStreamPreservingRequestFilter.REQUEST_ATTRIBUTE) instanceof RetainedBody);
+    }
+
+    @Test
+    public void captureDegradesUnderHeapPressure() throws Exception
+    {
+        final HeapPressureMonitorTest.StubMonitor monitor = new HeapPressureMonitorTest.StubMonitor();
+        filter.setHeapPressureMonitor(monitor);
+        filter.setTruncatedCaptureSize(8);
+        final AtomicReference<Object> body = new AtomicReference<>();
+        final MockFilterChain chain = new MockFilterChain()
+        {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException
+            {
+                FileCopyUtils.copyToByteArray(request.getInputStream());
+                body.set(request.getAttribute(InputStreamPreservingRequestFilter.REQUEST_ATTRIBUTE));
+            }
+        };
+
+        monitor.occupancy = 0.75;
+        monitor.update();
+        filter.doFilter(request, response, chain);
+        assertEquals(CaptureLevel.TRUNCATED, filter.getCaptureLevel());
+        assertTrue(new String(((CapturedBody) body.get()).toByteArray()).startsWith(CONTENT.substring(0, 8) + "\n--elided"));
+
+        monitor.occupancy = 0.85;
+        monitor.update();
+        filter.doFilter(request, response, chain);
+        assertSame(RetainedBody.EMPTY, body.get());
+
+        monitor.occupancy = 0.95;
+        monitor.update();
+        request.removeAttribute(InputStreamPreservingRequestFilter.REQUEST_ATTRIBUTE);
+        filter.doFilter(request, response, chain);
+        assertNull(body.get());
+    }
+}
@@ -0,0 +1,56 @@
+package com.reucon.commons.web.filter;
+
+import com.reucon.commons.web.response.CapturedResponse;
+import java.io.IOException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.Assert.*;
+
+public class ResponseCapturingFilterTest
+{
+    @Test
+    public void responseIsExposedAsAttribute() throws Exception
+    {
+        final ResponseCapturingFilter filter = new ResponseCapturingFilter();
+        filter.setMaxBodySize(5);
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(request, response, new MockFilterChain()
+        {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException
+            {
+                ((HttpServletResponse) response).setStatus(500);
+                response.getWriter().write("failure");
+            }
+        });
+
+        final CapturedResponse captured = (CapturedResponse) request.getAttribute(ResponseCapturingFilter.REQUEST_ATTRIBUTE);
+        assertEquals(500, captured.getStatus());
+        assertEquals("failu", captured.getBody());
+        assertEquals("failure", response.getContentAsString());
+    }
+
+    @Test
+    public void dispatchKeepsOriginalCapture() throws Exception
+    {
+        final ResponseCapturingFilter filter = new ResponseCapturingFilter();
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, new MockFilterChain());
+        final Object captured = request.getAttribute(ResponseCapturingFilter.REQUEST_ATTRIBUTE);
+
+        final MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(request, response, chain);
+
+        assertSame(captured, request.getAttribute(ResponseCapturingFilter.REQUEST_ATTRIBUTE));
+        assertSame(response, chain.getResponse());
+    }
+}
@@ -0,0 +1,202 @@
+package com.reucon.commons.web.filter;
+
+import com.reucon.commons.web.RemoteHostResolver;
+import com.reucon.commons.web.exception.renderer.JacksonExceptionRenderer;
+import com.reucon.commons.web.exception.renderer.StringExceptionRenderer;
+import com.reucon.commons.web.exception.storage.MemoryStorage;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockFilterConfig;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.*;
+
+public class SlowRequestFilterTest
+{
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private SlowRequestFilter filter;
+    private MemoryStorage storage;
+    private Thread requestThread;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        storage = new MemoryStorage();
+        filter = new SlowRequestFilter();
+        filter.setStorage(storage);
+        filter.setRenderer(new StringExceptionRenderer());
+        filter.setThreshold(0);
+        filter.setSampleInterval(0);
+        filter.setMaxSamples(3);
+        // keep the watchdog out of the way, the tests scan themselves
+        filter.setScanInterval(TimeUnit.HOURS.toMillis(1));
+        filter.init(new MockFilterConfig());
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        release.countDown();
+        if (requestThread != null)
+        {
+            requestThread.join(5000);
+        }
+        filter.destroy();
+    }
+
+    @Test
+    public void reportWrittenWhenSlowRequestCompletes() throws Exception
+    {
+        startRequest();
+        filter.scan(System.nanoTime());
+        filter.scan(System.nanoTime());
+        assertNull("no report while sampling", storage.getLastReport());
+
+        release.countDown();
+        requestThread.join(5000);
+        filter.scan(System.nanoTime());
+
+        final String report = storage.getLastReport().exceptionMetadataWriter().toString();
+        assertThat(report, containsString("SlowRequestException: Request completed after"));
+        assertThat(report, containsString("RequestURI:            /slow"));
+        assertThat(report, containsString("Suppressed: "));
+        assertThat(report, containsString("CountDownLatch.await"));
+        assertThat("parameters are not read in flight", report, not(containsString("secret")));
+        assertEquals(0, filter.getInFlightCount());
+    }
+
+    @Test
+    public void reportWrittenAfterMaxSamples() throws Exception
+    {
+        startRequest();
+        filter.scan(System.nanoTime());
+        filter.scan(System.nanoTime());
+        filter.scan(System.nanoTime());
+
+        final String report = storage.getLastReport().exceptionMetadataWriter().toString();
+        assertThat(report, containsString("still running after"));
+        assertEquals(1, filter.getInFlightCount());
+    }
+
+    @Test
+    public void jsonReportContainsSamples() throws Exception
+    {
+        filter.setRenderer(new JacksonExceptionRenderer());
+        startRequest();
+        filter.scan(System.nanoTime());
+        filter.scan(System.nanoTime());
+        filter.scan(System.nanoTime());
+
+        final String report = storage.getLastReport().exceptionMetadataWriter().toString();
+        assertThat(report, containsString("\"durationMillis\""));
+        assertThat(report, containsString("\"suppressed\""));
+    }
+
+    @Test
+    public void reportsAreRateLimited() throws Exception
+    {
+        filter.setMaxReportsPerMinute(0);
+        startRequest();
+        filter.scan(System.nanoTime());
+        filter.scan(System.nanoTime());
+        filter.scan(System.nanoTime());
+
+        assertNull(storage.getLastReport());
+    }
+
+    @Test
+    public void reportContainsSnapshotTakenWhenRequestWasRegistered() throws Exception
+    {
+        final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/slow");
+        startRequest(request);
+        request.setRequestURI("/changed");
+        filter.scan(System.nanoTime());
+
+        release.countDown();
+        requestThread.join(5000);
+        filter.scan(System.nanoTime());
+
+        final String report = storage.getLastReport().exceptionMetadataWriter().toString();
+        assertThat(report, containsString("RequestURI:            /slow"));
+    }
+
+    @Test
+    public void reportUsesResolvers() throws Exception
+    {
+        final RemoteHostResolver remoteHostResolver = new RemoteHostResolver(address -> "proxy.example.com");
+        remoteHostResolver.setExecutor(Runnable::run);
+        remoteHostResolver.resolve("127.0.0.1");
+        filter.setRemoteHostResolver(remoteHostResolver);
+        filter.setTrustedProxies("127.0.0.1/32");
+        final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/slow");
+        request.addHeader("X-Forwarded-For", "203.0.113.7");
+        startRequest(request);
+        filter.scan(System.nanoTime());
+
+        release.countDown();
+        requestThread.join(5000);
+        filter.scan(System.nanoTime());
+
+        final String report = storage.getLastReport().exceptionMetadataWriter().toString();
+        assertThat(report, containsString("RemoteHost:            proxy.example.com"));
+        assertThat(report, containsString("ClientIp:              203.0.113.7"));
+    }
+
+    @Test
+    public void fastRequestIsNotReported() throws Exception
+    {
+        filter.setThreshold(TimeUnit.HOURS.toMillis(1));
+        startRequest();
+        filter.scan(System.nanoTime());
+
+        release.countDown();
+        requestThread.join(5000);
+        filter.scan(System.nanoTime());
+
+        assertNull(storage.getLastReport());
+    }
+
+    private void startRequest() throws InterruptedException
+    {
+        final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/slow");
+        request.addParameter("password", "secret");
+        startRequest(request);
+    }
+
+    private void startRequest(MockHttpServletRequest request) throws InterruptedException
+    {
+        requestThread = new Thread(() ->
+        {
+            try
+            {
+                filter.doFilter(request, new MockHttpServletResponse(), (req, res) ->
+                {
+                    entered.countDown();
+                    try
+                    {
+                        release.await(5, TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            catch (IOException | ServletException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        });
+        requestThread.start();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+    }
+}
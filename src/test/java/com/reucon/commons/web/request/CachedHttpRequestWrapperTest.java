@@ -0,0 +1,214 @@
+package com.reucon.commons.web.request;
+
+import java.io.File;
+import java.io.InputStream;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.util.FileCopyUtils;
+
+import static org.junit.Assert.*;
+
+public class CachedHttpRequestWrapperTest
+{
+    private static final String CONTENT = "This is the demo content.\n123\nend of demo content.";
+
+    private MockHttpServletRequest request;
+
+    @Before
+    public void setUp()
+    {
+        request = new MockHttpServletRequest("POST", "/upload");
+        request.setContentType("text/plain");
+        request.setContent(CONTENT.getBytes());
+    }
+
+    @Test
+    public void eagerCaptureDrainsBody() throws Exception
+    {
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request);
+
+        assertEquals(-1, request.getInputStream().read());
+        assertEquals(CONTENT, new String(wrapper.getBytes()));
+        assertEquals(CONTENT, new String(FileCopyUtils.copyToByteArray(wrapper.getInputStream())));
+    }
+
+    @Test
+    public void lazyCaptureDoesNotReadUpFront() throws Exception
+    {
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, true);
+
+        assertEquals('T', request.getInputStream().read());
+        assertEquals(CONTENT.substring(1), new String(wrapper.getBytes()));
+    }
+
+    @Test
+    public void lazyCaptureTeesWhileReading() throws Exception
+    {
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, true);
+
+        final InputStream first = wrapper.getInputStream();
+        final byte[] head = new byte[10];
+        assertEquals(10, first.read(head));
+        assertEquals(CONTENT.substring(0, 10), new String(head));
+
+        assertEquals(CONTENT, new String(FileCopyUtils.copyToByteArray(wrapper.getInputStream())));
+        assertEquals(10, first.read(head));
+        assertEquals(CONTENT.substring(10, 20), new String(head));
+    }
+
+    @Test
+    public void lazyCaptureDrainsOnDemand() throws Exception
+    {
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, true);
+
+        final byte[] head = new byte[5];
+        assertEquals(5, wrapper.getInputStream().read(head));
+
+        assertEquals(CONTENT, new String(wrapper.getBytes()));
+        assertEquals(CONTENT, new String(wrapper.getBody().toByteArray()));
+    }
+
+    @Test
+    public void readerUsesCache() throws Exception
+    {
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, true);
+
+        assertEquals("This is the demo content.", wrapper.getReader().readLine());
+        assertEquals(CONTENT, new String(wrapper.getBytes()));
+    }
+
+    @Test
+    public void smallBodyStaysInMemory() throws Exception
+    {
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, false, 1024);
+
+        assertFalse(((CachedBody) wrapper.getBody()).isSpilled());
+        assertEquals(CONTENT.length(), wrapper.getBody().length());
+    }
+
+    @Test
+    public void largeBodyIsSpilledAndDeletedOnRelease() throws Exception
+    {
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, true, 16);
+        final CachedBody body = (CachedBody) wrapper.getBody();
+
+        assertEquals(CONTENT.substring(0, 25), wrapper.getReader().readLine());
+        assertTrue(body.isSpilled());
+        assertEquals(CONTENT, new String(body.toByteArray()));
+        assertEquals(CONTENT, new String(FileCopyUtils.copyToByteArray(body.openStream())));
+
+        final File[] before = tempFiles();
+        body.release();
+        assertEquals(before.length - 1, tempFiles().length);
+    }
+
+    @Test
+    public void promotedBodyOutlivesRelease() throws Exception
+    {
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, true, 16);
+        final CapturedBody body = wrapper.getBody();
+
+        final RetainedBody retained = (RetainedBody) body.promote(1024);
+        body.release();
+
+        assertEquals(CONTENT, new String(retained.toByteArray()));
+        assertEquals(CONTENT.length(), retained.getOriginalLength());
+        assertFalse(retained.isTruncated());
+        assertSame(retained, retained.promote(10));
+    }
+
+    @Test
+    public void promotedBodyIsTruncated() throws Exception
+    {
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request);
+
+        final RetainedBody retained = (RetainedBody) wrapper.getBody().promote(10);
+
+        assertEquals(CONTENT.substring(0, 10), new String(retained.toByteArray()));
+        assertTrue(retained.isTruncated());
+        assertFalse(((RetainedBody) wrapper.getBody().promote(CONTENT.length())).isTruncated());
+    }
+
+    @Test
+    public void completedBodyIsCompressed() throws Exception
+    {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+        {
+            content.append(CONTENT);
+        }
+        request.setContent(content.toString().getBytes());
+        final CaptureSettings settings = new CaptureSettings();
+        settings.setLazy(true);
+        settings.setCompress(true);
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, settings);
+        final CachedBody body = (CachedBody) wrapper.getBody();
+
+        final InputStream first = wrapper.getInputStream();
+        assertEquals(content.toString(), new String(FileCopyUtils.copyToByteArray(first)));
+        assertTrue(body.isCompressed());
+        assertEquals(content.length(), body.length());
+
+        final InputStream replay = wrapper.getInputStream();
+        assertEquals(100, replay.skip(100));
+        replay.mark(0);
+        final byte[] part = new byte[10];
+        assertEquals(10, replay.read(part));
+        assertEquals(content.substring(100, 110), new String(part));
+        replay.reset();
+        assertEquals(content.substring(100), new String(FileCopyUtils.copyToByteArray(replay)));
+        assertEquals(content.toString(), new String(body.toByteArray()));
+    }
+
+    @Test
+    public void smallBodyIsNotCompressed() throws Exception
+    {
+        final CaptureSettings settings = new CaptureSettings();
+        settings.setCompress(true);
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, settings);
+
+        assertFalse(((CachedBody) wrapper.getBody()).isCompressed());
+        assertEquals(CONTENT, new String(wrapper.getBytes()));
+    }
+
+    private File[] tempFiles()
+    {
+        return new File(System.getProperty("java.io.tmpdir")).listFiles((dir, name) -> name.startsWith("reucon-body-"));
+    }
+
+    @Test
+    public void formPostPreservesRawBody() throws Exception
+    {
+        final String form = "b=2&a=%C3%A4+x&b=3&flag";
+        final MockHttpServletRequest formRequest = new MockHttpServletRequest("POST", "/form");
+        formRequest.setContentType("application/x-www-form-urlencoded");
+        formRequest.setCharacterEncoding("UTF-8");
+        formRequest.setContent(form.getBytes());
+        formRequest.setParameter("q", "query");
+
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(formRequest, true);
+
+        assertEquals("query", wrapper.getParameter("q"));
+        assertEquals("\u00e4 x", wrapper.getParameter("a"));
+        assertArrayEquals(new String[]{"2", "3"}, wrapper.getParameterValues("b"));
+        assertEquals("", wrapper.getParameter("flag"));
+        assertEquals(4, wrapper.getParameterMap().size());
+        assertEquals(form, new String(wrapper.getBytes()));
+    }
+
+    @Test
+    public void formPostDecodesUnescapedBytesWithRequestEncoding() throws Exception
+    {
+        final MockHttpServletRequest formRequest = new MockHttpServletRequest("POST", "/form");
+        formRequest.setContentType("application/x-www-form-urlencoded");
+        formRequest.setCharacterEncoding("UTF-8");
+        formRequest.setContent("a=\u00e4%C3%B6&b=50%&c=%zz".getBytes("UTF-8"));
+
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(formRequest, true);
+
+        assertEquals("\u00e4\u00f6", wrapper.getParameter("a"));
+        assertEquals("50%", wrapper.getParameter("b"));
+        assertEquals("%zz", wrapper.getParameter("c"));
+    }
+}
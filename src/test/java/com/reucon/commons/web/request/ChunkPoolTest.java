@@ -0,0 +1,65 @@
+package com.reucon.commons.web.request;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.junit.Assert.*;
+
+public class ChunkPoolTest
+{
+    private ChunkPool pool;
+
+    @Before
+    public void setUp()
+    {
+        pool = new ChunkPool(new int[]{16, 64}, 1, 2);
+    }
+
+    @Test
+    public void acquireUsesSizeClasses()
+    {
+        assertEquals(16, pool.acquire(0).length);
+        assertEquals(64, pool.acquire(1).length);
+        assertEquals(64, pool.acquire(5).length);
+        assertEquals(3, pool.getMisses());
+    }
+
+    @Test
+    public void releasedChunksAreReused()
+    {
+        final byte[] chunk = pool.acquire(1);
+        pool.release(chunk);
+
+        assertSame(chunk, pool.acquire(1));
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    public void fullPoolDiscardsChunks()
+    {
+        pool.release(new byte[16]);
+        pool.release(new byte[16]);
+        pool.release(new byte[16]);
+        pool.release(new byte[17]);
+
+        assertEquals(1, pool.getDiscards());
+    }
+
+    @Test
+    public void bodyReturnsChunksOnRelease() throws Exception
+    {
+        final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/upload");
+        request.setContent("0123456789012345678901234567890123456789".getBytes());
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, false, CachedBody.UNLIMITED, pool);
+
+        assertEquals("0123456789012345678901234567890123456789", new String(wrapper.getBytes()));
+        assertEquals(2, pool.getMisses());
+
+        wrapper.getBody().release();
+        pool.acquire(0);
+        pool.acquire(1);
+        assertEquals(2, pool.getHits());
+    }
+}
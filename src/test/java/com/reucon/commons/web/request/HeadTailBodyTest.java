@@ -0,0 +1,116 @@
+package com.reucon.commons.web.request;
+
+import java.util.zip.Adler32;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.util.FileCopyUtils;
+
+import static org.junit.Assert.*;
+
+public class HeadTailBodyTest
+{
+    private static final String CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+    private MockHttpServletRequest request;
+    private CaptureSettings settings;
+
+    @Before
+    public void setUp()
+    {
+        request = new MockHttpServletRequest("POST", "/upload");
+        request.setContentType("application/octet-stream");
+        request.setContent(CONTENT.getBytes());
+        settings = new CaptureSettings();
+        settings.setHeadSize(4);
+        settings.setTailSize(6);
+    }
+
+    @Test
+    public void bodyIsPassedThrough() throws Exception
+    {
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, settings);
+        final HeadTailBody body = (HeadTailBody) wrapper.getBody();
+
+        assertEquals(0, body.length());
+        assertEquals(CONTENT, new String(FileCopyUtils.copyToByteArray(wrapper.getInputStream())));
+
+        assertEquals("0123", new String(body.getHead()));
+        assertEquals("uvwxyz", new String(body.getTail()));
+        assertEquals(CONTENT.length(), body.length());
+        assertEquals(CONTENT.length() - 10, body.getElided());
+        assertTrue(body.isComplete());
+
+        final Adler32 adler32 = new Adler32();
+        adler32.update(CONTENT.getBytes());
+        assertEquals(adler32.getValue(), body.getChecksum());
+    }
+
+    @Test
+    public void tailIsKeptAcrossSmallReads() throws Exception
+    {
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, settings);
+        final HeadTailBody body = (HeadTailBody) wrapper.getBody();
+
+        final byte[] buffer = new byte[5];
+        while (wrapper.getInputStream().read(buffer, 0, 5) != -1)
+        {
+            // consume
+        }
+
+        assertEquals("uvwxyz", new String(body.getTail()));
+    }
+
+    @Test
+    public void renderingContainsElisionMarker() throws Exception
+    {
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, settings);
+        FileCopyUtils.copyToByteArray(wrapper.getInputStream());
+
+        final String rendered = new String(wrapper.getBytes());
+
+        assertTrue(rendered, rendered.startsWith("0123\n--elided 26 of 36 bytes, adler32 "));
+        assertTrue(rendered, rendered.endsWith("--\nuvwxyz"));
+    }
+
+    @Test
+    public void unreadBodyOnlyFillsHead() throws Exception
+    {
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, settings);
+        final HeadTailBody body = (HeadTailBody) wrapper.getBody();
+
+        assertSame(body, body.promote(1024));
+        assertEquals("0123", new String(body.getHead()));
+        assertEquals(4, body.length());
+        assertFalse(body.isComplete());
+        assertTrue(body.getElisionMarker().contains("not read to the end"));
+    }
+
+    @Test
+    public void drainedHeadIsReplayedToApplication() throws Exception
+    {
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, settings);
+        final HeadTailBody body = (HeadTailBody) wrapper.getBody();
+        assertEquals('0', wrapper.getInputStream().read());
+
+        body.toByteArray();
+
+        assertEquals(CONTENT.substring(1), new String(FileCopyUtils.copyToByteArray(wrapper.getInputStream())));
+        assertEquals(CONTENT.length(), body.length());
+        assertTrue(body.isComplete());
+        final Adler32 checksum = new Adler32();
+        checksum.update(CONTENT.getBytes());
+        assertEquals(checksum.getValue(), body.getChecksum());
+    }
+
+    @Test
+    public void shortBodyIsCapturedCompletely() throws Exception
+    {
+        request.setContent("short".getBytes());
+
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, settings);
+
+        assertTrue(wrapper.getBody() instanceof CachedBody);
+        assertEquals("short", new String(wrapper.getBytes()));
+    }
+}
@@ -0,0 +1,142 @@
+package com.reucon.commons.web.request;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockPart;
+import org.springframework.util.FileCopyUtils;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.*;
+
+public class MultipartBodyTest
+{
+    private static final String BOUNDARY = "----boundary42";
+
+    private MockHttpServletRequest request;
+    private CaptureSettings settings;
+    private byte[] content;
+    private byte[] binary;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        binary = new byte[10000];
+        for (int i = 0; i < binary.length; i++)
+        {
+            binary[i] = (byte) (i % 7 == 0 ? '\r' : i);
+        }
+
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        os.write(("preamble\r\n--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"comment\"\r\n\r\n"
+                + "Hello\r\nWorld\r\n--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"upload\"; filename=\"data.bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        os.write(binary);
+        os.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        content = os.toByteArray();
+
+        request = new MockHttpServletRequest("POST", "/upload");
+        request.setContentType("multipart/form-data; boundary=" + BOUNDARY);
+        request.setContent(content);
+        settings = new CaptureSettings();
+    }
+
+    @Test
+    public void bodyIsPassedThroughAndSummarized() throws Exception
+    {
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, settings);
+
+        assertArrayEquals(content, FileCopyUtils.copyToByteArray(wrapper.getInputStream()));
+
+        final MultipartBody body = (MultipartBody) wrapper.getBody();
+        final List<CapturedPart> parts = body.getParts();
+        assertEquals(content.length, body.length());
+        assertEquals(2, parts.size());
+
+        assertEquals("comment", parts.get(0).getName());
+        assertEquals("Hello\r\nWorld", new String(parts.get(0).getContent(), StandardCharsets.ISO_8859_1));
+        assertFalse(parts.get(0).isBinary());
+
+        assertEquals("upload", parts.get(1).getName());
+        assertEquals("data.bin", parts.get(1).getFileName());
+        assertEquals("application/octet-stream", parts.get(1).getContentType());
+        assertEquals(binary.length, parts.get(1).getLength());
+        assertTrue(parts.get(1).isComplete());
+        assertNull(parts.get(1).getContent());
+        assertEquals(64, parts.get(1).getSha256().length());
+
+        final String summary = new String(body.toByteArray(), StandardCharsets.ISO_8859_1);
+        assertThat(summary, containsString("[binary content: 10000 bytes, SHA-256 "));
+    }
+
+    @Test
+    public void bodyIsSummarizedAfterItHasBeenRead() throws Exception
+    {
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, settings);
+        FileCopyUtils.copyToByteArray(wrapper.getInputStream());
+
+        final String summary = new String(wrapper.getBytes(), StandardCharsets.ISO_8859_1);
+
+        assertThat(summary, containsString("name=\"comment\"\r\n\r\nHello\r\nWorld\r\n"));
+        assertEquals(2, ((MultipartBody) wrapper.getBody()).getParts().size());
+    }
+
+    @Test
+    public void unreadBodyIsNotDrainedToSummarizeIt() throws Exception
+    {
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, settings);
+
+        wrapper.getBody().toByteArray();
+        wrapper.getBody().promote(1024);
+
+        assertArrayEquals(content, FileCopyUtils.copyToByteArray(wrapper.getInputStream()));
+        assertEquals(2, ((MultipartBody) wrapper.getBody()).getParts().size());
+    }
+
+    @Test
+    public void textPartsAreTruncated() throws Exception
+    {
+        settings.setMaxTextPartSize(3);
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, settings);
+        FileCopyUtils.copyToByteArray(wrapper.getInputStream());
+
+        final CapturedPart part = ((MultipartBody) wrapper.getBody()).getParts().get(0);
+        assertEquals("Hel", new String(part.getContent(), StandardCharsets.ISO_8859_1));
+        assertEquals(12, part.getLength());
+        assertTrue(part.isTruncated());
+    }
+
+    @Test
+    public void parsingStopsWhenBudgetIsExceeded() throws Exception
+    {
+        settings.setMultipartBudget(500);
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, settings);
+
+        assertArrayEquals(content, FileCopyUtils.copyToByteArray(wrapper.getInputStream()));
+
+        final MultipartBody body = (MultipartBody) wrapper.getBody();
+        assertTrue(body.isBudgetExceeded());
+        assertEquals(2, body.getParts().size());
+        assertFalse(body.getParts().get(1).isComplete());
+        assertNull(body.getParts().get(1).getSha256());
+        assertThat(new String(body.toByteArray(), StandardCharsets.ISO_8859_1), containsString("[capture stopped after 500 bytes]"));
+    }
+
+    @Test
+    public void containerPartsAreSummarized() throws Exception
+    {
+        request.setContent(new byte[0]);
+        final MockPart part = new MockPart("comment", "container value".getBytes(StandardCharsets.ISO_8859_1));
+        request.addPart(part);
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, settings);
+
+        final String summary = new String(wrapper.getBody().toByteArray(), StandardCharsets.ISO_8859_1);
+
+        assertThat(summary, containsString("container value"));
+    }
+}
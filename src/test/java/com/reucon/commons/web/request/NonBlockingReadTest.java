@@ -0,0 +1,222 @@
+package com.reucon.commons.web.request;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.junit.Assert.*;
+
+public class NonBlockingReadTest
+{
+    private ContainerInputStream containerStream;
+    private MockHttpServletRequest request;
+    private ByteArrayOutputStream received;
+
+    @Before
+    public void setUp()
+    {
+        containerStream = new ContainerInputStream();
+        request = new MockHttpServletRequest("POST", "/upload")
+        {
+            @Override
+            public ServletInputStream getInputStream()
+            {
+                return containerStream;
+            }
+        };
+        request.setAsyncSupported(true);
+        received = new ByteArrayOutputStream();
+    }
+
+    @Test
+    public void asyncRequestIsNotDrainedUpFront() throws Exception
+    {
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, new CaptureSettings());
+
+        assertTrue(wrapper.isLazy());
+        assertEquals(0, containerStream.reads);
+    }
+
+    @Test
+    public void bytesAreCapturedAsTheApplicationReads() throws Exception
+    {
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, new CaptureSettings());
+        final ServletInputStream in = wrapper.getInputStream();
+        final ApplicationListener listener = new ApplicationListener(in);
+        in.setReadListener(listener);
+
+        containerStream.offer("hello ");
+        assertEquals(6, wrapper.getBody().length());
+        assertFalse(in.isFinished());
+
+        containerStream.offer("world");
+        containerStream.complete();
+
+        assertTrue(listener.allDataRead);
+        assertTrue(in.isFinished());
+        assertEquals("hello world", received.toString());
+        assertEquals("hello world", new String(wrapper.getBytes()));
+    }
+
+    @Test
+    public void drainDoesNotBlockWhileDataIsPending() throws Exception
+    {
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, new CaptureSettings());
+        final ServletInputStream in = wrapper.getInputStream();
+        in.setReadListener(new ApplicationListener(in));
+        containerStream.offer("partial");
+
+        assertEquals("partial", new String(wrapper.getBytes()));
+        assertFalse(containerStream.listener == null);
+    }
+
+    @Test
+    public void capturedBodyIsReplayedToListener() throws Exception
+    {
+        final MockHttpServletRequest blockingRequest = new MockHttpServletRequest("POST", "/upload");
+        blockingRequest.setContent("captured".getBytes());
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(blockingRequest);
+        final ServletInputStream in = wrapper.getInputStream();
+        final ApplicationListener listener = new ApplicationListener(in);
+
+        in.setReadListener(listener);
+
+        assertTrue(listener.allDataRead);
+        assertEquals("captured", received.toString());
+    }
+
+    @Test
+    public void multipartStreamSupportsListener() throws Exception
+    {
+        request.setContentType("multipart/form-data; boundary=xyz");
+        final CachedHttpRequestWrapper wrapper = new CachedHttpRequestWrapper(request, new CaptureSettings());
+        final ServletInputStream in = wrapper.getInputStream();
+        final ApplicationListener listener = new ApplicationListener(in);
+        in.setReadListener(listener);
+
+        containerStream.offer("--xyz\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\nvalue\r\n--xyz--\r\n");
+        containerStream.complete();
+
+        assertTrue(listener.allDataRead);
+        assertEquals(1, ((MultipartBody) wrapper.getBody()).getParts().size());
+    }
+
+    /**
+     * Reads whatever is ready, like an application using non-blocking IO.
+     */
+    private class ApplicationListener implements ReadListener
+    {
+        private final ServletInputStream in;
+        private boolean allDataRead;
+
+        private ApplicationListener(ServletInputStream in)
+        {
+            this.in = in;
+        }
+
+        @Override
+        public void onDataAvailable() throws IOException
+        {
+            final byte[] buffer = new byte[4];
+            int read;
+            while (in.isReady() && (read = in.read(buffer)) != -1)
+            {
+                received.write(buffer, 0, read);
+            }
+        }
+
+        @Override
+        public void onAllDataRead()
+        {
+            allDataRead = true;
+        }
+
+        @Override
+        public void onError(Throwable t)
+        {
+            fail(t.toString());
+        }
+    }
+
+    /**
+     * Non-blocking container stream the test feeds data to.
+     */
+    private static class ContainerInputStream extends ServletInputStream
+    {
+        private final Queue<Byte> data = new ArrayDeque<>();
+        private boolean complete;
+        private ReadListener listener;
+        private int reads;
+
+        void offer(String s) throws IOException
+        {
+            for (byte b : s.getBytes())
+            {
+                data.add(b);
+            }
+            listener.onDataAvailable();
+        }
+
+        void complete() throws IOException
+        {
+            complete = true;
+            listener.onAllDataRead();
+        }
+
+        @Override
+        public int read()
+        {
+            reads++;
+            if (data.isEmpty())
+            {
+                if (complete)
+                {
+                    return -1;
+                }
+                throw new IllegalStateException("Not ready");
+            }
+            return data.remove() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+        {
+            final int first = read();
+            if (first == -1)
+            {
+                return -1;
+            }
+            b[off] = (byte) first;
+            int n = 1;
+            while (n < len && !data.isEmpty())
+            {
+                b[off + n++] = data.remove();
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isFinished()
+        {
+            return complete && data.isEmpty();
+        }
+
+        @Override
+        public boolean isReady()
+        {
+            return !data.isEmpty() || complete;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener)
+        {
+            this.listener = readListener;
+        }
+    }
+}
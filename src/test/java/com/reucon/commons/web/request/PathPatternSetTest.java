@@ -0,0 +1,108 @@
+package com.reucon.commons.web.request;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PathPatternSetTest
+{
+    @Test
+    public void exactPattern()
+    {
+        final PathPatternSet patterns = PathPatternSet.compile("/api/orders");
+
+        assertTrue(patterns.matches("/api/orders"));
+        assertFalse(patterns.matches("/api/orders/1"));
+        assertFalse(patterns.matches("/api/order"));
+    }
+
+    @Test
+    public void trailingDoubleStarMatchesPrefix()
+    {
+        final PathPatternSet patterns = PathPatternSet.compile("/api/**");
+
+        assertTrue(patterns.matches("/api"));
+        assertTrue(patterns.matches("/api/"));
+        assertTrue(patterns.matches("/api/orders/1"));
+        assertFalse(patterns.matches("/apidocs"));
+        assertFalse(patterns.matches("/"));
+    }
+
+    @Test
+    public void singleStarDoesNotCrossSegments()
+    {
+        final PathPatternSet patterns = PathPatternSet.compile("/upload/*.json");
+
+        assertTrue(patterns.matches("/upload/a.json"));
+        assertTrue(patterns.matches("/upload/.json"));
+        assertFalse(patterns.matches("/upload/a/b.json"));
+        assertFalse(patterns.matches("/upload/a.xml"));
+    }
+
+    @Test
+    public void doubleStarInTheMiddle()
+    {
+        final PathPatternSet patterns = PathPatternSet.compile("/**/edit?");
+
+        assertTrue(patterns.matches("/edit1"));
+        assertTrue(patterns.matches("/a/b/c/edit1"));
+        assertFalse(patterns.matches("/a/edit"));
+        assertFalse(patterns.matches("/a/edit/"));
+        assertFalse(patterns.matches("/a/bedit1"));
+    }
+
+    @Test
+    public void servletPathAndPathInfoAreConcatenated()
+    {
+        final PathPatternSet patterns = PathPatternSet.compile("/rest/v1/**");
+
+        assertTrue(patterns.matches("/rest", "/v1/orders"));
+        assertFalse(patterns.matches("/rest", "/v2/orders"));
+        assertFalse(patterns.matches(null, null));
+    }
+
+    @Test
+    public void anyPatternMatches()
+    {
+        final PathPatternSet patterns = PathPatternSet.compile(" /a/** , /b/*, ");
+
+        assertTrue(patterns.matches("/a/x/y"));
+        assertTrue(patterns.matches("/b/x"));
+        assertFalse(patterns.matches("/c"));
+        assertFalse(PathPatternSet.compile("").matches("/a"));
+        assertTrue(PathPatternSet.compile((String) null).isEmpty());
+    }
+
+    @Test
+    public void nonAsciiLiterals()
+    {
+        final PathPatternSet patterns = PathPatternSet.compile("/grüße/*");
+
+        assertTrue(patterns.matches("/grüße/welt"));
+        assertFalse(patterns.matches("/grusse/welt"));
+    }
+
+    @Test
+    public void manyStarsDoNotBacktrack()
+    {
+        final PathPatternSet patterns = PathPatternSet.compile("/**a**a**a**a**a**a**a**a**b");
+        final StringBuilder path = new StringBuilder("/");
+        for (int i = 0; i < 10000; i++)
+        {
+            path.append('a');
+        }
+
+        assertFalse(patterns.matches(path.toString()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooLongPattern()
+    {
+        final StringBuilder pattern = new StringBuilder();
+        for (int i = 0; i < 64; i++)
+        {
+            pattern.append('x');
+        }
+        PathPatternSet.compile(pattern.toString());
+    }
+}
@@ -0,0 +1,152 @@
+package com.reucon.commons.web.response;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponseWrapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.Assert.*;
+
+public class CapturingHttpResponseWrapperTest
+{
+    private MockHttpServletResponse response;
+    private CapturingHttpResponseWrapper wrapper;
+
+    @Before
+    public void setUp()
+    {
+        response = new MockHttpServletResponse();
+        wrapper = new CapturingHttpResponseWrapper(response, 10);
+    }
+
+    @Test
+    public void statusAndHeadersAreCaptured()
+    {
+        wrapper.setStatus(503);
+        wrapper.addHeader("Retry-After", "120");
+
+        assertEquals(503, wrapper.getCaptured().getStatus());
+        assertEquals("120", wrapper.getCaptured().getHeaders().get("Retry-After").get(0));
+    }
+
+    @Test
+    public void streamIsPassedThroughAndCapturedUpToLimit() throws Exception
+    {
+        wrapper.setContentType("application/json");
+        final ServletOutputStream out = wrapper.getOutputStream();
+        out.write('{');
+        out.write("\"error\": \"failed\"}".getBytes());
+
+        assertEquals("{\"error\": \"failed\"}", response.getContentAsString());
+        assertEquals("{\"error\": ", wrapper.getCaptured().getBody());
+        assertEquals(19, wrapper.getCaptured().getBodyLength());
+        assertTrue(wrapper.getCaptured().isBodyTruncated());
+    }
+
+    @Test
+    public void writerIsPassedThroughAndCaptured() throws Exception
+    {
+        wrapper.setContentType("text/plain");
+        final PrintWriter writer = wrapper.getWriter();
+        writer.write("Grüße");
+        writer.print('!');
+        writer.flush();
+
+        assertEquals("Grüße!", response.getContentAsString());
+        assertEquals("Grüße!", wrapper.getCaptured().getBody());
+        assertFalse(wrapper.getCaptured().isBodyTruncated());
+    }
+
+    @Test
+    public void writerReportsErrorsOfResponseWriter() throws Exception
+    {
+        final PrintWriter failing = new PrintWriter(new Writer()
+        {
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException
+            {
+                throw new IOException("Broken pipe");
+            }
+
+            @Override
+            public void flush()
+            {
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        });
+        wrapper = new CapturingHttpResponseWrapper(new HttpServletResponseWrapper(response)
+        {
+            @Override
+            public PrintWriter getWriter()
+            {
+                return failing;
+            }
+        }, 10);
+
+        final PrintWriter writer = wrapper.getWriter();
+        writer.println("lost");
+
+        assertTrue(writer.checkError());
+    }
+
+    @Test
+    public void printlnIsCaptured() throws Exception
+    {
+        wrapper.setContentType("text/plain");
+        wrapper.getWriter().println("ok");
+
+        assertEquals("ok" + System.lineSeparator(), response.getContentAsString());
+        assertEquals("ok" + System.lineSeparator(), wrapper.getCaptured().getBody());
+    }
+
+    @Test
+    public void binaryBodyIsSkipped() throws Exception
+    {
+        wrapper.setContentType("image/png");
+        wrapper.getOutputStream().write(new byte[100]);
+
+        assertEquals("binary", wrapper.getCaptured().getBodySkipped());
+        assertEquals("", wrapper.getCaptured().getBody());
+        assertEquals(100, wrapper.getCaptured().getBodyLength());
+        assertEquals(100, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    public void compressedBodyIsSkipped() throws Exception
+    {
+        wrapper.setContentType("application/json");
+        wrapper.setHeader("Content-Encoding", "gzip");
+        wrapper.getOutputStream().write(new byte[20]);
+
+        assertEquals("compressed", wrapper.getCaptured().getBodySkipped());
+    }
+
+    @Test
+    public void structuredSuffixIsText() throws Exception
+    {
+        wrapper.setContentType("application/problem+json;charset=UTF-8");
+        wrapper.getOutputStream().write("{}".getBytes());
+
+        assertNull(wrapper.getCaptured().getBodySkipped());
+        assertEquals("{}", wrapper.getCaptured().getBody());
+    }
+
+    @Test
+    public void resetDiscardsCapture() throws Exception
+    {
+        wrapper.getOutputStream().write("partial".getBytes());
+        wrapper.resetBuffer();
+        wrapper.getOutputStream().write("error".getBytes());
+
+        assertEquals("error", wrapper.getCaptured().getBody());
+        assertEquals(5, wrapper.getCaptured().getBodyLength());
+    }
+}